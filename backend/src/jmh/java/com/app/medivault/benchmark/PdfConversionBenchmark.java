@@ -0,0 +1,219 @@
+package com.app.medivault.benchmark;
+
+import com.app.medivault.config.ImageIngestionProfile;
+import com.app.medivault.service.ParallelConversionRunner;
+import com.app.medivault.service.PdfConversionService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the PdfConversionService paths used by uploads, with generated inputs.
+ * Run with -prof gc for allocation rates; the size of each output PDF is printed per trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class PdfConversionBenchmark {
+
+    private static final long SEED = 42;
+
+    /**
+     * A conversion service wired like production, working in a throwaway directory
+     */
+    @State(Scope.Benchmark)
+    public static class Converter {
+
+        PdfConversionService service;
+        ForkJoinPool cpuPool;
+        Path workDir;
+        Path output;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            workDir = Files.createTempDirectory("pdf-benchmark-");
+            output = workDir.resolve("output.pdf");
+            cpuPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+            service = new PdfConversionService(
+                    new ParallelConversionRunner(cpuPool, 4),
+                    new ImageIngestionProfile(ImageIngestionProfile.PageSize.A4, 150, false, 0.75f),
+                    DataSize.ofMegabytes(16),
+                    workDir.resolve("scratch").toString());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            System.out.println("\nOutput size: " + Files.size(output) + " bytes");
+            cpuPool.shutdown();
+            FileSystemUtils.deleteRecursively(workDir);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class TextInput {
+
+        @Param({"16", "1024", "8192"})
+        public int textSizeKb;
+
+        Path text;
+
+        @Setup(Level.Trial)
+        public void setUp(Converter converter) throws IOException {
+            text = converter.workDir.resolve("input.txt");
+            writeText(text, textSizeKb * 1024L);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ImageInput {
+
+        @Param({"1600x1200", "4032x3024"})
+        public String resolution;
+
+        @Param({"jpg", "png"})
+        public String format;
+
+        Path image;
+
+        @Setup(Level.Trial)
+        public void setUp(Converter converter) throws IOException {
+            String[] size = resolution.split("x");
+            image = converter.workDir.resolve("input." + format);
+            writeImage(image, format, Integer.parseInt(size[0]), Integer.parseInt(size[1]), new Random(SEED));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class PageInputs {
+
+        @Param({"2", "10", "50"})
+        public int pageCount;
+
+        List<Path> images = new ArrayList<>();
+        List<Path> pdfs = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setUp(Converter converter) throws IOException {
+            Random random = new Random(SEED);
+            for (int i = 0; i < pageCount; i++) {
+                Path image = converter.workDir.resolve("page-" + i + ".jpg");
+                writeImage(image, "jpg", 1700, 2200, random);
+                images.add(image);
+
+                Path pdf = converter.workDir.resolve("page-" + i + ".pdf");
+                converter.service.convertImageToPdf(image, pdf);
+                pdfs.add(pdf);
+            }
+        }
+    }
+
+    @Benchmark
+    public long convertTextToPdf(Converter converter, TextInput input) throws IOException {
+        converter.service.convertTextToPdf(input.text, converter.output);
+        return Files.size(converter.output);
+    }
+
+    @Benchmark
+    public long convertImageToPdf(Converter converter, ImageInput input) throws IOException {
+        converter.service.convertImageToPdf(input.image, converter.output);
+        return Files.size(converter.output);
+    }
+
+    @Benchmark
+    public long mergeImagesToPdf(Converter converter, PageInputs input) throws IOException {
+        converter.service.mergeImagesToPdf(input.images, converter.output);
+        return Files.size(converter.output);
+    }
+
+    @Benchmark
+    public long mergePdfs(Converter converter, PageInputs input) throws IOException {
+        converter.service.mergePdfs(input.pdfs, converter.output);
+        return Files.size(converter.output);
+    }
+
+    /**
+     * Prose-like text with varying line lengths, including some long unbroken lines
+     */
+    private static void writeText(Path path, long bytes) throws IOException {
+        String[] words = {"patient", "reports", "mild", "pain", "since", "admission", "blood", "pressure",
+                "stable", "continue", "metformin", "500mg", "twice", "daily", "review", "in", "two", "weeks",
+                "no", "known", "allergies", "discharge", "summary", "follow-up", "with", "cardiology"};
+        Random random = new Random(SEED);
+        long written = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            while (written < bytes) {
+                int wordsInLine = random.nextInt(10) == 0 ? 60 : 3 + random.nextInt(15);
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < wordsInLine; i++) {
+                    if (i > 0) {
+                        line.append(' ');
+                    }
+                    line.append(words[random.nextInt(words.length)]);
+                }
+                line.append('\n');
+                writer.write(line.toString());
+                written += line.length();
+            }
+        }
+    }
+
+    /**
+     * A photo-like scan: noisy gradient background with lines of dark "text"
+     */
+    private static void writeImage(Path path, String format, int width, int height, Random random) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int base = 200 + (x + y) * 40 / (width + height);
+                int noise = random.nextInt(16);
+                int value = Math.min(255, base + noise);
+                image.setRGB(x, y, (value << 16) | (value << 8) | Math.max(0, value - 10));
+            }
+        }
+
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(new Color(30, 30, 40));
+            graphics.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, Math.max(12, height / 60)));
+            int lineHeight = Math.max(16, height / 40);
+            for (int y = lineHeight * 2; y < height - lineHeight; y += lineHeight) {
+                graphics.drawString("Rx " + random.nextInt(1000) + "  Amoxicillin 500mg  1-0-1  x 7 days",
+                        width / 12, y);
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        ImageIO.write(image, format, path.toFile());
+    }
+}
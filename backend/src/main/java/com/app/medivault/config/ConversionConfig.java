@@ -0,0 +1,65 @@
+package com.app.medivault.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+@Configuration
+public class ConversionConfig {
+
+    /**
+     * Bounded worker pool for medical file conversions.
+     * Uploads only enqueue work here, so request threads and DB connections
+     * are never held while PDFBox is busy.
+     */
+    @Bean(name = "conversionExecutor")
+    public ThreadPoolTaskExecutor conversionExecutor(
+            @Value("${medivault.conversion.worker-threads:2}") int workerThreads,
+            @Value("${medivault.conversion.queue-capacity:100}") int queueCapacity,
+            MeterRegistry meterRegistry) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workerThreads);
+        executor.setMaxPoolSize(workerThreads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("conversion-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+
+        Gauge.builder("medivault.conversion.queue.depth", executor, ThreadPoolTaskExecutor::getQueueSize)
+                .description("Conversions waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("medivault.conversion.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Conversions being processed")
+                .register(meterRegistry);
+        return executor;
+    }
+
+    /**
+     * CPU pool for the per-image / per-page steps of a conversion, sized to the cores.
+     * By default one core is left free so request threads stay responsive under conversion load.
+     */
+    @Bean(name = "conversionCpuPool", destroyMethod = "shutdown")
+    public ForkJoinPool conversionCpuPool(@Value("${medivault.conversion.cpu-threads:0}") int cpuThreads,
+                                          MeterRegistry meterRegistry) {
+        int parallelism = cpuThreads > 0 ? cpuThreads : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ForkJoinPool pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("conversion-cpu-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+
+        Gauge.builder("medivault.conversion.cpu.queued", pool,
+                        p -> p.getQueuedSubmissionCount() + p.getQueuedTaskCount())
+                .description("Per-page conversion steps waiting for a CPU thread")
+                .register(meterRegistry);
+        Gauge.builder("medivault.conversion.cpu.active", pool, ForkJoinPool::getActiveThreadCount)
+                .register(meterRegistry);
+        return pool;
+    }
+}
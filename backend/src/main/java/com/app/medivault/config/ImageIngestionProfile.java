@@ -0,0 +1,44 @@
+package com.app.medivault.config;
+
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * How uploaded photos and scans are turned into PDF pages: the page they are fitted to,
+ * the resolution they are downsampled to and how they are re-encoded.
+ */
+@Component
+@Getter
+public class ImageIngestionProfile {
+
+    public enum PageSize {
+        /** ISO A4, turned landscape for landscape images */
+        A4,
+        /** US Letter, turned landscape for landscape images */
+        LETTER,
+        /** Page sized to the image itself, one point per pixel */
+        ORIGINAL
+    }
+
+    private final PageSize pageSize;
+    private final int targetDpi;
+    private final boolean grayscale;
+    private final float jpegQuality;
+
+    public ImageIngestionProfile(@Value("${medivault.conversion.image.page-size:A4}") PageSize pageSize,
+                                 @Value("${medivault.conversion.image.target-dpi:150}") int targetDpi,
+                                 @Value("${medivault.conversion.image.grayscale:false}") boolean grayscale,
+                                 @Value("${medivault.conversion.image.jpeg-quality:0.75}") float jpegQuality) {
+        if (targetDpi <= 0) {
+            throw new IllegalArgumentException("medivault.conversion.image.target-dpi must be positive");
+        }
+        if (jpegQuality <= 0 || jpegQuality > 1) {
+            throw new IllegalArgumentException("medivault.conversion.image.jpeg-quality must be in (0, 1]");
+        }
+        this.pageSize = pageSize;
+        this.targetDpi = targetDpi;
+        this.grayscale = grayscale;
+        this.jpegQuality = jpegQuality;
+    }
+}
@@ -0,0 +1,53 @@
+package com.app.medivault.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class OcrConfig {
+
+    /**
+     * Threads running claimed OCR jobs on this node.
+     * OcrJobWorker only claims as many jobs as there are idle threads, so nothing queues here.
+     */
+    @Bean(name = "ocrExecutor")
+    public ThreadPoolTaskExecutor ocrExecutor(@Value("${medivault.ocr.jobs.worker-threads:4}") int workerThreads,
+                                              MeterRegistry meterRegistry) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workerThreads);
+        executor.setMaxPoolSize(workerThreads);
+        executor.setQueueCapacity(workerThreads);
+        executor.setThreadNamePrefix("ocr-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+
+        Gauge.builder("medivault.ocr.jobs.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("OCR jobs being processed on this node")
+                .register(meterRegistry);
+        return executor;
+    }
+
+    /**
+     * Renders and recognises the scanned pages of medical file PDFs, a few pages at a time.
+     * Shared by all OCR jobs on this node, so one long document can't take over the machine.
+     * Once the queue is full a job renders its next group on its own thread, slowing it down
+     * rather than failing it (or, while shutting down, leaving it waiting for a dropped group).
+     */
+    @Bean(name = "pdfOcrExecutor")
+    public ThreadPoolTaskExecutor pdfOcrExecutor(@Value("${medivault.ocr.pdf.page-threads:4}") int pageThreads,
+                                                 @Value("${medivault.ocr.pdf.queue-capacity:16}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(pageThreads);
+        executor.setMaxPoolSize(pageThreads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler((task, pool) -> task.run());
+        executor.setThreadNamePrefix("pdf-ocr-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
@@ -1,30 +1,55 @@
 package com.app.medivault.controller;
 
 import com.app.medivault.dtos.ApiResponse;
+import com.app.medivault.dtos.FileDownload;
+import com.app.medivault.dtos.MedicalFilePageTextResponse;
 import com.app.medivault.dtos.MedicalFileResponse;
+import com.app.medivault.dtos.MedicalFileStatusResponse;
+import com.app.medivault.service.FileDownloadService;
 import com.app.medivault.service.MedicalFileService;
+import com.app.medivault.service.ServiceBusyException;
+import com.app.medivault.service.ThumbnailService;
 import com.app.medivault.util.JwtUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/medical-files")
 @CrossOrigin(origins = "*")
 public class MedicalFileController {
 
+    private static final Logger log = LoggerFactory.getLogger(MedicalFileController.class);
+
     @Autowired
     private MedicalFileService medicalFileService;
 
+    @Autowired
+    private FileDownloadService fileDownloadService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
     @Autowired
     private JwtUtil jwtUtil;
 
     /**
      * Upload a single medical file (PDF, text, or image)
-     * Text and images will be converted to PDF automatically
+     * Text and images will be converted to PDF automatically in the background;
+     * poll the status endpoint until processing completes
      */
     @PostMapping("/upload")
     public ResponseEntity<?> uploadMedicalFile(@RequestHeader("Authorization") String authHeader,
@@ -36,7 +61,9 @@ public class MedicalFileController {
         try {
             Long userId = getUserIdFromToken(authHeader);
             MedicalFileResponse response = medicalFileService.uploadMedicalFile(uploadId, patientId, file, category, description, userId);
-            return ResponseEntity.ok(ApiResponse.success("Medical file uploaded and processed successfully", response));
+            return ResponseEntity.accepted().body(ApiResponse.success("Medical file uploaded, conversion in progress", response));
+        } catch (ServiceBusyException e) {
+            return serviceBusy(e);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
         }
@@ -48,6 +75,7 @@ public class MedicalFileController {
      * - Images will be converted to PDF pages
      * - Text files will be converted to PDF pages
      * - PDFs will be merged together
+     * Merging happens in the background; poll the status endpoint until it completes
      */
     @PostMapping("/upload-multiple")
     public ResponseEntity<?> uploadMultipleMedicalFiles(@RequestHeader("Authorization") String authHeader,
@@ -59,7 +87,29 @@ public class MedicalFileController {
         try {
             Long userId = getUserIdFromToken(authHeader);
             MedicalFileResponse response = medicalFileService.uploadMultipleMedicalFiles(uploadId, patientId, files, category, description, userId);
-            return ResponseEntity.ok(ApiResponse.success("Medical files uploaded and merged successfully", response));
+            return ResponseEntity.accepted().body(ApiResponse.success("Medical files uploaded, merge in progress", response));
+        } catch (ServiceBusyException e) {
+            return serviceBusy(e);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
+    /**
+     * Append pages (images, text or PDFs) to the end of an existing medical file
+     * Only the new pages are written; poll the status endpoint until processing completes
+     */
+    @PostMapping("/{fileId}/pages")
+    public ResponseEntity<?> appendPages(@RequestHeader("Authorization") String authHeader,
+                                         @PathVariable Long fileId,
+                                         @RequestParam("appendId") String appendId,
+                                         @RequestParam("files") List<MultipartFile> files) {
+        try {
+            Long userId = getUserIdFromToken(authHeader);
+            MedicalFileResponse response = medicalFileService.appendPages(fileId, appendId, files, userId);
+            return ResponseEntity.accepted().body(ApiResponse.success("Pages uploaded, append in progress", response));
+        } catch (ServiceBusyException e) {
+            return serviceBusy(e);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
         }
@@ -80,6 +130,36 @@ public class MedicalFileController {
         }
     }
 
+    /**
+     * Get the processing status of a medical file (lightweight, for polling)
+     */
+    @GetMapping("/{fileId}/status")
+    public ResponseEntity<?> getProcessingStatus(@RequestHeader("Authorization") String authHeader,
+                                                 @PathVariable Long fileId) {
+        try {
+            Long userId = getUserIdFromToken(authHeader);
+            MedicalFileStatusResponse status = medicalFileService.getProcessingStatus(fileId, userId);
+            return ResponseEntity.ok(ApiResponse.success("Processing status retrieved successfully", status));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
+    /**
+     * Get the extracted text of a medical file, per page (see textStatus for progress)
+     */
+    @GetMapping("/{fileId}/text")
+    public ResponseEntity<?> getMedicalFileText(@RequestHeader("Authorization") String authHeader,
+                                                @PathVariable Long fileId) {
+        try {
+            Long userId = getUserIdFromToken(authHeader);
+            List<MedicalFilePageTextResponse> pages = medicalFileService.getPageTexts(fileId, userId);
+            return ResponseEntity.ok(ApiResponse.success("Medical file text retrieved successfully", pages));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
     /**
      * Get a specific medical file
      */
@@ -95,6 +175,53 @@ public class MedicalFileController {
         }
     }
 
+    /**
+     * Download the PDF of a medical file
+     * Supports Range / If-Range for resumed downloads and is cacheable by the client
+     */
+    @GetMapping("/{fileId}/download")
+    public ResponseEntity<?> downloadMedicalFile(@RequestHeader("Authorization") String authHeader,
+                                                 @PathVariable Long fileId,
+                                                 HttpServletRequest request,
+                                                 HttpServletResponse response) {
+        try {
+            Long userId = getUserIdFromToken(authHeader);
+            FileDownload download = medicalFileService.getPdfDownload(fileId, userId);
+            fileDownloadService.send(download, request, response);
+            return null;
+        } catch (Exception e) {
+            return downloadFailed(response, e);
+        }
+    }
+
+    /**
+     * Render a page of a medical file PDF as a JPEG preview
+     * Page numbers start at 1; the width is in pixels and rounded up to the cache's size steps
+     */
+    @GetMapping("/{fileId}/pages/{page}/thumbnail")
+    public ResponseEntity<?> getPageThumbnail(@RequestHeader("Authorization") String authHeader,
+                                              @PathVariable Long fileId,
+                                              @PathVariable int page,
+                                              @RequestParam(value = "width", defaultValue = "" + ThumbnailService.DEFAULT_WIDTH) int width,
+                                              WebRequest webRequest) {
+        try {
+            Long userId = getUserIdFromToken(authHeader);
+            FileDownload download = medicalFileService.getPdfDownload(fileId, userId);
+            ThumbnailService.Thumbnail thumbnail = thumbnailService.renderPdfPage(download.getLocation(), page, width);
+            if (webRequest.checkNotModified(thumbnail.etag())) {
+                return null;
+            }
+            return ResponseEntity.ok()
+                    .contentType(MediaType.IMAGE_JPEG)
+                    .cacheControl(CacheControl.maxAge(1, TimeUnit.DAYS).cachePrivate())
+                    .body(thumbnail.data());
+        } catch (ServiceBusyException e) {
+            return serviceBusy(e);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
     /**
      * Delete a medical file
      */
@@ -110,6 +237,24 @@ public class MedicalFileController {
         }
     }
 
+    /**
+     * Report a failed download as a bad request, unless the response has already been committed
+     * (e.g. the client went away mid-transfer), when nothing more can be sent
+     */
+    private ResponseEntity<?> downloadFailed(HttpServletResponse response, Exception e) {
+        if (response.isCommitted()) {
+            log.info("Download stopped after the response was committed: {}", e.getMessage());
+            return null;
+        }
+        return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+    }
+
+    private ResponseEntity<?> serviceBusy(ServiceBusyException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(ApiResponse.error(e.getMessage()));
+    }
+
     private Long getUserIdFromToken(String authHeader) {
         String token = authHeader.replace("Bearer ", "");
         return jwtUtil.getUserIdFromToken(token);
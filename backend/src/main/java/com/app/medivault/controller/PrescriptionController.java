@@ -1,25 +1,47 @@
 package com.app.medivault.controller;
 
 import com.app.medivault.dtos.ApiResponse;
+import com.app.medivault.dtos.FileDownload;
 import com.app.medivault.dtos.PrescriptionRequest;
 import com.app.medivault.dtos.PrescriptionResponse;
+import com.app.medivault.service.FileDownloadService;
 import com.app.medivault.service.PrescriptionService;
+import com.app.medivault.service.ServiceBusyException;
+import com.app.medivault.service.ThumbnailService;
 import com.app.medivault.util.JwtUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.MediaType;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/prescriptions")
 @CrossOrigin(origins = "*")
 public class PrescriptionController {
 
+    private static final Logger log = LoggerFactory.getLogger(PrescriptionController.class);
+
     @Autowired
     private PrescriptionService prescriptionService;
 
+    @Autowired
+    private FileDownloadService fileDownloadService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
     @Autowired
     private JwtUtil jwtUtil;
 
@@ -74,6 +96,51 @@ public class PrescriptionController {
         }
     }
 
+    /**
+     * Download the original prescription image
+     * Supports Range / If-Range for resumed downloads and is cacheable by the client
+     */
+    @GetMapping("/{prescriptionId}/image")
+    public ResponseEntity<?> downloadPrescriptionImage(@RequestHeader("Authorization") String authHeader,
+                                                       @PathVariable Long prescriptionId,
+                                                       HttpServletRequest request,
+                                                       HttpServletResponse response) {
+        try {
+            Long userId = getUserIdFromToken(authHeader);
+            FileDownload download = prescriptionService.getImageDownload(prescriptionId, userId);
+            fileDownloadService.send(download, request, response);
+            return null;
+        } catch (Exception e) {
+            return downloadFailed(response, e);
+        }
+    }
+
+    /**
+     * Render the prescription image as a JPEG preview of the given pixel width
+     */
+    @GetMapping("/{prescriptionId}/thumbnail")
+    public ResponseEntity<?> getPrescriptionThumbnail(@RequestHeader("Authorization") String authHeader,
+                                                      @PathVariable Long prescriptionId,
+                                                      @RequestParam(value = "width", defaultValue = "" + ThumbnailService.DEFAULT_WIDTH) int width,
+                                                      WebRequest webRequest) {
+        try {
+            Long userId = getUserIdFromToken(authHeader);
+            FileDownload download = prescriptionService.getImageDownload(prescriptionId, userId);
+            ThumbnailService.Thumbnail thumbnail = thumbnailService.renderImage(download.getLocation(), width);
+            if (webRequest.checkNotModified(thumbnail.etag())) {
+                return null;
+            }
+            return ResponseEntity.ok()
+                    .contentType(MediaType.IMAGE_JPEG)
+                    .cacheControl(CacheControl.maxAge(1, TimeUnit.DAYS).cachePrivate())
+                    .body(thumbnail.data());
+        } catch (ServiceBusyException e) {
+            return serviceBusy(e);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
     @DeleteMapping("/{prescriptionId}")
     public ResponseEntity<?> deletePrescription(@RequestHeader("Authorization") String authHeader,
                                                 @PathVariable Long prescriptionId) {
@@ -86,6 +153,24 @@ public class PrescriptionController {
         }
     }
 
+    /**
+     * Report a failed download as a bad request, unless the response has already been committed
+     * (e.g. the client went away mid-transfer), when nothing more can be sent
+     */
+    private ResponseEntity<?> downloadFailed(HttpServletResponse response, Exception e) {
+        if (response.isCommitted()) {
+            log.info("Download stopped after the response was committed: {}", e.getMessage());
+            return null;
+        }
+        return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+    }
+
+    private ResponseEntity<?> serviceBusy(ServiceBusyException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(ApiResponse.error(e.getMessage()));
+    }
+
     private Long getUserIdFromToken(String authHeader) {
         String token = authHeader.replace("Bearer ", "");
         return jwtUtil.getUserIdFromToken(token);
@@ -0,0 +1,112 @@
+package com.app.medivault.controller;
+
+import com.app.medivault.dtos.ApiResponse;
+import com.app.medivault.dtos.UploadSessionRequest;
+import com.app.medivault.dtos.UploadSessionResponse;
+import com.app.medivault.service.ChunkedUploadService;
+import com.app.medivault.service.ServiceBusyException;
+import com.app.medivault.util.JwtUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.InputStream;
+
+@RestController
+@RequestMapping("/api/uploads")
+@CrossOrigin(origins = "*")
+public class UploadSessionController {
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private JwtUtil jwtUtil;
+
+    /**
+     * Open a resumable upload session for an uploadId
+     * Opening an existing session returns it, so clients can resume after a restart
+     */
+    @PostMapping
+    public ResponseEntity<?> openSession(@RequestHeader("Authorization") String authHeader,
+                                         @RequestBody UploadSessionRequest request) {
+        try {
+            Long userId = getUserIdFromToken(authHeader);
+            UploadSessionResponse response = chunkedUploadService.openSession(request, userId);
+            return ResponseEntity.ok(ApiResponse.success("Upload session opened", response));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
+    /**
+     * Get the chunks and contiguous offset the server already has
+     */
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<?> getSession(@RequestHeader("Authorization") String authHeader,
+                                        @PathVariable String uploadId) {
+        try {
+            Long userId = getUserIdFromToken(authHeader);
+            UploadSessionResponse response = chunkedUploadService.getSession(uploadId, userId);
+            return ResponseEntity.ok(ApiResponse.success("Upload session retrieved successfully", response));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
+    /**
+     * Upload one chunk as a raw application/octet-stream body
+     * Chunk N covers bytes [N * chunkSize, (N + 1) * chunkSize) of the file
+     */
+    @PutMapping("/{uploadId}/chunks/{index}")
+    public ResponseEntity<?> uploadChunk(@RequestHeader("Authorization") String authHeader,
+                                         @PathVariable String uploadId,
+                                         @PathVariable int index,
+                                         HttpServletRequest request) {
+        try {
+            Long userId = getUserIdFromToken(authHeader);
+            UploadSessionResponse response;
+            try (InputStream body = request.getInputStream()) {
+                response = chunkedUploadService.writeChunk(uploadId, index, body, userId);
+            }
+            return ResponseEntity.ok(ApiResponse.success("Chunk received", response));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
+    /**
+     * Finalize the upload into normal medical file or prescription processing
+     */
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<?> completeSession(@RequestHeader("Authorization") String authHeader,
+                                             @PathVariable String uploadId) {
+        try {
+            Long userId = getUserIdFromToken(authHeader);
+            Object response = chunkedUploadService.completeSession(uploadId, userId);
+            if (response instanceof UploadSessionResponse) {
+                // Another request is still handing the file over; completing again returns the result
+                return ResponseEntity.accepted().body(ApiResponse.success("Upload is being completed, retry shortly", response));
+            }
+            return ResponseEntity.ok(ApiResponse.success("Upload completed", response));
+        } catch (ServiceBusyException e) {
+            return serviceBusy(e);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
+    private ResponseEntity<?> serviceBusy(ServiceBusyException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(ApiResponse.error(e.getMessage()));
+    }
+
+    private Long getUserIdFromToken(String authHeader) {
+        String token = authHeader.replace("Bearer ", "");
+        return jwtUtil.getUserIdFromToken(token);
+    }
+}
@@ -0,0 +1,15 @@
+package com.app.medivault.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class FileDownload {
+    // Storage location of the file (as persisted on the owning row)
+    private String location;
+    // Media type to send, or null to detect it from the file content
+    private String contentType;
+    // Name suggested to the client
+    private String filename;
+}
@@ -0,0 +1,18 @@
+package com.app.medivault.dtos;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class MedicalFilePageTextResponse {
+    private Integer pageNumber;
+    private String source;
+    private String status;
+    private String text;
+    private String error;
+}
@@ -19,9 +19,11 @@ public class MedicalFileResponse {
     private String originalFilename;
     private String originalFiletype;
     private String pdfUrl;
+    private String thumbnailUrl;
     private String fileCategory;
     private String description;
     private String processingStatus;
+    private String textStatus;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 }
@@ -0,0 +1,21 @@
+package com.app.medivault.dtos;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class MedicalFileStatusResponse {
+    private Long id;
+    private String uploadId;
+    private String processingStatus;
+    private String processingError;
+    private String textStatus;
+    private LocalDateTime updatedAt;
+}
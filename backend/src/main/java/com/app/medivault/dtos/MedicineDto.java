@@ -13,4 +13,7 @@ public class MedicineDto {
     private String dosage;
     private String frequency;
     private String duration;
+    private String recognizedText;
+    private Double matchConfidence;
+    private Boolean needsReview;
 }
@@ -15,6 +15,7 @@ public class PrescriptionResponse {
     private Long id;
     private String uploadId;
     private String imageUrl;
+    private String thumbnailUrl;
     private Long patientId;
     private String patientName;
     private String doctorName;
@@ -0,0 +1,19 @@
+package com.app.medivault.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSessionRequest {
+    private String uploadId;
+    private Long patientId;
+    private String target; // MEDICAL_FILE, PRESCRIPTION
+    private String filename;
+    private Long totalSize;
+    private Integer chunkSize; // optional, server default if absent
+    private String category;
+    private String description;
+}
@@ -0,0 +1,27 @@
+package com.app.medivault.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSessionResponse {
+    private String uploadId;
+    private String target;
+    private String status;
+    private String filename;
+    private Long totalSize;
+    private Integer chunkSize;
+    private Integer totalChunks;
+    // Chunk indices the server already has
+    private List<Integer> receivedChunks;
+    // Length of the contiguous prefix received so far; resume from here
+    private Long committedOffset;
+    private Long receivedBytes;
+    private LocalDateTime expiresAt;
+}
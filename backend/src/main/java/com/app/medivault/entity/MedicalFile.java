@@ -36,8 +36,8 @@ public class MedicalFile {
     @Column(name = "original_filetype")
     private String originalFiletype;
 
-    // Final PDF file path (after conversion)
-    @Column(name = "pdf_url", nullable = false)
+    // Final PDF file path (after conversion, empty while PENDING/PROCESSING)
+    @Column(name = "pdf_url")
     private String pdfUrl;
 
     // File category/type
@@ -53,6 +53,19 @@ public class MedicalFile {
     @Column(name = "processing_status")
     private FileProcessingStatus processingStatus;
 
+    // Reason the last conversion failed
+    @Column(name = "processing_error", length = 1000)
+    private String processingError;
+
+    // Text extraction (text layer or OCR) of the converted PDF, stored per page
+    @Enumerated(EnumType.STRING)
+    @Column(name = "text_status")
+    private FileProcessingStatus textStatus;
+
+    // Client-generated id of the last page append, for idempotent retries
+    @Column(name = "last_append_id")
+    private String lastAppendId;
+
     // Audit fields
     @Column(name = "created_at")
     private LocalDateTime createdAt;
@@ -0,0 +1,66 @@
+package com.app.medivault.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(
+        name = "medical_file_page_texts",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"medical_file_id", "page_number"})
+)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class MedicalFilePageText {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "medical_file_id", nullable = false)
+    private Long medicalFileId;
+
+    // 1-based, as shown to users
+    @Column(name = "page_number", nullable = false)
+    private Integer pageNumber;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "source")
+    private PageTextSource source;
+
+    // COMPLETED or FAILED; failed pages are retried with the file's OCR job
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private FileProcessingStatus status;
+
+    @Lob
+    @Column(name = "extracted_text")
+    private String text;
+
+    @Column(name = "error", length = 1000)
+    private String error;
+
+    // Audit fields
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = LocalDateTime.now();
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
@@ -23,6 +23,11 @@ public class Medicine {
     private String frequency;
     private String duration;
 
+    // Set when the medicine was read from the prescription image, as opposed to entered by the user
+    private String recognizedText;
+    private Double matchConfidence;
+    private Boolean needsReview;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "prescription_id")
     private Prescription prescription;
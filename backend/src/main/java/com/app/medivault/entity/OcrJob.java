@@ -0,0 +1,78 @@
+package com.app.medivault.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * OCR work for one prescription or medical file, written when its upload is accepted (an outbox)
+ * and drained by worker threads on any node.
+ */
+@Entity
+@Table(
+        name = "ocr_jobs",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"target_type", "target_id"}),
+        indexes = @Index(name = "idx_ocr_jobs_claim", columnList = "status, next_attempt_at")
+)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class OcrJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "target_type", nullable = false)
+    private OcrJobTarget targetType;
+
+    // Plain id rather than a relation, so a queued job never blocks deleting its prescription or file
+    @Column(name = "target_id", nullable = false)
+    private Long targetId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private OcrJobStatus status;
+
+    // Attempts started so far, including the one in progress
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts;
+
+    @Column(name = "next_attempt_at", nullable = false)
+    private LocalDateTime nextAttemptAt;
+
+    // Claim holding the job while PROCESSING (node id plus a token unique to the claim); the job may be
+    // claimed again once the lease expires, and the old claim can then no longer report back
+    @Column(name = "lease_owner")
+    private String leaseOwner;
+
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    // Audit fields
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = LocalDateTime.now();
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
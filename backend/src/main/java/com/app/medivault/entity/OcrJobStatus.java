@@ -0,0 +1,8 @@
+package com.app.medivault.entity;
+
+public enum OcrJobStatus {
+    QUEUED,        // Waiting for a worker (first attempt or a scheduled retry)
+    PROCESSING,    // Leased by a worker node until lease_expires_at
+    COMPLETED,
+    FAILED         // Dead letter: gave up after the maximum number of attempts
+}
@@ -0,0 +1,6 @@
+package com.app.medivault.entity;
+
+public enum OcrJobTarget {
+    PRESCRIPTION,    // Prescription image, recognised and parsed into medicines
+    MEDICAL_FILE     // Converted medical file PDF, text stored per page
+}
@@ -0,0 +1,36 @@
+package com.app.medivault.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "ocr_results")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class OcrResult {
+
+    // SHA-256 of the image bytes sent for recognition, hex encoded
+    @Id
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Lob
+    @Column(name = "extracted_text")
+    private String text;
+
+    // Audit fields
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
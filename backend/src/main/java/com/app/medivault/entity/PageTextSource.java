@@ -0,0 +1,6 @@
+package com.app.medivault.entity;
+
+public enum PageTextSource {
+    TEXT_LAYER,    // Embedded text of a born-digital page
+    OCR            // Recognised from the rendered page of a scan
+}
@@ -62,6 +62,10 @@ public class Prescription {
     @OneToMany(mappedBy = "prescription", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<Medicine> medicines = new ArrayList<>();
 
+    // Set once the user saves the medicine list; OCR results no longer replace it after that
+    @Column(name = "medicines_confirmed")
+    private Boolean medicinesConfirmed;
+
     // Analysis results
     @Column(name = "risk_level")
     @Enumerated(EnumType.STRING)
@@ -0,0 +1,52 @@
+package com.app.medivault.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "stored_blobs")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class StoredBlob {
+
+    // SHA-256 of the file content, hex encoded
+    @Id
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    // Sharded file path, e.g. uploads/blobs/ab/cd/<hash>
+    @Column(name = "storage_path", nullable = false, unique = true)
+    private String storagePath;
+
+    @Column(name = "size_bytes")
+    private Long sizeBytes;
+
+    // Number of MedicalFile / Prescription rows pointing at this blob
+    @Column(name = "reference_count", nullable = false)
+    private Integer referenceCount;
+
+    // Audit fields
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = LocalDateTime.now();
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
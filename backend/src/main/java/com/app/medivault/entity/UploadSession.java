@@ -0,0 +1,91 @@
+package com.app.medivault.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "upload_sessions")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadSession {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Same uploadId the finished MedicalFile / Prescription will carry
+    @Column(name = "upload_id", nullable = false, unique = true)
+    private String uploadId;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "patient_id", nullable = false)
+    private Patient patient;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private UploadTarget target;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private UploadSessionStatus status;
+
+    @Column(name = "original_filename")
+    private String originalFilename;
+
+    @Column(name = "file_category")
+    private String fileCategory;
+
+    @Column(length = 1000)
+    private String description;
+
+    @Column(name = "total_size", nullable = false)
+    private Long totalSize;
+
+    @Column(name = "chunk_size", nullable = false)
+    private Integer chunkSize;
+
+    @Column(name = "total_chunks", nullable = false)
+    private Integer totalChunks;
+
+    // Bitset (BitSet.toByteArray) of chunk indices already written to disk
+    @Column(name = "received_chunks", length = 8192)
+    private byte[] receivedChunks;
+
+    @Column(name = "received_bytes")
+    private Long receivedBytes;
+
+    // File the chunks are written into
+    @Column(name = "staging_path", nullable = false)
+    private String stagingPath;
+
+    @Column(name = "expires_at")
+    private LocalDateTime expiresAt;
+
+    // Audit fields
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = LocalDateTime.now();
+        if (status == null) {
+            status = UploadSessionStatus.OPEN;
+        }
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,6 @@
+package com.app.medivault.entity;
+
+public enum UploadSessionStatus {
+    OPEN,              // Accepting chunks
+    COMPLETED          // All chunks received and handed to processing
+}
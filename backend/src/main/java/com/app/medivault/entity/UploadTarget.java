@@ -0,0 +1,6 @@
+package com.app.medivault.entity;
+
+public enum UploadTarget {
+    MEDICAL_FILE,      // Finalized into MedicalFileService processing
+    PRESCRIPTION       // Finalized into PrescriptionService processing
+}
@@ -0,0 +1,21 @@
+package com.app.medivault.repository;
+
+import com.app.medivault.entity.MedicalFilePageText;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface MedicalFilePageTextRepository extends JpaRepository<MedicalFilePageText, Long> {
+    List<MedicalFilePageText> findByMedicalFileIdOrderByPageNumber(Long medicalFileId);
+
+    @Modifying
+    @Transactional
+    @Query("delete from MedicalFilePageText t where t.medicalFileId = :medicalFileId")
+    int deleteByMedicalFileId(@Param("medicalFileId") Long medicalFileId);
+}
@@ -1,9 +1,16 @@
 package com.app.medivault.repository;
 
+import com.app.medivault.entity.FileProcessingStatus;
 import com.app.medivault.entity.MedicalFile;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -11,4 +18,74 @@ import java.util.Optional;
 public interface MedicalFileRepository extends JpaRepository<MedicalFile, Long> {
     Optional<MedicalFile> findByUploadId(String uploadId);
     List<MedicalFile> findByPatientIdOrderByCreatedAtDesc(Long patientId);
+
+    @Query("select f.id as id, f.uploadId as uploadId, f.processingStatus as processingStatus, " +
+           "f.processingError as processingError, f.textStatus as textStatus, f.updatedAt as updatedAt " +
+           "from MedicalFile f where f.id = :id and f.patient.user.id = :userId")
+    Optional<MedicalFileStatusView> findStatusByIdAndUserId(@Param("id") Long id, @Param("userId") Long userId);
+
+    @Modifying
+    @Transactional
+    @Query("update MedicalFile f set f.processingStatus = :status, f.updatedAt = :now where f.id = :id")
+    int updateProcessingStatus(@Param("id") Long id, @Param("status") FileProcessingStatus status,
+                               @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update MedicalFile f set f.pdfUrl = :pdfUrl, f.processingStatus = :status, " +
+           "f.processingError = null, f.updatedAt = :now where f.id = :id")
+    int completeProcessing(@Param("id") Long id, @Param("pdfUrl") String pdfUrl,
+                           @Param("status") FileProcessingStatus status, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update MedicalFile f set f.processingStatus = :status, f.processingError = :error, " +
+           "f.updatedAt = :now where f.id = :id")
+    int failProcessing(@Param("id") Long id, @Param("error") String error,
+                       @Param("status") FileProcessingStatus status, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update MedicalFile f set f.processingStatus = :status, f.processingError = null, " +
+           "f.lastAppendId = :appendId, f.updatedAt = :now " +
+           "where f.id = :id and f.processingStatus = :expected and f.pdfUrl is not null")
+    int claimForAppend(@Param("id") Long id, @Param("appendId") String appendId,
+                       @Param("expected") FileProcessingStatus expected,
+                       @Param("status") FileProcessingStatus status, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update MedicalFile f set f.processingStatus = :status, f.processingError = :error, " +
+           "f.lastAppendId = null, f.updatedAt = :now where f.id = :id")
+    int failAppend(@Param("id") Long id, @Param("error") String error,
+                   @Param("status") FileProcessingStatus status, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update MedicalFile f set f.updatedAt = :now where f.id in :ids and f.processingStatus in :statuses")
+    int touchProcessing(@Param("ids") Collection<Long> ids, @Param("statuses") Collection<FileProcessingStatus> statuses,
+                        @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update MedicalFile f set f.processingStatus = :status, f.processingError = :error, f.updatedAt = :now " +
+           "where f.processingStatus in :stalled and f.pdfUrl is null and f.updatedAt < :cutoff")
+    int failStalledConversions(@Param("stalled") Collection<FileProcessingStatus> stalled,
+                               @Param("cutoff") LocalDateTime cutoff, @Param("error") String error,
+                               @Param("status") FileProcessingStatus status, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update MedicalFile f set f.processingStatus = :status, f.processingError = :error, " +
+           "f.lastAppendId = null, f.updatedAt = :now " +
+           "where f.processingStatus in :stalled and f.pdfUrl is not null and f.updatedAt < :cutoff")
+    int failStalledAppends(@Param("stalled") Collection<FileProcessingStatus> stalled,
+                           @Param("cutoff") LocalDateTime cutoff, @Param("error") String error,
+                           @Param("status") FileProcessingStatus status, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update MedicalFile f set f.textStatus = :status, f.updatedAt = :now where f.id = :id")
+    int updateTextStatus(@Param("id") Long id, @Param("status") FileProcessingStatus status,
+                         @Param("now") LocalDateTime now);
 }
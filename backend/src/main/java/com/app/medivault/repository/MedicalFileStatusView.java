@@ -0,0 +1,17 @@
+package com.app.medivault.repository;
+
+import com.app.medivault.entity.FileProcessingStatus;
+
+import java.time.LocalDateTime;
+
+/**
+ * Lightweight projection used when clients poll conversion progress
+ */
+public interface MedicalFileStatusView {
+    Long getId();
+    String getUploadId();
+    FileProcessingStatus getProcessingStatus();
+    String getProcessingError();
+    FileProcessingStatus getTextStatus();
+    LocalDateTime getUpdatedAt();
+}
@@ -0,0 +1,77 @@
+package com.app.medivault.repository;
+
+import com.app.medivault.entity.OcrJob;
+import com.app.medivault.entity.OcrJobStatus;
+import com.app.medivault.entity.OcrJobTarget;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface OcrJobRepository extends JpaRepository<OcrJob, Long> {
+
+    /**
+     * Jobs due to run, plus PROCESSING jobs whose lease ran out (their node died or stalled).
+     * Lock timeout -2 asks for SKIP LOCKED, so nodes polling at the same time take different rows.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("select j from OcrJob j where (j.status = :queued and j.nextAttemptAt <= :now) " +
+           "or (j.status = :processing and j.leaseExpiresAt < :now) order by j.nextAttemptAt")
+    List<OcrJob> findClaimable(@Param("queued") OcrJobStatus queued, @Param("processing") OcrJobStatus processing,
+                               @Param("now") LocalDateTime now, Pageable pageable);
+
+    // Changes by a worker only apply while its claim (owner token) still holds the lease
+
+    @Modifying
+    @Transactional
+    @Query("update OcrJob j set j.leaseExpiresAt = :expiresAt " +
+           "where j.id = :id and j.leaseOwner = :owner and j.status = :processing")
+    int renewLease(@Param("id") Long id, @Param("owner") String owner, @Param("processing") OcrJobStatus processing,
+                   @Param("expiresAt") LocalDateTime expiresAt);
+
+    @Modifying
+    @Transactional
+    @Query("update OcrJob j set j.status = :status, j.leaseOwner = null, j.leaseExpiresAt = null, " +
+           "j.lastError = :error, j.updatedAt = :now " +
+           "where j.id = :id and j.leaseOwner = :owner and j.status = :processing")
+    int release(@Param("id") Long id, @Param("owner") String owner, @Param("processing") OcrJobStatus processing,
+                @Param("status") OcrJobStatus status, @Param("error") String error, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("update OcrJob j set j.status = :queued, j.leaseOwner = null, j.leaseExpiresAt = null, " +
+           "j.lastError = :error, j.nextAttemptAt = :nextAttemptAt, j.updatedAt = :now " +
+           "where j.id = :id and j.leaseOwner = :owner and j.status = :processing")
+    int reschedule(@Param("id") Long id, @Param("owner") String owner, @Param("processing") OcrJobStatus processing,
+                   @Param("queued") OcrJobStatus queued, @Param("error") String error,
+                   @Param("nextAttemptAt") LocalDateTime nextAttemptAt, @Param("now") LocalDateTime now);
+
+    /**
+     * Run an existing job again from scratch, e.g. after pages were appended to its medical file.
+     * A worker still holding the old lease can no longer complete it.
+     */
+    @Modifying
+    @Transactional
+    @Query("update OcrJob j set j.status = :queued, j.attempts = 0, j.nextAttemptAt = :now, j.leaseOwner = null, " +
+           "j.leaseExpiresAt = null, j.lastError = null, j.updatedAt = :now " +
+           "where j.targetType = :targetType and j.targetId = :targetId")
+    int requeue(@Param("targetType") OcrJobTarget targetType, @Param("targetId") Long targetId,
+                @Param("queued") OcrJobStatus queued, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("delete from OcrJob j where j.targetType = :targetType and j.targetId = :targetId")
+    int deleteByTarget(@Param("targetType") OcrJobTarget targetType, @Param("targetId") Long targetId);
+}
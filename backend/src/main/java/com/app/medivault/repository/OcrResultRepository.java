@@ -0,0 +1,20 @@
+package com.app.medivault.repository;
+
+import com.app.medivault.entity.OcrResult;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface OcrResultRepository extends JpaRepository<OcrResult, String> {
+
+    @Modifying
+    @Transactional
+    @Query("delete from OcrResult r where r.createdAt < :cutoff")
+    int deleteCreatedBefore(@Param("cutoff") LocalDateTime cutoff);
+}
@@ -1,9 +1,17 @@
 package com.app.medivault.repository;
 
+import com.app.medivault.entity.AnalysisStatus;
 import com.app.medivault.entity.Prescription;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,4 +20,18 @@ public interface PrescriptionRepository extends JpaRepository<Prescription, Long
     List<Prescription> findByPatientId(Long patientId);
     Optional<Prescription> findByUploadId(String uploadId);
     List<Prescription> findByPatientIdOrderByCreatedAtDesc(Long patientId);
+
+    /**
+     * Load a prescription with its row locked until the transaction ends, so OCR results and a
+     * user's edit of the same prescription are applied one after the other
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from Prescription p where p.id = :id")
+    Optional<Prescription> findByIdForUpdate(@Param("id") Long id);
+
+    @Modifying
+    @Transactional
+    @Query("update Prescription p set p.analysisStatus = :status, p.updatedAt = :now where p.id = :id")
+    int updateAnalysisStatus(@Param("id") Long id, @Param("status") AnalysisStatus status,
+                             @Param("now") LocalDateTime now);
 }
@@ -0,0 +1,23 @@
+package com.app.medivault.repository;
+
+import com.app.medivault.entity.UploadSession;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, Long> {
+    Optional<UploadSession> findByUploadId(String uploadId);
+    List<UploadSession> findByExpiresAtBefore(LocalDateTime time);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select s from UploadSession s where s.uploadId = :uploadId")
+    Optional<UploadSession> findByUploadIdForUpdate(@Param("uploadId") String uploadId);
+}
@@ -0,0 +1,76 @@
+package com.app.medivault.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIMD limit on calls in flight to a remote service. Each call that completes within the latency
+ * threshold while the limit is in use grows it by 1/limit (about +1 per round of calls); a slow or
+ * failed call cuts it by the backoff ratio. Callers over the limit wait until a slot frees up.
+ */
+class AdaptiveConcurrencyLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+
+    private double limit;
+    private int inFlight;
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, long latencyThresholdNanos,
+                             double backoffRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyThresholdNanos = latencyThresholdNanos;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * Take a slot if one is free right now
+     */
+    synchronized boolean tryAcquire() {
+        if (inFlight < (int) limit) {
+            inFlight++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Wait for a slot until the deadline ({@link System#nanoTime()} based); false if none freed up in time
+     */
+    synchronized boolean acquire(long deadlineNanos) throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Give the slot back, adjusting the limit by how the call went
+     */
+    synchronized void release(long latencyNanos, boolean succeeded) {
+        inFlight--;
+        if (!succeeded || latencyNanos > latencyThresholdNanos) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (inFlight + 1 >= (int) limit) {
+            // Only grow while the limit is actually what constrains us
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,371 @@
+package com.app.medivault.service;
+
+import com.app.medivault.dtos.UploadSessionRequest;
+import com.app.medivault.dtos.UploadSessionResponse;
+import com.app.medivault.entity.Patient;
+import com.app.medivault.entity.UploadSession;
+import com.app.medivault.entity.UploadSessionStatus;
+import com.app.medivault.entity.UploadTarget;
+import com.app.medivault.repository.PatientRepository;
+import com.app.medivault.repository.UploadSessionRepository;
+import com.app.medivault.util.UploadStagingUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Resumable, chunked uploads keyed by the client's uploadId.
+ * Chunks are written at their offset in a staging file, so they may arrive in any order and be retried;
+ * the session remembers which chunks it has so clients resume from where they dropped off.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final long MIN_CHUNK_SIZE = 64 * 1024;
+
+    private final UploadSessionRepository uploadSessionRepository;
+    private final PatientRepository patientRepository;
+    private final MedicalFileService medicalFileService;
+    private final PrescriptionService prescriptionService;
+    private final TransactionTemplate transactionTemplate;
+    private final Path stagingDir;
+    private final long defaultChunkSize;
+    private final long maxChunkSize;
+    private final long maxFileSize;
+    private final Duration sessionTtl;
+
+    @Autowired
+    public ChunkedUploadService(UploadSessionRepository uploadSessionRepository,
+                                PatientRepository patientRepository,
+                                MedicalFileService medicalFileService,
+                                PrescriptionService prescriptionService,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${medivault.upload.chunked.dir:uploads/chunked}") String stagingDir,
+                                @Value("${medivault.upload.chunked.default-chunk-size:1MB}") DataSize defaultChunkSize,
+                                @Value("${medivault.upload.chunked.max-chunk-size:8MB}") DataSize maxChunkSize,
+                                @Value("${medivault.upload.chunked.max-file-size:200MB}") DataSize maxFileSize,
+                                @Value("${medivault.upload.chunked.session-ttl:24h}") Duration sessionTtl) {
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.patientRepository = patientRepository;
+        this.medicalFileService = medicalFileService;
+        this.prescriptionService = prescriptionService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.stagingDir = Paths.get(stagingDir);
+        this.defaultChunkSize = defaultChunkSize.toBytes();
+        this.maxChunkSize = maxChunkSize.toBytes();
+        this.maxFileSize = maxFileSize.toBytes();
+        this.sessionTtl = sessionTtl;
+
+        // Create staging directory if it doesn't exist
+        try {
+            Files.createDirectories(this.stagingDir);
+        } catch (IOException e) {
+            // Directory creation failed
+        }
+    }
+
+    /**
+     * Open an upload session, or return the existing one so a client can resume it
+     */
+    public UploadSessionResponse openSession(UploadSessionRequest request, Long userId) throws IOException {
+        if (request.getUploadId() == null || request.getUploadId().isBlank()) {
+            throw new RuntimeException("uploadId is required");
+        }
+
+        Optional<UploadSession> existingSession = uploadSessionRepository.findByUploadId(request.getUploadId());
+        if (existingSession.isPresent()) {
+            UploadSession session = existingSession.get();
+            if (!session.getPatient().getUser().getId().equals(userId)) {
+                throw new RuntimeException("Unauthorized access");
+            }
+            // Resuming is only for the same upload; a reused id must not write into another file
+            if (!sameUpload(session, request)) {
+                throw new RuntimeException("uploadId " + request.getUploadId() + " is already used by a different upload");
+            }
+            return mapToResponse(session);
+        }
+
+        // Verify patient belongs to user
+        Patient patient = patientRepository.findById(request.getPatientId())
+                .orElseThrow(() -> new RuntimeException("Patient not found"));
+
+        if (!patient.getUser().getId().equals(userId)) {
+            throw new RuntimeException("Unauthorized access to patient");
+        }
+
+        UploadTarget target;
+        try {
+            target = UploadTarget.valueOf(request.getTarget().toUpperCase());
+        } catch (Exception e) {
+            throw new RuntimeException("Invalid upload target: " + request.getTarget());
+        }
+
+        if (request.getFilename() == null || request.getFilename().isBlank()) {
+            throw new RuntimeException("filename is required");
+        }
+        if (target == UploadTarget.MEDICAL_FILE && !medicalFileService.isSupportedFile(request.getFilename())) {
+            throw new RuntimeException("Unsupported file type: " + request.getFilename());
+        }
+
+        Long totalSize = request.getTotalSize();
+        if (totalSize == null || totalSize <= 0 || totalSize > maxFileSize) {
+            throw new RuntimeException("totalSize must be between 1 and " + maxFileSize + " bytes");
+        }
+
+        long chunkSize = request.getChunkSize() != null ? request.getChunkSize() : defaultChunkSize;
+        if (chunkSize < MIN_CHUNK_SIZE || chunkSize > maxChunkSize) {
+            throw new RuntimeException("chunkSize must be between " + MIN_CHUNK_SIZE + " and " + maxChunkSize + " bytes");
+        }
+
+        Path stagingFile = stagingDir.resolve(UUID.randomUUID() + ".part");
+        Files.createFile(stagingFile);
+
+        UploadSession session = new UploadSession();
+        session.setUploadId(request.getUploadId());
+        session.setPatient(patient);
+        session.setTarget(target);
+        session.setStatus(UploadSessionStatus.OPEN);
+        session.setOriginalFilename(request.getFilename());
+        session.setFileCategory(request.getCategory());
+        session.setDescription(request.getDescription());
+        session.setTotalSize(totalSize);
+        session.setChunkSize((int) chunkSize);
+        session.setTotalChunks((int) ((totalSize + chunkSize - 1) / chunkSize));
+        session.setReceivedChunks(new byte[0]);
+        session.setReceivedBytes(0L);
+        session.setStagingPath(stagingFile.toString());
+        session.setExpiresAt(LocalDateTime.now().plus(sessionTtl));
+
+        try {
+            session = uploadSessionRepository.save(session);
+        } catch (RuntimeException e) {
+            UploadStagingUtil.deleteQuietly(stagingFile);
+            throw e;
+        }
+
+        return mapToResponse(session);
+    }
+
+    /**
+     * Get which chunks the server already has
+     */
+    public UploadSessionResponse getSession(String uploadId, Long userId) {
+        return mapToResponse(findOwnedSession(uploadId, userId));
+    }
+
+    /**
+     * Write one chunk at its offset in the staging file.
+     * Re-sending a chunk the server already has is a no-op.
+     */
+    public UploadSessionResponse writeChunk(String uploadId, int index, InputStream body, Long userId) throws IOException {
+        UploadSession session = findOwnedSession(uploadId, userId);
+
+        if (session.getStatus() != UploadSessionStatus.OPEN) {
+            throw new RuntimeException("Upload session is already completed");
+        }
+        if (index < 0 || index >= session.getTotalChunks()) {
+            throw new RuntimeException("Chunk index out of range: " + index);
+        }
+        if (BitSet.valueOf(session.getReceivedChunks()).get(index)) {
+            return mapToResponse(session);
+        }
+
+        long offset = (long) index * session.getChunkSize();
+        long expected = Math.min(session.getChunkSize(), session.getTotalSize() - offset);
+        writeAt(Paths.get(session.getStagingPath()), offset, expected, body);
+
+        // Record the chunk under a row lock so concurrent chunks don't lose each other's bits
+        UploadSession updated = transactionTemplate.execute(status -> {
+            UploadSession locked = uploadSessionRepository.findByUploadIdForUpdate(uploadId)
+                    .orElseThrow(() -> new RuntimeException("Upload session not found"));
+            BitSet received = BitSet.valueOf(locked.getReceivedChunks());
+            if (!received.get(index)) {
+                received.set(index);
+                locked.setReceivedChunks(received.toByteArray());
+                locked.setReceivedBytes(locked.getReceivedBytes() + expected);
+                locked.setExpiresAt(LocalDateTime.now().plus(sessionTtl));
+            }
+            return uploadSessionRepository.save(locked);
+        });
+
+        return mapToResponse(updated);
+    }
+
+    /**
+     * Finalize a fully received upload into normal medical file / prescription processing.
+     * Completing an already completed session returns the record it produced, or the session
+     * itself while another complete is still handing the file over.
+     */
+    public Object completeSession(String uploadId, Long userId) throws IOException {
+        UploadSession session = findOwnedSession(uploadId, userId);
+        Path stagingFile = Paths.get(session.getStagingPath());
+
+        if (session.getStatus() == UploadSessionStatus.OPEN) {
+            int received = BitSet.valueOf(session.getReceivedChunks()).cardinality();
+            if (received != session.getTotalChunks()) {
+                throw new RuntimeException("Upload incomplete: " + (session.getTotalChunks() - received) + " chunks missing");
+            }
+            if (!Files.exists(stagingFile) || Files.size(stagingFile) != session.getTotalSize()) {
+                throw new RuntimeException("Staged upload is corrupt, please start the upload again");
+            }
+
+            // Claim the session so concurrent completes hand the file over only once
+            Boolean claimed = transactionTemplate.execute(status -> {
+                UploadSession locked = uploadSessionRepository.findByUploadIdForUpdate(uploadId)
+                        .orElseThrow(() -> new RuntimeException("Upload session not found"));
+                if (locked.getStatus() != UploadSessionStatus.OPEN) {
+                    return false;
+                }
+                locked.setStatus(UploadSessionStatus.COMPLETED);
+                locked.setExpiresAt(LocalDateTime.now().plus(sessionTtl));
+                uploadSessionRepository.save(locked);
+                return true;
+            });
+
+            if (Boolean.TRUE.equals(claimed)) {
+                try {
+                    return dispatch(session, stagingFile, userId);
+                } catch (IOException | RuntimeException e) {
+                    // Let the client retry completing with the chunks it already sent
+                    reopen(uploadId);
+                    throw e;
+                }
+            }
+        }
+
+        // Already claimed. The staging file belongs to whoever claimed it, so it is never dispatched
+        // again: answer with the record it produced, or with the session until that record exists
+        Optional<?> target = session.getTarget() == UploadTarget.PRESCRIPTION
+                ? prescriptionService.findByUploadId(uploadId, userId)
+                : medicalFileService.findByUploadId(uploadId, userId);
+        if (target.isPresent()) {
+            return target.get();
+        }
+        return mapToResponse(findOwnedSession(uploadId, userId));
+    }
+
+    /**
+     * Drop sessions (and their staged chunks) that were abandoned or completed long ago
+     */
+    @Scheduled(fixedDelayString = "${medivault.upload.chunked.cleanup-interval-ms:3600000}")
+    public void purgeExpiredSessions() {
+        for (UploadSession session : uploadSessionRepository.findByExpiresAtBefore(LocalDateTime.now())) {
+            if (session.getStatus() == UploadSessionStatus.OPEN) {
+                UploadStagingUtil.deleteQuietly(Paths.get(session.getStagingPath()));
+            }
+            uploadSessionRepository.delete(session);
+        }
+    }
+
+    private Object dispatch(UploadSession session, Path stagingFile, Long userId) throws IOException {
+        Long patientId = session.getPatient().getId();
+        if (session.getTarget() == UploadTarget.PRESCRIPTION) {
+            return prescriptionService.uploadPrescription(session.getUploadId(), patientId, stagingFile, userId);
+        }
+        return medicalFileService.uploadStagedMedicalFile(session.getUploadId(), patientId, stagingFile,
+                session.getOriginalFilename(), session.getFileCategory(), session.getDescription(), userId);
+    }
+
+    private void reopen(String uploadId) {
+        transactionTemplate.executeWithoutResult(status ->
+                uploadSessionRepository.findByUploadIdForUpdate(uploadId).ifPresent(locked -> {
+                    locked.setStatus(UploadSessionStatus.OPEN);
+                    uploadSessionRepository.save(locked);
+                }));
+    }
+
+    private void writeAt(Path stagingFile, long offset, long expected, InputStream body) throws IOException {
+        try (FileChannel channel = FileChannel.open(stagingFile, StandardOpenOption.WRITE)) {
+            ReadableByteChannel source = Channels.newChannel(body);
+            long written = 0;
+            while (written < expected) {
+                long transferred = channel.transferFrom(source, offset + written, expected - written);
+                if (transferred <= 0) {
+                    break;
+                }
+                written += transferred;
+            }
+
+            if (written < expected) {
+                throw new RuntimeException("Incomplete chunk: expected " + expected + " bytes, received " + written);
+            }
+            if (body.read() != -1) {
+                throw new RuntimeException("Chunk is larger than the expected " + expected + " bytes");
+            }
+
+            // Make the chunk durable before acknowledging it
+            channel.force(false);
+        }
+    }
+
+    private UploadSession findOwnedSession(String uploadId, Long userId) {
+        UploadSession session = uploadSessionRepository.findByUploadId(uploadId)
+                .orElseThrow(() -> new RuntimeException("Upload session not found"));
+
+        // Verify ownership
+        if (!session.getPatient().getUser().getId().equals(userId)) {
+            throw new RuntimeException("Unauthorized access");
+        }
+
+        return session;
+    }
+
+    /**
+     * Whether a request to open a session describes the upload the existing session is for
+     */
+    private boolean sameUpload(UploadSession session, UploadSessionRequest request) {
+        long chunkSize = request.getChunkSize() != null ? request.getChunkSize() : defaultChunkSize;
+        return session.getPatient().getId().equals(request.getPatientId())
+                && session.getTarget().name().equalsIgnoreCase(request.getTarget())
+                && session.getOriginalFilename().equals(request.getFilename())
+                && session.getTotalSize().equals(request.getTotalSize())
+                && session.getChunkSize() == chunkSize;
+    }
+
+    private UploadSessionResponse mapToResponse(UploadSession session) {
+        BitSet received = BitSet.valueOf(session.getReceivedChunks());
+
+        List<Integer> receivedChunks = new ArrayList<>(received.cardinality());
+        for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1)) {
+            receivedChunks.add(i);
+        }
+
+        int contiguous = received.nextClearBit(0);
+        long committedOffset = Math.min((long) contiguous * session.getChunkSize(), session.getTotalSize());
+
+        UploadSessionResponse response = new UploadSessionResponse();
+        response.setUploadId(session.getUploadId());
+        response.setTarget(session.getTarget().name());
+        response.setStatus(session.getStatus().name());
+        response.setFilename(session.getOriginalFilename());
+        response.setTotalSize(session.getTotalSize());
+        response.setChunkSize(session.getChunkSize());
+        response.setTotalChunks(session.getTotalChunks());
+        response.setReceivedChunks(receivedChunks);
+        response.setCommittedOffset(committedOffset);
+        response.setReceivedBytes(session.getReceivedBytes());
+        response.setExpiresAt(session.getExpiresAt());
+        return response;
+    }
+}
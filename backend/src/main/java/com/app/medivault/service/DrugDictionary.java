@@ -0,0 +1,386 @@
+package com.app.medivault.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Drug names compiled into an Aho-Corasick automaton, so every mention in a text is found in
+ * one pass over it whatever the size of the dictionary. Matching ignores case and treats any
+ * run of punctuation or whitespace as a single space ("Pan-D" matches "PAN D"); a match has to
+ * start and end on a word boundary. The automaton lives in buffers, either on the heap or in a
+ * mapped DrugKnowledgeBase file, and is read in place. Immutable, and safe to share between threads.
+ */
+final class DrugDictionary {
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+    private static final char SEPARATOR = ' ';
+
+    private final StringTable names;
+    // The generic a brand stands for; empty for generics themselves
+    private final StringTable generics;
+    // Trie edges, keyed by (state << 16 | char) in an open-addressing table
+    private final LongBuffer edgeKeys;
+    private final IntBuffer edgeTargets;
+    private final int edgeMask;
+    private final IntBuffer fail;
+    // Entry ending at the state, and the next state down the failure chain that ends one
+    private final IntBuffer entryAt;
+    private final IntBuffer nextOutput;
+    private final IntBuffer depth;
+
+    /**
+     * A dictionary name, and the generic it stands for when it is a brand (null for generics)
+     */
+    record Entry(String name, String generic) {
+    }
+
+    /**
+     * A mention of entry {@code id} at {@code [start, end)} of the searched text
+     */
+    record Match(int start, int end, int id, Entry entry) {
+    }
+
+    private DrugDictionary(StringTable names, StringTable generics, LongBuffer edgeKeys, IntBuffer edgeTargets,
+                           IntBuffer fail, IntBuffer entryAt, IntBuffer nextOutput, IntBuffer depth) {
+        this.names = names;
+        this.generics = generics;
+        this.edgeKeys = edgeKeys;
+        this.edgeTargets = edgeTargets;
+        this.edgeMask = edgeKeys.capacity() - 1;
+        this.fail = fail;
+        this.entryAt = entryAt;
+        this.nextOutput = nextOutput;
+        this.depth = depth;
+    }
+
+    /**
+     * Read a dictionary file: one name per line, optionally followed by a tab and the generic it
+     * is a brand (or synonym) of. Blank lines and lines starting with # are skipped.
+     */
+    static DrugDictionary load(InputStream in) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int tab = line.indexOf('\t');
+            if (tab < 0) {
+                entries.add(new Entry(line, null));
+            } else {
+                String generic = line.substring(tab + 1).strip();
+                entries.add(new Entry(line.substring(0, tab).strip(), generic.isEmpty() ? null : generic));
+            }
+        }
+        return compile(entries);
+    }
+
+    static DrugDictionary compile(List<Entry> entries) {
+        return new Compiler(entries).compile();
+    }
+
+    static DrugDictionary read(DrugKnowledgeBase file) {
+        return new DrugDictionary(file.strings(DrugKnowledgeBase.NAMES), file.strings(DrugKnowledgeBase.GENERICS),
+                file.longs(DrugKnowledgeBase.EDGE_KEYS), file.ints(DrugKnowledgeBase.EDGE_TARGETS),
+                file.ints(DrugKnowledgeBase.FAIL), file.ints(DrugKnowledgeBase.ENTRY_AT),
+                file.ints(DrugKnowledgeBase.NEXT_OUTPUT), file.ints(DrugKnowledgeBase.DEPTH));
+    }
+
+    void writeTo(DrugKnowledgeBase.Writer out) {
+        out.strings(DrugKnowledgeBase.NAMES, names);
+        out.strings(DrugKnowledgeBase.GENERICS, generics);
+        out.longs(DrugKnowledgeBase.EDGE_KEYS, edgeKeys);
+        out.ints(DrugKnowledgeBase.EDGE_TARGETS, edgeTargets);
+        out.ints(DrugKnowledgeBase.FAIL, fail);
+        out.ints(DrugKnowledgeBase.ENTRY_AT, entryAt);
+        out.ints(DrugKnowledgeBase.NEXT_OUTPUT, nextOutput);
+        out.ints(DrugKnowledgeBase.DEPTH, depth);
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    Entry entry(int id) {
+        return new Entry(names.get(id), generics.length(id) > 0 ? generics.get(id) : null);
+    }
+
+    /**
+     * Every dictionary name mentioned in {@code text}, in order. Where mentions overlap the
+     * leftmost wins, then the longest, so "Amoxicillin Clavulanate" is reported once and not
+     * also as "Amoxicillin".
+     */
+    List<Match> findAll(CharSequence text) {
+        int length = text.length();
+        // Normalised text, and where each of its characters starts in the original
+        char[] normalized = new char[length];
+        int[] origin = new int[length + 1];
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            char c = fold(text.charAt(i));
+            if (c == SEPARATOR && (n == 0 || normalized[n - 1] == SEPARATOR)) {
+                continue;
+            }
+            normalized[n] = c;
+            origin[n] = i;
+            n++;
+        }
+
+        List<Match> found = new ArrayList<>();
+        int state = ROOT;
+        for (int i = 0; i < n; i++) {
+            state = next(state, normalized[i]);
+            boolean endsWord = normalized[i] != SEPARATOR && (i + 1 == n || normalized[i + 1] == SEPARATOR);
+            if (!endsWord) {
+                continue;
+            }
+            for (int s = entryAt.get(state) != NONE ? state : nextOutput.get(state); s != NONE; s = nextOutput.get(s)) {
+                int start = i + 1 - depth.get(s);
+                if (start == 0 || normalized[start - 1] == SEPARATOR) {
+                    int id = entryAt.get(s);
+                    found.add(new Match(origin[start], origin[i] + 1, id, entry(id)));
+                }
+            }
+        }
+        return leftmostLongest(found);
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int target = edge(state, c);
+            if (target != NONE) {
+                return target;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = fail.get(state);
+        }
+    }
+
+    private int edge(int state, char c) {
+        long key = edgeKey(state, c);
+        for (int slot = slot(key, edgeMask); ; slot = (slot + 1) & edgeMask) {
+            long stored = edgeKeys.get(slot);
+            if (stored == key) {
+                return edgeTargets.get(slot);
+            }
+            if (stored == 0) {
+                return NONE;
+            }
+        }
+    }
+
+    private static List<Match> leftmostLongest(List<Match> found) {
+        if (found.size() < 2) {
+            return found;
+        }
+        found.sort(Comparator.comparingInt(Match::start).thenComparing(Comparator.comparingInt(Match::end).reversed()));
+        List<Match> kept = new ArrayList<>(found.size());
+        int coveredTo = -1;
+        for (Match match : found) {
+            if (match.start() >= coveredTo) {
+                kept.add(match);
+                coveredTo = match.end();
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * A name as the automaton sees it: lower case, punctuation and whitespace runs as one space
+     */
+    static String normalize(String name) {
+        StringBuilder term = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = fold(name.charAt(i));
+            if (c != SEPARATOR || (term.length() > 0 && term.charAt(term.length() - 1) != SEPARATOR)) {
+                term.append(c);
+            }
+        }
+        int end = term.length();
+        while (end > 0 && term.charAt(end - 1) == SEPARATOR) {
+            end--;
+        }
+        return term.substring(0, end);
+    }
+
+    /**
+     * Lower-case letters and digits; everything else becomes the separator
+     */
+    private static char fold(char c) {
+        return Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : SEPARATOR;
+    }
+
+    private static long edgeKey(int state, char c) {
+        // Never 0, which marks an empty slot: the separator and every folded character are non-zero
+        return ((long) state << 16) | c;
+    }
+
+    private static int slot(long key, int mask) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * Builds the trie with growable arrays, then the failure links breadth-first
+     */
+    private static final class Compiler {
+
+        private final List<Entry> source;
+        private long[] keys = new long[1024];
+        private int[] targets = new int[1024];
+        private int edges;
+        private int states = 1;
+        private int[] entryAt = filled(256);
+        private int[] depth = new int[256];
+        // Children of each state as a linked list, only needed to walk the trie breadth-first
+        private int[] firstChild = filled(256);
+        private int[] nextSibling = filled(256);
+        private char[] label = new char[256];
+
+        Compiler(List<Entry> source) {
+            this.source = source;
+        }
+
+        DrugDictionary compile() {
+            List<Entry> kept = new ArrayList<>(source.size());
+            for (Entry entry : source) {
+                String term = normalize(entry.name());
+                if (term.isEmpty()) {
+                    continue;
+                }
+                int state = ROOT;
+                for (int i = 0; i < term.length(); i++) {
+                    state = child(state, term.charAt(i));
+                }
+                // The first spelling of a duplicated name wins
+                if (entryAt[state] == NONE) {
+                    entryAt[state] = kept.size();
+                    kept.add(entry);
+                }
+            }
+
+            int[] fail = new int[states];
+            int[] nextOutput = filled(states);
+            int[] queue = new int[states];
+            int head = 0;
+            int tail = 0;
+            for (int c = firstChild[ROOT]; c != NONE; c = nextSibling[c]) {
+                fail[c] = ROOT;
+                queue[tail++] = c;
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                for (int c = firstChild[state]; c != NONE; c = nextSibling[c]) {
+                    int f = fail[state];
+                    int target;
+                    while ((target = find(f, label[c])) == NONE && f != ROOT) {
+                        f = fail[f];
+                    }
+                    fail[c] = target != NONE ? target : ROOT;
+                    nextOutput[c] = entryAt[fail[c]] != NONE ? fail[c] : nextOutput[fail[c]];
+                    queue[tail++] = c;
+                }
+            }
+
+            List<String> names = new ArrayList<>(kept.size());
+            List<String> generics = new ArrayList<>(kept.size());
+            for (Entry entry : kept) {
+                names.add(entry.name());
+                generics.add(entry.generic() != null ? entry.generic() : "");
+            }
+            return new DrugDictionary(StringTable.of(names), StringTable.of(generics), LongBuffer.wrap(keys),
+                    IntBuffer.wrap(targets), IntBuffer.wrap(fail), IntBuffer.wrap(Arrays.copyOf(entryAt, states)),
+                    IntBuffer.wrap(nextOutput), IntBuffer.wrap(Arrays.copyOf(depth, states)));
+        }
+
+        private int child(int state, char c) {
+            int existing = find(state, c);
+            if (existing != NONE) {
+                return existing;
+            }
+
+            int created = states++;
+            if (created == entryAt.length) {
+                int capacity = created * 2;
+                entryAt = grow(entryAt, capacity);
+                depth = Arrays.copyOf(depth, capacity);
+                firstChild = grow(firstChild, capacity);
+                nextSibling = grow(nextSibling, capacity);
+                label = Arrays.copyOf(label, capacity);
+            }
+            depth[created] = depth[state] + 1;
+            label[created] = c;
+            nextSibling[created] = firstChild[state];
+            firstChild[state] = created;
+
+            // Keep the edge table at most half full
+            if ((edges + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+            }
+            insert(keys, targets, edgeKey(state, c), created);
+            edges++;
+            return created;
+        }
+
+        private int find(int state, char c) {
+            long key = edgeKey(state, c);
+            int mask = keys.length - 1;
+            for (int slot = slot(key, mask); ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return targets[slot];
+                }
+                if (keys[slot] == 0) {
+                    return NONE;
+                }
+            }
+        }
+
+        private void rehash(int capacity) {
+            long[] newKeys = new long[capacity];
+            int[] newTargets = new int[capacity];
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0) {
+                    insert(newKeys, newTargets, keys[i], targets[i]);
+                }
+            }
+            keys = newKeys;
+            targets = newTargets;
+        }
+
+        private static void insert(long[] keys, int[] targets, long key, int target) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while (keys[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            targets[slot] = target;
+        }
+
+        private static int[] filled(int capacity) {
+            int[] array = new int[capacity];
+            Arrays.fill(array, NONE);
+            return array;
+        }
+
+        private static int[] grow(int[] array, int capacity) {
+            int length = array.length;
+            int[] grown = Arrays.copyOf(array, capacity);
+            Arrays.fill(grown, length, capacity, NONE);
+            return grown;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.app.medivault.service;
+
+import com.app.medivault.dtos.DrugInteractionResult;
+import com.app.medivault.entity.RiskLevel;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Known interactions between the ingredients of dictionary entries. A brand is checked through
+ * the generics it contains ("Ecosprin" as aspirin), so one interaction covers every brand of
+ * both drugs. Pairs are kept as sorted longs of two ingredient numbers and found by binary
+ * search, read in place from a DrugKnowledgeBase file like the dictionary itself.
+ */
+final class DrugInteractions {
+
+    private static final RiskLevel[] SEVERITIES = RiskLevel.values();
+
+    // Ingredients of entry i are entryIngredients[entryIngredientOffsets[i] .. [i + 1])
+    private final IntBuffer entryIngredientOffsets;
+    private final IntBuffer entryIngredients;
+    // (lower ingredient << 32 | higher ingredient), sorted, with severity and warning alongside
+    private final LongBuffer pairs;
+    private final IntBuffer severities;
+    private final StringTable warnings;
+
+    /**
+     * An interaction as written in the source file: two generics, how serious, and what to watch for
+     */
+    record Rule(String drugA, String drugB, RiskLevel severity, String note) {
+    }
+
+    private DrugInteractions(IntBuffer entryIngredientOffsets, IntBuffer entryIngredients, LongBuffer pairs,
+                             IntBuffer severities, StringTable warnings) {
+        this.entryIngredientOffsets = entryIngredientOffsets;
+        this.entryIngredients = entryIngredients;
+        this.pairs = pairs;
+        this.severities = severities;
+        this.warnings = warnings;
+    }
+
+    /**
+     * Read an interaction file: drug, drug, severity (LOW to CRITICAL) and a note, tab-separated,
+     * one pair per line. Blank lines and lines starting with # are skipped.
+     */
+    static List<Rule> parse(InputStream in) throws IOException {
+        List<Rule> rules = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != 4) {
+                throw new IOException("Expected drug, drug, severity and note on interaction line " + lineNumber);
+            }
+            RiskLevel severity;
+            try {
+                severity = RiskLevel.valueOf(fields[2].strip());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Unknown severity on interaction line " + lineNumber + ": " + fields[2], e);
+            }
+            rules.add(new Rule(fields[0].strip(), fields[1].strip(), severity, fields[3].strip()));
+        }
+        return rules;
+    }
+
+    /**
+     * Resolve the rules against the dictionary's ingredients. Rules naming a drug the dictionary
+     * doesn't contain can never match and are dropped; of duplicated pairs the first wins.
+     */
+    static DrugInteractions compile(DrugDictionary dictionary, List<Rule> rules) {
+        List<String[]> entryNames = new ArrayList<>(dictionary.size());
+        TreeSet<String> names = new TreeSet<>();
+        for (int id = 0; id < dictionary.size(); id++) {
+            DrugDictionary.Entry entry = dictionary.entry(id);
+            String[] ingredients = (entry.generic() != null ? entry.generic() : entry.name()).split("\\+");
+            for (int i = 0; i < ingredients.length; i++) {
+                ingredients[i] = DrugDictionary.normalize(ingredients[i]);
+                names.add(ingredients[i]);
+            }
+            entryNames.add(ingredients);
+        }
+        StringTable ingredients = StringTable.of(new ArrayList<>(names));
+
+        int[] offsets = new int[dictionary.size() + 1];
+        int[] ids = new int[Math.max(16, dictionary.size())];
+        int count = 0;
+        for (int id = 0; id < dictionary.size(); id++) {
+            for (String name : entryNames.get(id)) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = ingredients.find(name);
+            }
+            offsets[id + 1] = count;
+        }
+
+        List<long[]> resolved = new ArrayList<>(rules.size());
+        List<String> notes = new ArrayList<>(rules.size());
+        for (Rule rule : rules) {
+            int a = ingredients.find(DrugDictionary.normalize(rule.drugA()));
+            int b = ingredients.find(DrugDictionary.normalize(rule.drugB()));
+            if (a < 0 || b < 0 || a == b) {
+                continue;
+            }
+            // Pair key, severity, and the note's position
+            resolved.add(new long[]{pairKey(a, b), rule.severity().ordinal(), notes.size()});
+            notes.add(rule.drugA() + " + " + rule.drugB() + ": " + rule.note());
+        }
+        // Stable, so the first of duplicated pairs stays first
+        resolved.sort(Comparator.comparingLong(pair -> pair[0]));
+
+        List<long[]> kept = new ArrayList<>(resolved.size());
+        for (long[] pair : resolved) {
+            if (kept.isEmpty() || kept.get(kept.size() - 1)[0] != pair[0]) {
+                kept.add(pair);
+            }
+        }
+        long[] pairs = new long[kept.size()];
+        int[] severities = new int[kept.size()];
+        List<String> warnings = new ArrayList<>(kept.size());
+        for (int i = 0; i < kept.size(); i++) {
+            pairs[i] = kept.get(i)[0];
+            severities[i] = (int) kept.get(i)[1];
+            warnings.add(notes.get((int) kept.get(i)[2]));
+        }
+
+        return new DrugInteractions(IntBuffer.wrap(offsets), IntBuffer.wrap(Arrays.copyOf(ids, count)),
+                LongBuffer.wrap(pairs), IntBuffer.wrap(severities), StringTable.of(warnings));
+    }
+
+    static DrugInteractions read(DrugKnowledgeBase file) {
+        return new DrugInteractions(file.ints(DrugKnowledgeBase.ENTRY_INGREDIENT_OFFSETS),
+                file.ints(DrugKnowledgeBase.ENTRY_INGREDIENTS), file.longs(DrugKnowledgeBase.INTERACTION_PAIRS),
+                file.ints(DrugKnowledgeBase.INTERACTION_SEVERITIES), file.strings(DrugKnowledgeBase.INTERACTION_WARNINGS));
+    }
+
+    void writeTo(DrugKnowledgeBase.Writer out) {
+        out.ints(DrugKnowledgeBase.ENTRY_INGREDIENT_OFFSETS, entryIngredientOffsets);
+        out.ints(DrugKnowledgeBase.ENTRY_INGREDIENTS, entryIngredients);
+        out.longs(DrugKnowledgeBase.INTERACTION_PAIRS, pairs);
+        out.ints(DrugKnowledgeBase.INTERACTION_SEVERITIES, severities);
+        out.strings(DrugKnowledgeBase.INTERACTION_WARNINGS, warnings);
+    }
+
+    int size() {
+        return pairs.limit();
+    }
+
+    /**
+     * Interactions between the first {@code count} dictionary entries in {@code entryIds}: the most
+     * serious severity (LOW when there are none) and a warning per interacting pair. Ingredients of
+     * one combination product aren't checked against each other.
+     */
+    DrugInteractionResult check(int[] entryIds, int count) {
+        // Each entry once, however often it is named
+        int[] entries = Arrays.copyOf(entryIds, count);
+        Arrays.sort(entries);
+        count = 0;
+        for (int i = 0; i < entries.length; i++) {
+            if (i == 0 || entries[i] != entries[i - 1]) {
+                entries[count++] = entries[i];
+            }
+        }
+
+        RiskLevel risk = RiskLevel.LOW;
+        List<String> found = new ArrayList<>();
+        int[] reported = new int[4];
+        int reportedCount = 0;
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                for (int x = entryIngredientOffsets.get(entries[i]); x < entryIngredientOffsets.get(entries[i] + 1); x++) {
+                    for (int y = entryIngredientOffsets.get(entries[j]); y < entryIngredientOffsets.get(entries[j] + 1); y++) {
+                        int a = entryIngredients.get(x);
+                        int b = entryIngredients.get(y);
+                        int pair = a != b ? find(pairKey(a, b)) : -1;
+                        if (pair < 0 || contains(reported, reportedCount, pair)) {
+                            continue;
+                        }
+                        if (reportedCount == reported.length) {
+                            reported = Arrays.copyOf(reported, reportedCount * 2);
+                        }
+                        reported[reportedCount++] = pair;
+                        RiskLevel severity = SEVERITIES[severities.get(pair)];
+                        if (severity.compareTo(risk) > 0) {
+                            risk = severity;
+                        }
+                        found.add(warnings.get(pair));
+                    }
+                }
+            }
+        }
+        return new DrugInteractionResult(risk.name(), found);
+    }
+
+    private int find(long key) {
+        int low = 0;
+        int high = pairs.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = pairs.get(mid);
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static long pairKey(int a, int b) {
+        return (long) Math.min(a, b) << 32 | Math.max(a, b);
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,254 @@
+package com.app.medivault.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Drug names, brand to generic mappings, the matching automaton, the fuzzy index and interaction
+ * data in one compact binary file, memory-mapped read-only. All lookups read the mapping in place,
+ * so a large formulary costs page cache rather than heap, and nothing is parsed at startup.
+ * <p>
+ * Layout (little-endian): magic, version, section count, CRC-32 of everything after the header,
+ * then a table of (id, offset, length) and the sections themselves, 8-byte aligned. A file is
+ * only ever replaced by moving a complete new one into place, so a mapping stays valid for as
+ * long as a reader holds it.
+ */
+final class DrugKnowledgeBase {
+
+    private static final int MAGIC = 0x424B564D; // "MVKB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int TABLE_ENTRY_SIZE = 12;
+
+    // Section ids
+    static final int NAMES = 1;
+    static final int GENERICS = 2;
+    static final int EDGE_KEYS = 3;
+    static final int EDGE_TARGETS = 4;
+    static final int FAIL = 5;
+    static final int ENTRY_AT = 6;
+    static final int NEXT_OUTPUT = 7;
+    static final int DEPTH = 8;
+    static final int TERMS = 9;
+    static final int DRUGS = 10;
+    static final int POSTINGS = 11;
+    static final int ENTRY_INGREDIENT_OFFSETS = 12;
+    static final int ENTRY_INGREDIENTS = 13;
+    static final int INTERACTION_PAIRS = 14;
+    static final int INTERACTION_SEVERITIES = 15;
+    static final int INTERACTION_WARNINGS = 16;
+
+    private final ByteBuffer buffer;
+    private final DrugDictionary dictionary;
+    private final DrugNameIndex fuzzyIndex;
+    private final DrugInteractions interactions;
+
+    private DrugKnowledgeBase(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        validate();
+        this.dictionary = DrugDictionary.read(this);
+        this.fuzzyIndex = DrugNameIndex.read(this, dictionary);
+        this.interactions = DrugInteractions.read(this);
+    }
+
+    /**
+     * Map a knowledge base file, checking it is complete before any lookup uses it
+     */
+    static DrugKnowledgeBase open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Drug knowledge base too large to map: " + file);
+            }
+            // The mapping outlives the channel
+            return new DrugKnowledgeBase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IllegalStateException | IndexOutOfBoundsException e) {
+            throw new IOException("Invalid drug knowledge base " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Compile the drug dictionary and interaction sources (TSV) into the binary format
+     */
+    static ByteBuffer compile(InputStream dictionarySource, InputStream interactionSource) throws IOException {
+        DrugDictionary dictionary = DrugDictionary.load(dictionarySource);
+        DrugNameIndex fuzzyIndex = DrugNameIndex.build(dictionary);
+        DrugInteractions interactions = DrugInteractions.compile(dictionary, DrugInteractions.parse(interactionSource));
+
+        Writer out = new Writer();
+        dictionary.writeTo(out);
+        fuzzyIndex.writeTo(out);
+        interactions.writeTo(out);
+        return out.finish();
+    }
+
+    /**
+     * A knowledge base held on the heap, for when no file is configured
+     */
+    static DrugKnowledgeBase load(ByteBuffer compiled) {
+        return new DrugKnowledgeBase(compiled.duplicate());
+    }
+
+    /**
+     * Write a compiled knowledge base to {@code target} atomically: readers see either the old
+     * file or the complete new one
+     */
+    static void write(ByteBuffer compiled, Path target) throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer source = compiled.duplicate().clear();
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    DrugDictionary dictionary() {
+        return dictionary;
+    }
+
+    DrugNameIndex fuzzyIndex() {
+        return fuzzyIndex;
+    }
+
+    DrugInteractions interactions() {
+        return interactions;
+    }
+
+    int sizeBytes() {
+        return buffer.capacity();
+    }
+
+    ByteBuffer section(int id) {
+        int count = buffer.getInt(8);
+        for (int i = 0; i < count; i++) {
+            int entry = HEADER_SIZE + i * TABLE_ENTRY_SIZE;
+            if (buffer.getInt(entry) == id) {
+                return buffer.slice(buffer.getInt(entry + 4), buffer.getInt(entry + 8)).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        throw new IllegalStateException("missing section " + id);
+    }
+
+    IntBuffer ints(int id) {
+        return section(id).asIntBuffer();
+    }
+
+    LongBuffer longs(int id) {
+        return section(id).asLongBuffer();
+    }
+
+    StringTable strings(int id) {
+        return new StringTable(section(id));
+    }
+
+    private void validate() {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalStateException("not a drug knowledge base");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException("unsupported version " + buffer.getInt(4));
+        }
+        int count = buffer.getInt(8);
+        if (count < 0 || HEADER_SIZE + (long) count * TABLE_ENTRY_SIZE > buffer.capacity()) {
+            throw new IllegalStateException("truncated section table");
+        }
+        for (int i = 0; i < count; i++) {
+            int entry = HEADER_SIZE + i * TABLE_ENTRY_SIZE;
+            long end = (long) buffer.getInt(entry + 4) + buffer.getInt(entry + 8);
+            if (buffer.getInt(entry + 4) < 0 || buffer.getInt(entry + 8) < 0 || end > buffer.capacity()) {
+                throw new IllegalStateException("truncated section " + buffer.getInt(entry));
+            }
+        }
+        if ((int) checksum(buffer) != buffer.getInt(12)) {
+            throw new IllegalStateException("checksum mismatch");
+        }
+    }
+
+    private static long checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(HEADER_SIZE, buffer.capacity() - HEADER_SIZE));
+        return crc.getValue();
+    }
+
+    /**
+     * Collects sections and lays them out into the file format
+     */
+    static final class Writer {
+
+        private final Map<Integer, ByteBuffer> sections = new LinkedHashMap<>();
+
+        void section(int id, ByteBuffer bytes) {
+            sections.put(id, bytes.duplicate().clear());
+        }
+
+        void ints(int id, IntBuffer values) {
+            IntBuffer source = values.duplicate().clear();
+            ByteBuffer bytes = ByteBuffer.allocate(source.remaining() * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.asIntBuffer().put(source);
+            section(id, bytes);
+        }
+
+        void longs(int id, LongBuffer values) {
+            LongBuffer source = values.duplicate().clear();
+            ByteBuffer bytes = ByteBuffer.allocate(source.remaining() * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            bytes.asLongBuffer().put(source);
+            section(id, bytes);
+        }
+
+        void strings(int id, StringTable table) {
+            section(id, table.section());
+        }
+
+        ByteBuffer finish() {
+            long size = align(HEADER_SIZE + (long) sections.size() * TABLE_ENTRY_SIZE);
+            for (ByteBuffer bytes : sections.values()) {
+                size = align(size + bytes.remaining());
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Drug knowledge base too large: " + size + " bytes");
+            }
+
+            ByteBuffer out = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            out.putInt(0, MAGIC);
+            out.putInt(4, VERSION);
+            out.putInt(8, sections.size());
+            int entry = HEADER_SIZE;
+            int offset = (int) align(HEADER_SIZE + (long) sections.size() * TABLE_ENTRY_SIZE);
+            for (Map.Entry<Integer, ByteBuffer> section : sections.entrySet()) {
+                ByteBuffer bytes = section.getValue();
+                out.putInt(entry, section.getKey());
+                out.putInt(entry + 4, offset);
+                out.putInt(entry + 8, bytes.remaining());
+                out.put(offset, bytes, bytes.position(), bytes.remaining());
+                entry += TABLE_ENTRY_SIZE;
+                offset = (int) align(offset + bytes.remaining());
+            }
+            out.putInt(12, (int) checksum(out));
+            return out.clear();
+        }
+
+        private static long align(long offset) {
+            return (offset + 7) & ~7L;
+        }
+    }
+}
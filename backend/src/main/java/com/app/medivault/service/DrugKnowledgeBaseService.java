@@ -0,0 +1,114 @@
+package com.app.medivault.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Holds the current DrugKnowledgeBase. With a knowledge base file configured, the file is mapped
+ * and polled: when a new version is moved into place (or the dictionary and interaction sources
+ * it is compiled from change) it is checked, mapped and swapped in for new lookups, while parses
+ * already running finish on the version they started with. A file that fails its checks is
+ * logged and the previous version kept. Without a file the sources are compiled onto the heap
+ * once at startup.
+ */
+@Component
+public class DrugKnowledgeBaseService {
+
+    private static final Logger log = LoggerFactory.getLogger(DrugKnowledgeBaseService.class);
+
+    private final Resource dictionarySource;
+    private final Resource interactionSource;
+    private final Path file;
+    private volatile DrugKnowledgeBase current;
+    // The version of the file currently mapped
+    private FileTime loadedModified;
+    private long loadedSize = -1;
+
+    @Autowired
+    public DrugKnowledgeBaseService(
+            @Value("${medivault.drugs.dictionary:classpath:drugs/drug-dictionary.tsv}") Resource dictionarySource,
+            @Value("${medivault.drugs.interactions:classpath:drugs/drug-interactions.tsv}") Resource interactionSource,
+            @Value("${medivault.drugs.knowledge-base:}") String file) throws IOException {
+        this.dictionarySource = dictionarySource;
+        this.interactionSource = interactionSource;
+        this.file = file.isBlank() ? null : Path.of(file);
+
+        if (this.file == null) {
+            current = DrugKnowledgeBase.load(compile());
+            log.info("Compiled drug knowledge base from {}: {} names, {} interactions",
+                    dictionarySource.getDescription(), current.dictionary().size(), current.interactions().size());
+        } else {
+            // A broken file at startup is fatal: there is no earlier version to fall back on
+            refresh();
+        }
+    }
+
+    /**
+     * The knowledge base to use for one lookup or parse; hold on to it rather than calling again
+     * midway, so the whole operation sees one version
+     */
+    DrugKnowledgeBase current() {
+        return current;
+    }
+
+    /**
+     * Pick up a new version of the knowledge base file, if there is one
+     */
+    @Scheduled(fixedDelayString = "${medivault.drugs.reload-interval-ms:30000}")
+    public void reload() {
+        if (file == null) {
+            return;
+        }
+        try {
+            refresh();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Keeping the current drug knowledge base, could not load {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void refresh() throws IOException {
+        if (!Files.exists(file) || newerThanFile(dictionarySource) || newerThanFile(interactionSource)) {
+            DrugKnowledgeBase.write(compile(), file);
+            log.info("Compiled drug knowledge base {} from {}", file, dictionarySource.getDescription());
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        if (attributes.lastModifiedTime().equals(loadedModified) && attributes.size() == loadedSize) {
+            return;
+        }
+        DrugKnowledgeBase loaded = DrugKnowledgeBase.open(file);
+        current = loaded;
+        loadedModified = attributes.lastModifiedTime();
+        loadedSize = attributes.size();
+        log.info("Mapped drug knowledge base {} ({} bytes): {} names, {} interactions",
+                file, loaded.sizeBytes(), loaded.dictionary().size(), loaded.interactions().size());
+    }
+
+    private ByteBuffer compile() throws IOException {
+        try (InputStream dictionary = dictionarySource.getInputStream();
+             InputStream interactions = interactionSource.getInputStream()) {
+            return DrugKnowledgeBase.compile(dictionary, interactions);
+        }
+    }
+
+    /**
+     * Whether a source edited on disk has changed since the file was compiled. Classpath sources
+     * have no reliable modified time, so a file compiled from them is only rebuilt once deleted.
+     */
+    private boolean newerThanFile(Resource source) throws IOException {
+        return source.isFile() && source.lastModified() > Files.getLastModifiedTime(file).toMillis();
+    }
+}
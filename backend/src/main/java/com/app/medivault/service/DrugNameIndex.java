@@ -0,0 +1,272 @@
+package com.app.medivault.service;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Approximate lookup of drug names misread by OCR ("Amoxicilin", "Paracetam0l"), using a
+ * SymSpell-style deletion index: every dictionary name is stored under the strings left after
+ * deleting up to {@link #MAX_DISTANCE} characters from its prefix, so a lookup only generates
+ * the deletions of the word and verifies the few names found under them. Cost depends on the
+ * word's length, not on the size of the dictionary. Like the dictionary, the index is held in
+ * buffers that can be read in place from a DrugKnowledgeBase file.
+ */
+final class DrugNameIndex {
+
+    static final int MAX_DISTANCE = 2;
+    // Only the prefix is indexed, which bounds the deletions per name (as in SymSpell)
+    private static final int PREFIX_LENGTH = 7;
+    // Shorter words have too many unrelated neighbours one or two edits away
+    private static final int MIN_LENGTH = 5;
+    private static final int LONG_WORD = 8;
+    private static final int ID_BITS = 24;
+    private static final long ID_MASK = (1L << ID_BITS) - 1;
+    // Characters OCR commonly mistakes for one another; swapping them costs half an edit
+    private static final String[] CONFUSABLE = {"0o", "1l", "1i", "li", "5s", "8b", "2z"};
+
+    private final DrugDictionary dictionary;
+    // Normalised names, by dictionary entry
+    private final StringTable terms;
+    // Which drug each entry names; a brand shares its generic's number
+    private final IntBuffer drugs;
+    // Hash of a deletion in the high bits, dictionary entry in the low bits, sorted
+    private final LongBuffer postings;
+
+    /**
+     * Best dictionary entry for a word, and how sure the match is (1 for an exact match)
+     */
+    record Candidate(int id, DrugDictionary.Entry entry, double confidence) {
+    }
+
+    private DrugNameIndex(DrugDictionary dictionary, StringTable terms, IntBuffer drugs, LongBuffer postings) {
+        this.dictionary = dictionary;
+        this.terms = terms;
+        this.drugs = drugs;
+        this.postings = postings;
+    }
+
+    static DrugNameIndex build(DrugDictionary dictionary) {
+        if (dictionary.size() > ID_MASK) {
+            throw new IllegalArgumentException("Too many drug names to index: " + dictionary.size());
+        }
+
+        List<String> terms = new ArrayList<>(dictionary.size());
+        int[] drugs = new int[dictionary.size()];
+        Map<String, Integer> drugIds = new HashMap<>();
+        long[] postings = new long[Math.max(16, dictionary.size() * 8)];
+        int count = 0;
+        long[] hashes = new long[64];
+        for (int id = 0; id < drugs.length; id++) {
+            DrugDictionary.Entry entry = dictionary.entry(id);
+            String term = DrugDictionary.normalize(entry.name());
+            terms.add(term);
+            String drug = entry.generic() != null ? entry.generic() : entry.name();
+            drugs[id] = drugIds.computeIfAbsent(drug.toLowerCase(Locale.ROOT), key -> drugIds.size());
+            String prefix = prefix(term);
+            int deletions = deletions(prefix, hashes);
+            if (count + deletions > postings.length) {
+                postings = Arrays.copyOf(postings, Math.max(postings.length * 2, count + deletions));
+            }
+            for (int i = 0; i < deletions; i++) {
+                postings[count++] = hashes[i] << ID_BITS | id;
+            }
+        }
+
+        postings = Arrays.copyOf(postings, count);
+        Arrays.sort(postings);
+        return new DrugNameIndex(dictionary, StringTable.of(terms), IntBuffer.wrap(drugs), LongBuffer.wrap(postings));
+    }
+
+    static DrugNameIndex read(DrugKnowledgeBase file, DrugDictionary dictionary) {
+        return new DrugNameIndex(dictionary, file.strings(DrugKnowledgeBase.TERMS), file.ints(DrugKnowledgeBase.DRUGS),
+                file.longs(DrugKnowledgeBase.POSTINGS));
+    }
+
+    void writeTo(DrugKnowledgeBase.Writer out) {
+        out.strings(DrugKnowledgeBase.TERMS, terms);
+        out.ints(DrugKnowledgeBase.DRUGS, drugs);
+        out.longs(DrugKnowledgeBase.POSTINGS, postings);
+    }
+
+    /**
+     * The closest dictionary name within the edit distance allowed for the word's length, or
+     * null. Confidence falls with the distance, and again when another name is just as close.
+     */
+    Candidate lookup(CharSequence word) {
+        String normalized = DrugDictionary.normalize(word.toString());
+        if (normalized.length() < MIN_LENGTH || letters(normalized) < MIN_LENGTH - 2) {
+            return null;
+        }
+        double allowed = normalized.length() >= LONG_WORD ? MAX_DISTANCE : 1;
+
+        long[] hashes = new long[64];
+        int deletions = deletions(prefix(normalized), hashes);
+        int[] seen = new int[16];
+        int seenCount = 0;
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        double runnerUp = Double.MAX_VALUE;
+
+        for (int d = 0; d < deletions; d++) {
+            long from = hashes[d] << ID_BITS;
+            int size = postings.limit();
+            for (int p = lowerBound(from); p < size && (postings.get(p) & ~ID_MASK) == from; p++) {
+                int id = (int) (postings.get(p) & ID_MASK);
+                if (contains(seen, seenCount, id)) {
+                    continue;
+                }
+                if (seenCount == seen.length) {
+                    seen = Arrays.copyOf(seen, seenCount * 2);
+                }
+                seen[seenCount++] = id;
+
+                if (Math.abs(terms.length(id) - normalized.length()) > allowed) {
+                    continue;
+                }
+                double distance = distance(normalized, id, allowed);
+                if (distance < bestDistance) {
+                    if (best >= 0 && drugs.get(best) != drugs.get(id)) {
+                        runnerUp = bestDistance;
+                    }
+                    best = id;
+                    bestDistance = distance;
+                } else if (distance < runnerUp && drugs.get(best) != drugs.get(id)) {
+                    runnerUp = distance;
+                }
+            }
+        }
+
+        if (best < 0) {
+            return null;
+        }
+        double confidence = 1 - bestDistance / Math.max(normalized.length(), terms.length(best));
+        if (runnerUp - bestDistance < 0.5) {
+            // Ambiguous between two different drugs
+            confidence *= 0.75;
+        }
+        return new Candidate(best, dictionary.entry(best), confidence);
+    }
+
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = postings.limit();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (postings.get(mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Hashes of the word and of every string left after deleting up to MAX_DISTANCE of its
+     * characters, into {@code out}; returns how many. Duplicates (e.g. from doubled letters) are
+     * harmless and not removed.
+     */
+    private static int deletions(String word, long[] out) {
+        int count = 0;
+        out[count++] = hash(word, -1, -1);
+        for (int i = 0; i < word.length(); i++) {
+            out[count++] = hash(word, i, -1);
+            for (int j = i + 1; j < word.length(); j++) {
+                out[count++] = hash(word, i, j);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 40-bit FNV-1a hash of {@code word} without the characters at {@code skipA} and {@code skipB}.
+     * Collisions only cost a wasted verification.
+     */
+    private static long hash(String word, int skipA, int skipB) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < word.length(); i++) {
+            if (i != skipA && i != skipB) {
+                hash = (hash ^ word.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return hash >>> ID_BITS;
+    }
+
+    /**
+     * Optimal string alignment distance (edits plus adjacent transpositions) from {@code a} to
+     * the term of entry {@code id}, with OCR confusions at half cost; anything beyond
+     * {@code limit} is reported as MAX_VALUE
+     */
+    private double distance(String a, int id, double limit) {
+        int n = a.length();
+        int m = terms.length(id);
+        double[] before = new double[m + 1];
+        double[] previous = new double[m + 1];
+        double[] current = new double[m + 1];
+        for (int j = 0; j <= m; j++) {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= n; i++) {
+            current[0] = i;
+            double rowMin = current[0];
+            for (int j = 1; j <= m; j++) {
+                char x = a.charAt(i - 1);
+                char y = terms.charAt(id, j - 1);
+                double substitution = x == y ? 0 : confusable(x, y) ? 0.5 : 1;
+                double cost = Math.min(previous[j - 1] + substitution, Math.min(previous[j] + 1, current[j - 1] + 1));
+                if (i > 1 && j > 1 && x == terms.charAt(id, j - 2) && a.charAt(i - 2) == y) {
+                    cost = Math.min(cost, before[j - 2] + 1);
+                }
+                current[j] = cost;
+                rowMin = Math.min(rowMin, cost);
+            }
+            if (rowMin > limit) {
+                return Double.MAX_VALUE;
+            }
+            double[] recycled = before;
+            before = previous;
+            previous = current;
+            current = recycled;
+        }
+        return previous[m] <= limit ? previous[m] : Double.MAX_VALUE;
+    }
+
+    private static boolean confusable(char x, char y) {
+        for (String pair : CONFUSABLE) {
+            if ((pair.charAt(0) == x && pair.charAt(1) == y) || (pair.charAt(0) == y && pair.charAt(1) == x)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String prefix(String term) {
+        return term.length() > PREFIX_LENGTH ? term.substring(0, PREFIX_LENGTH) : term;
+    }
+
+    private static int letters(String word) {
+        int letters = 0;
+        for (int i = 0; i < word.length(); i++) {
+            if (Character.isLetter(word.charAt(i))) {
+                letters++;
+            }
+        }
+        return letters;
+    }
+
+    private static boolean contains(int[] ids, int count, int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,77 @@
+package com.app.medivault.service;
+
+import com.google.protobuf.ByteString;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline stand-in for a real OCR engine, for local runs and load tests without API costs.
+ * Latency follows a log-normal distribution fitted to the configured median and p99,
+ * and a configurable fraction of calls fail.
+ */
+@Service
+@ConditionalOnProperty(name = "medivault.ocr.engine", havingValue = "fake")
+public class FakeOcrEngine implements OcrEngine, AutoCloseable {
+
+    // z-score of the 99th percentile of a standard normal distribution
+    private static final double Z_99 = 2.326;
+
+    private final double mu;
+    private final double sigma;
+    private final double failureRate;
+    private final String text;
+    private final ScheduledExecutorService scheduler;
+
+    @Autowired
+    public FakeOcrEngine(@Value("${medivault.ocr.fake.median-latency:400ms}") Duration medianLatency,
+                         @Value("${medivault.ocr.fake.p99-latency:3s}") Duration p99Latency,
+                         @Value("${medivault.ocr.fake.failure-rate:0}") double failureRate,
+                         @Value("${medivault.ocr.fake.text:Rx\nParacetamol 500mg 1-0-1 x 5 days}") String text) {
+        this.mu = Math.log(Math.max(1, medianLatency.toMillis()));
+        this.sigma = Math.max(0, Math.log(Math.max(1, p99Latency.toMillis())) - mu) / Z_99;
+        this.failureRate = failureRate;
+        this.text = text;
+
+        CustomizableThreadFactory threads = new CustomizableThreadFactory("fake-ocr-");
+        threads.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threads);
+    }
+
+    @Override
+    public CompletableFuture<String> recognize(ByteString image) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latencyMillis = Math.round(Math.exp(mu + sigma * random.nextGaussian()));
+        boolean fail = random.nextDouble() < failureRate;
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        scheduler.schedule(() -> {
+            if (fail) {
+                result.completeExceptionally(new RuntimeException("OCR failed: simulated engine error"));
+            } else {
+                result.complete(text);
+            }
+        }, latencyMillis, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    @Override
+    public boolean cacheResults() {
+        // Fake text must never be served once a real engine is configured
+        return false;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,246 @@
+package com.app.medivault.service;
+
+import com.app.medivault.dtos.FileDownload;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Serves stored files without copying them through the heap.
+ * Supports single byte ranges (Range / If-Range) and conditional GETs (the content hash is the
+ * ETag of content-addressed blobs), and hands the transfer to the container's sendfile when available.
+ */
+@Service
+public class FileDownloadService {
+
+    // Tomcat's sendfile contract: set these request attributes and leave the body unwritten
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // Download URLs address a file by id, and what they serve can change (pages appended to a
+    // medical file give it a new PDF), so clients revalidate every time; unchanged files cost a 304
+    private static final String CACHE_CONTROL = "private, no-cache";
+
+    private static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private final FileStorageService fileStorageService;
+
+    private record ByteRange(long start, long end) {
+    }
+
+    @Autowired
+    public FileDownloadService(FileStorageService fileStorageService) {
+        this.fileStorageService = fileStorageService;
+    }
+
+    /**
+     * Write a stored file (or the requested byte range of it) to the response
+     */
+    public void send(FileDownload download, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Path path = fileStorageService.resolve(download.getLocation());
+        if (!Files.isRegularFile(path)) {
+            throw new RuntimeException("File not found");
+        }
+
+        // Opened before any header is set, so a file that can't be read is still reported as an error
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long length = channel.size();
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            String hash = fileStorageService.hashOf(download.getLocation());
+            String etag = hash != null ? "\"" + hash + "\"" : "W/\"" + length + "-" + lastModified + "\"";
+            String contentType = download.getContentType() != null ? download.getContentType() : detectContentType(path);
+
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            response.setHeader(HttpHeaders.ETAG, etag);
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+
+            if (etagMatches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            long start = 0;
+            long end = length - 1;
+            String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+            if (rangeHeader != null && ifRangeMatches(request, etag, lastModified)) {
+                ByteRange range = parseRange(rangeHeader, length);
+                if (range == UNSATISFIABLE) {
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    return;
+                }
+                if (range != null) {
+                    start = range.start();
+                    end = range.end();
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+                }
+            }
+
+            long count = end - start + 1;
+            response.setContentType(contentType);
+            response.setContentLengthLong(count);
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.inline()
+                    .filename(download.getFilename(), StandardCharsets.UTF_8).build().toString());
+
+            if ("HEAD".equalsIgnoreCase(request.getMethod()) || count == 0) {
+                return;
+            }
+
+            // Let the container send the file straight from the page cache to the socket
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_START, start);
+                request.setAttribute(SENDFILE_END, end + 1);
+                return;
+            }
+
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    /**
+     * Detect the media type of a stored file from its leading bytes
+     */
+    public String detectContentType(Path path) throws IOException {
+        byte[] header = new byte[8];
+        int read;
+        try (InputStream in = Files.newInputStream(path)) {
+            read = in.readNBytes(header, 0, header.length);
+        }
+
+        if (read >= 4 && header[0] == '%' && header[1] == 'P' && header[2] == 'D' && header[3] == 'F') {
+            return MediaType.APPLICATION_PDF_VALUE;
+        }
+        if (read >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return MediaType.IMAGE_JPEG_VALUE;
+        }
+        if (read >= 4 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G') {
+            return MediaType.IMAGE_PNG_VALUE;
+        }
+        if (read >= 4 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F' && header[3] == '8') {
+            return MediaType.IMAGE_GIF_VALUE;
+        }
+        if (read >= 2 && header[0] == 'B' && header[1] == 'M') {
+            return "image/bmp";
+        }
+        if (read >= 4 && ((header[0] == 'I' && header[1] == 'I' && header[2] == 42 && header[3] == 0)
+                || (header[0] == 'M' && header[1] == 'M' && header[2] == 0 && header[3] == 42))) {
+            return "image/tiff";
+        }
+        return MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    }
+
+    /**
+     * Parse a single "bytes=" range. Returns null when the header should be ignored
+     * (malformed or multiple ranges, which are answered with the full body).
+     */
+    private ByteRange parseRange(String header, long length) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            if (first.isEmpty()) {
+                // Suffix range: the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(Math.max(0, length - suffix), length - 1);
+            }
+
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+            if (end < start) {
+                return null;
+            }
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            return new ByteRange(start, Math.min(end, length - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A Range request is only honoured if its If-Range validator still matches the file
+     */
+    private boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range requires a strong comparison, so weak validators never match
+            return !etag.startsWith("W/") && ifRange.equals(etag);
+        }
+
+        try {
+            long date = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return date >= 0 && lastModified / 1000 == date / 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*")) {
+                return true;
+            }
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,475 @@
+package com.app.medivault.service;
+
+import com.app.medivault.entity.StoredBlob;
+import com.app.medivault.repository.StoredBlobRepository;
+import com.app.medivault.util.UploadStagingUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Content-addressed, deduplicating file store.
+ * Blobs are keyed by the SHA-256 of their content and laid out as root/ab/cd/&lt;hash&gt;,
+ * so identical uploads share one file and no directory grows past a few hundred entries.
+ * Each blob is reference counted by the MedicalFile / Prescription rows pointing at it.
+ */
+@Service
+public class FileStorageService {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int MAX_INSERT_ATTEMPTS = 3;
+
+    private final StoredBlobRepository storedBlobRepository;
+    private final TransactionTemplate requiresNewTransaction;
+    private final Path rootDir;
+    private final Path tempDir;
+
+    // Serialises reference count changes for the same hash within this node
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    /**
+     * A blob written by {@link #storeAppended}. When the base was extended in place the caller's
+     * reference to it moved to this blob; otherwise the base is unchanged and still referenced.
+     */
+    public record AppendedBlob(String location, boolean extendedInPlace) {
+    }
+
+    @Autowired
+    public FileStorageService(StoredBlobRepository storedBlobRepository,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${medivault.storage.root:uploads/blobs}") String rootDir) {
+        this.storedBlobRepository = storedBlobRepository;
+        this.requiresNewTransaction = new TransactionTemplate(transactionManager);
+        this.requiresNewTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.rootDir = Paths.get(rootDir);
+        this.tempDir = this.rootDir.resolve("tmp");
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
+        // Create storage directories if they don't exist
+        try {
+            Files.createDirectories(tempDir);
+        } catch (IOException e) {
+            // Directory creation failed
+        }
+    }
+
+    /**
+     * Store the bytes of a stream, hashing them while they are written to disk.
+     * Returns the storage location to persist on the owning row.
+     */
+    public String store(InputStream in) throws IOException {
+        Path temp = createTempFile(".blob");
+        try {
+            MessageDigest digest = newDigest();
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(temp), digest)) {
+                in.transferTo(out);
+            }
+            return addReference(temp, HexFormat.of().formatHex(digest.digest()));
+        } finally {
+            UploadStagingUtil.deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * Store a file that was produced on disk (e.g. a converted PDF), moving it into the store.
+     * Returns the storage location to persist on the owning row.
+     */
+    public String storeFile(Path file) throws IOException {
+        try {
+            return addReference(file, HexFormat.of().formatHex(digestOf(file)));
+        } finally {
+            UploadStagingUtil.deleteQuietly(file);
+        }
+    }
+
+    /**
+     * Store a stored file followed by the bytes of {@code increment} (e.g. a PDF incremental update),
+     * consuming the increment. The base is only written when it has to be: a base blob nothing else
+     * references is appended to in place and moved to its new hash; only a shared one is copied.
+     * Either way the base is read once, to hash the result like any other blob.
+     */
+    public AppendedBlob storeAppended(String baseLocation, Path increment) throws IOException {
+        try {
+            String baseHash = hashOf(baseLocation);
+            if (baseHash != null) {
+                String location = extendInPlace(baseHash, increment);
+                if (location != null) {
+                    return new AppendedBlob(location, true);
+                }
+            }
+
+            // Shared, or written before the store existed: store a copy like any new file
+            return new AppendedBlob(storeFile(copyWithAppended(resolve(baseLocation), increment)), false);
+        } finally {
+            UploadStagingUtil.deleteQuietly(increment);
+        }
+    }
+
+    /**
+     * Drop one reference to a stored file, deleting the blob once nothing points at it.
+     * Locations written before the store existed are deleted directly.
+     */
+    public void release(String location) {
+        if (location == null) return;
+
+        String hash = hashOf(location);
+        if (hash == null) {
+            try {
+                Files.deleteIfExists(Paths.get(location));
+            } catch (IOException e) {
+                // File deletion failed
+            }
+            return;
+        }
+
+        // Only let go of the blob once the row that referenced it is really gone
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    removeReference(hash);
+                }
+            });
+        } else {
+            removeReference(hash);
+        }
+    }
+
+    /**
+     * Resolve a storage location to a readable path
+     */
+    public Path resolve(String location) {
+        return Paths.get(location);
+    }
+
+    /**
+     * Content hash for a storage location, or null if it is not a content-addressed blob
+     */
+    public String hashOf(String location) {
+        Path path = Paths.get(location).toAbsolutePath().normalize();
+        if (!path.startsWith(rootDir.toAbsolutePath().normalize())) {
+            return null;
+        }
+        String name = path.getFileName().toString();
+        return name.length() == 64 ? name : null;
+    }
+
+    /**
+     * Create a scratch file on the same file system as the store, so it can be moved in atomically
+     */
+    public Path createTempFile(String suffix) throws IOException {
+        return Files.createTempFile(tempDir, "blob-", suffix);
+    }
+
+    private String addReference(Path file, String hash) throws IOException {
+        String location;
+        synchronized (lockFor(hash)) {
+            location = commitReference(file, hash);
+        }
+
+        // The reference is committed on its own so other uploads see it immediately;
+        // give it back if the row that was going to hold it is rolled back
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        removeReference(hash);
+                    }
+                }
+            });
+        }
+        return location;
+    }
+
+    private String commitReference(Path file, String hash) throws IOException {
+        Path target = shardPath(hash);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return requiresNewTransaction.execute(status -> {
+                    Optional<StoredBlob> existing = storedBlobRepository.findByContentHashForUpdate(hash);
+                    if (existing.isPresent()) {
+                        StoredBlob blob = existing.get();
+                        // Repair a blob whose file went missing
+                        if (!Files.exists(target)) {
+                            moveIntoPlace(file, target);
+                        }
+                        blob.setReferenceCount(blob.getReferenceCount() + 1);
+                        storedBlobRepository.save(blob);
+                        return blob.getStoragePath();
+                    }
+
+                    moveIntoPlace(file, target);
+                    StoredBlob blob = new StoredBlob();
+                    blob.setContentHash(hash);
+                    blob.setStoragePath(target.toString());
+                    blob.setSizeBytes(sizeOf(target));
+                    blob.setReferenceCount(1);
+                    storedBlobRepository.saveAndFlush(blob);
+                    return blob.getStoragePath();
+                });
+            } catch (DataIntegrityViolationException e) {
+                // Another node inserted the same blob first; retry as an increment
+                if (attempt >= MAX_INSERT_ATTEMPTS) {
+                    throw e;
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Append to the base blob's own file and re-key it as the new blob, if this is its only reference.
+     * The file gets its new name as a hard link before it is touched and loses the old one while the
+     * base row's delete is still uncommitted, so a concurrent upload of the base content waits for it;
+     * if the rows are rolled back the old name is linked again. Returns null, having changed nothing,
+     * when the base is shared or missing or the file system can't link.
+     */
+    private String extendInPlace(String baseHash, Path increment) throws IOException {
+        // Set once the old name is unlinked, to put it back if the commit itself fails
+        AtomicReference<Runnable> undo = new AtomicReference<>();
+        synchronized (lockFor(baseHash)) {
+            try {
+                return requiresNewTransaction.execute(status -> {
+                    Optional<StoredBlob> existing = storedBlobRepository.findByContentHashForUpdate(baseHash);
+                    if (existing.isEmpty() || existing.get().getReferenceCount() != 1
+                            || existing.get().getSizeBytes() == null) {
+                        return null;
+                    }
+
+                    StoredBlob base = existing.get();
+                    Path file = Paths.get(base.getStoragePath());
+                    // Up to the recorded size: an interrupted earlier append may have left more behind
+                    String hash = HexFormat.of().formatHex(digestOf(file, base.getSizeBytes(), increment));
+                    if (storedBlobRepository.existsById(hash)) {
+                        return null;
+                    }
+
+                    Path target = shardPath(hash);
+                    StoredBlob blob = new StoredBlob();
+                    blob.setContentHash(hash);
+                    blob.setStoragePath(target.toString());
+                    blob.setSizeBytes(base.getSizeBytes() + sizeOf(increment));
+                    blob.setReferenceCount(1);
+                    storedBlobRepository.delete(base);
+                    storedBlobRepository.saveAndFlush(blob);
+
+                    if (!link(file, target)) {
+                        status.setRollbackOnly();
+                        return null;
+                    }
+                    try {
+                        appendAt(file, base.getSizeBytes(), increment);
+                        // Both names are links to the one file, so readers that opened the old
+                        // name see the appended bytes too; only the name goes away
+                        Files.delete(file);
+                    } catch (IOException e) {
+                        restore(file, target, base.getSizeBytes());
+                        throw new UncheckedIOException(e);
+                    }
+                    long baseSize = base.getSizeBytes();
+                    undo.set(() -> restore(file, target, baseSize));
+                    return target.toString();
+                });
+            } catch (RuntimeException e) {
+                if (undo.get() != null) {
+                    undo.get().run();
+                }
+                if (e instanceof DataIntegrityViolationException) {
+                    // Another node stored the same blob first; fall back to referencing it
+                    return null;
+                }
+                if (e instanceof UncheckedIOException io) {
+                    throw io.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Undo an in-place append whose rows were rolled back: give the file its old name and size again
+     */
+    private static void restore(Path file, Path target, long size) {
+        if (!Files.exists(file) && !link(target, file)) {
+            // The new name is the only one left; keep it rather than lose the content
+            return;
+        }
+        truncateQuietly(file, size);
+        UploadStagingUtil.deleteQuietly(target);
+    }
+
+    private Path copyWithAppended(Path base, Path increment) throws IOException {
+        Path copy = createTempFile(".blob");
+        try {
+            Files.copy(base, copy, StandardCopyOption.REPLACE_EXISTING);
+            appendAt(copy, Files.size(copy), increment);
+            return copy;
+        } catch (IOException | RuntimeException e) {
+            UploadStagingUtil.deleteQuietly(copy);
+            throw e;
+        }
+    }
+
+    /**
+     * Write the increment at {@code position}, dropping anything an interrupted earlier append left there
+     */
+    private static void appendAt(Path file, long position, Path increment) throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE);
+             FileChannel in = FileChannel.open(increment, StandardOpenOption.READ)) {
+            out.truncate(position);
+            long size = in.size();
+            long written = 0;
+            while (written < size) {
+                long transferred = out.transferFrom(in, position + written, size - written);
+                if (transferred <= 0) {
+                    throw new IOException("Could not append to " + file);
+                }
+                written += transferred;
+            }
+            out.force(true);
+        }
+    }
+
+    private static boolean link(Path file, Path target) {
+        try {
+            Files.createDirectories(target.getParent());
+            // Left behind by an append that was interrupted before its rows were committed
+            Files.deleteIfExists(target);
+            Files.createLink(target, file);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private static void truncateQuietly(Path file, long size) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        } catch (IOException e) {
+            // The next append to this blob truncates it again
+        }
+    }
+
+    private byte[] digestOf(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, file, Long.MAX_VALUE);
+        return digest.digest();
+    }
+
+    /**
+     * Digest of the first {@code length} bytes of a file followed by all of {@code appended}
+     */
+    private byte[] digestOf(Path file, long length, Path appended) {
+        try {
+            MessageDigest digest = newDigest();
+            if (update(digest, file, length) < length) {
+                throw new IOException("Stored file is shorter than recorded: " + file);
+            }
+            update(digest, appended, Long.MAX_VALUE);
+            return digest.digest();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long update(MessageDigest digest, Path file, long limit) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while (total < limit && (read = in.read(buffer, 0, (int) Math.min(buffer.length, limit - total))) != -1) {
+                digest.update(buffer, 0, read);
+                total += read;
+            }
+        }
+        return total;
+    }
+
+    private void removeReference(String hash) {
+        synchronized (lockFor(hash)) {
+            requiresNewTransaction.executeWithoutResult(status -> {
+                Optional<StoredBlob> existing = storedBlobRepository.findByContentHashForUpdate(hash);
+                if (existing.isEmpty()) return;
+
+                StoredBlob blob = existing.get();
+                if (blob.getReferenceCount() > 1) {
+                    blob.setReferenceCount(blob.getReferenceCount() - 1);
+                    storedBlobRepository.save(blob);
+                    return;
+                }
+
+                storedBlobRepository.delete(blob);
+                try {
+                    Files.deleteIfExists(Paths.get(blob.getStoragePath()));
+                } catch (IOException e) {
+                    // File deletion failed
+                }
+            });
+        }
+    }
+
+    private void moveIntoPlace(Path file, Path target) {
+        try {
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path shardPath(String hash) {
+        return rootDir.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private long sizeOf(Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Object lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -1,40 +1,103 @@
 package com.app.medivault.service;
 
+import com.google.api.gax.retrying.RetrySettings;
 import com.google.cloud.vision.v1.*;
 import com.google.protobuf.ByteString;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
-import java.util.List;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * OCR with Google Cloud Vision document text detection
+ */
 @Service
-public class GoogleVisionOcrService {
+@ConditionalOnProperty(name = "medivault.ocr.engine", havingValue = "google", matchIfMissing = true)
+public class GoogleVisionOcrService implements OcrEngine {
 
-    public String extractText(byte[] imageBytes) {
+    private final OcrBatcher batcher;
+    private final Duration timeout;
 
-        try (ImageAnnotatorClient client = ImageAnnotatorClient.create()) {
+    // One gRPC channel for the whole process; the client is thread-safe.
+    // Created on first use so the application starts without Google credentials.
+    private volatile ImageAnnotatorClient client;
 
-            ByteString imgBytes = ByteString.copyFrom(imageBytes);
-            Image image = Image.newBuilder().setContent(imgBytes).build();
+    @Autowired
+    public GoogleVisionOcrService(@Value("${medivault.ocr.batch.max-size:16}") int maxBatchSize,
+                                  @Value("${medivault.ocr.batch.max-bytes:32MB}") DataSize maxBatchBytes,
+                                  @Value("${medivault.ocr.batch.linger:50ms}") Duration linger,
+                                  @Value("${medivault.ocr.batch.max-concurrent:4}") int maxConcurrentBatches,
+                                  @Value("${medivault.ocr.timeout:30s}") Duration timeout) {
+        this.timeout = timeout;
+        this.batcher = new OcrBatcher(
+                requests -> client().batchAnnotateImages(requests).getResponsesList(),
+                maxBatchSize, maxBatchBytes.toBytes(), linger, maxConcurrentBatches);
+    }
 
-            Feature feature = Feature.newBuilder()
-                    .setType(Feature.Type.DOCUMENT_TEXT_DETECTION)
-                    .build();
+    @Override
+    public CompletableFuture<String> recognize(ByteString imgBytes) {
+        Image image = Image.newBuilder().setContent(imgBytes).build();
 
-            AnnotateImageRequest request = AnnotateImageRequest.newBuilder()
-                    .addFeatures(feature)
-                    .setImage(image)
-                    .build();
+        Feature feature = Feature.newBuilder()
+                .setType(Feature.Type.DOCUMENT_TEXT_DETECTION)
+                .build();
 
-            BatchAnnotateImagesResponse response =
-                    client.batchAnnotateImages(List.of(request));
+        AnnotateImageRequest request = AnnotateImageRequest.newBuilder()
+                .addFeatures(feature)
+                .setImage(image)
+                .build();
 
-            return response.getResponses(0)
-                    .getFullTextAnnotation()
-                    .getText();
+        // Sent together with images from concurrent uploads
+        return batcher.submit(request).thenApply(result -> {
+            if (result.hasError()) {
+                throw new RuntimeException("OCR failed: " + result.getError().getMessage());
+            }
+            return result.getFullTextAnnotation().getText();
+        });
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException("OCR failed", e);
+    @PreDestroy
+    public synchronized void close() {
+        batcher.close();
+        if (client != null) {
+            client.close();
+            client = null;
         }
     }
-}
 
+    private ImageAnnotatorClient client() throws IOException {
+        ImageAnnotatorClient current = client;
+        if (current == null) {
+            synchronized (this) {
+                current = client;
+                if (current == null) {
+                    current = ImageAnnotatorClient.create(settings());
+                    client = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Give each batch call the same deadline the caller waits for (OcrCallGuard), retries included,
+     * so a call the caller has given up on is cancelled instead of holding a slot until it returns
+     */
+    private ImageAnnotatorSettings settings() throws IOException {
+        ImageAnnotatorSettings.Builder settings = ImageAnnotatorSettings.newBuilder();
+        org.threeten.bp.Duration deadline = org.threeten.bp.Duration.ofMillis(timeout.toMillis());
+        RetrySettings retrySettings = settings.batchAnnotateImagesSettings().getRetrySettings().toBuilder()
+                .setInitialRpcTimeout(deadline)
+                .setMaxRpcTimeout(deadline)
+                .setTotalTimeout(deadline)
+                .build();
+        settings.batchAnnotateImagesSettings().setRetrySettings(retrySettings);
+        return settings.build();
+    }
+}
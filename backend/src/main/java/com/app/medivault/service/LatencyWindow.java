@@ -0,0 +1,39 @@
+package com.app.medivault.service;
+
+import java.util.Arrays;
+
+/**
+ * The most recent call latencies, for percentile estimates
+ */
+class LatencyWindow {
+
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    LatencyWindow(int size) {
+        this.samples = new long[Math.max(1, size)];
+    }
+
+    synchronized void record(long latencyNanos) {
+        samples[next] = latencyNanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * Latency at the given percentile (0-100), or -1 until enough samples are in
+     */
+    long percentile(double percentile, int minimumSamples) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < minimumSamples) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+}
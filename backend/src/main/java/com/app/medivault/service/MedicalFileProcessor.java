@@ -0,0 +1,417 @@
+package com.app.medivault.service;
+
+import com.app.medivault.entity.FileProcessingStatus;
+import com.app.medivault.repository.MedicalFileRepository;
+import com.app.medivault.util.UploadStagingUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Converts staged uploads into the stored PDF of a MedicalFile on the conversion worker pool,
+ * moving its status through PROCESSING to COMPLETED or FAILED.
+ * The queue lives in memory, so work lost to a restart is found by its updatedAt going stale
+ * (rows still queued or converting here are touched regularly) and failed, and its staged inputs deleted.
+ */
+@Service
+public class MedicalFileProcessor {
+
+    private static final Logger log = LoggerFactory.getLogger(MedicalFileProcessor.class);
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final long MAX_RETRY_AFTER_SECONDS = 120;
+    private static final List<FileProcessingStatus> UNFINISHED =
+            List.of(FileProcessingStatus.PENDING, FileProcessingStatus.PROCESSING);
+
+    // Where uploads wait for a conversion worker
+    static final String STAGING_DIR = "uploads/medical-files/tmp/";
+
+    private final MedicalFileRepository medicalFileRepository;
+    private final PdfConversionService pdfConversionService;
+    private final FileStorageService fileStorageService;
+    private final ParallelConversionRunner parallelConversionRunner;
+    private final ThumbnailService thumbnailService;
+    private final PdfLinearizer pdfLinearizer;
+    private final MedicalFileTextService medicalFileTextService;
+    private final ThreadPoolTaskExecutor conversionExecutor;
+    private final Counter rejectedConversions;
+    private final Timer conversionTimer;
+    private final Duration staleAfter;
+
+    // Files queued or converting on this node, with their staged inputs
+    private final Map<Long, List<StagedFile>> inFlight = new ConcurrentHashMap<>();
+
+    // Moving average of how long one conversion takes, to estimate when a full queue drains
+    private volatile double averageConversionMillis = 1000;
+
+    /**
+     * An uploaded file already written to disk, with the name it was uploaded under
+     */
+    public record StagedFile(Path path, String originalFilename) {
+    }
+
+    @Autowired
+    public MedicalFileProcessor(MedicalFileRepository medicalFileRepository,
+                                PdfConversionService pdfConversionService,
+                                FileStorageService fileStorageService,
+                                ParallelConversionRunner parallelConversionRunner,
+                                ThumbnailService thumbnailService,
+                                PdfLinearizer pdfLinearizer,
+                                MedicalFileTextService medicalFileTextService,
+                                @Qualifier("conversionExecutor") ThreadPoolTaskExecutor conversionExecutor,
+                                MeterRegistry meterRegistry,
+                                @Value("${medivault.conversion.stale-after:30m}") Duration staleAfter) {
+        this.medicalFileRepository = medicalFileRepository;
+        this.pdfConversionService = pdfConversionService;
+        this.fileStorageService = fileStorageService;
+        this.parallelConversionRunner = parallelConversionRunner;
+        this.thumbnailService = thumbnailService;
+        this.pdfLinearizer = pdfLinearizer;
+        this.medicalFileTextService = medicalFileTextService;
+        this.conversionExecutor = conversionExecutor;
+        this.rejectedConversions = Counter.builder("medivault.conversion.rejected")
+                .description("Conversions shed because the queue was full")
+                .register(meterRegistry);
+        this.conversionTimer = Timer.builder("medivault.conversion.duration")
+                .register(meterRegistry);
+        this.staleAfter = staleAfter;
+    }
+
+    /**
+     * Queue a persisted PENDING medical file for conversion.
+     * The staged inputs are owned by the worker from here on and deleted once processed.
+     */
+    public void submit(Long medicalFileId, List<StagedFile> inputs) {
+        execute(medicalFileId, inputs, () -> process(medicalFileId, inputs));
+    }
+
+    /**
+     * Queue new pages to be appended to the completed PDF of a medical file.
+     * The file must already have been claimed (moved out of COMPLETED) by the caller.
+     */
+    public void submitAppend(Long medicalFileId, String basePdfUrl, List<StagedFile> inputs) {
+        execute(medicalFileId, inputs, () -> processAppend(medicalFileId, basePdfUrl, inputs));
+    }
+
+    /**
+     * Hand work to the bounded pool, shedding it with a retry hint when the queue is full
+     */
+    private void execute(Long medicalFileId, List<StagedFile> inputs, Runnable conversion) {
+        inFlight.put(medicalFileId, inputs);
+        try {
+            conversionExecutor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    conversion.run();
+                } finally {
+                    inFlight.remove(medicalFileId);
+                    long elapsed = System.nanoTime() - start;
+                    conversionTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                    averageConversionMillis = averageConversionMillis * 0.8 + elapsed / 1_000_000.0 * 0.2;
+                }
+            });
+        } catch (TaskRejectedException e) {
+            inFlight.remove(medicalFileId);
+            rejectedConversions.increment();
+            throw new ServiceBusyException("Server is busy converting other files, please retry later",
+                    retryAfterSeconds());
+        }
+    }
+
+    /**
+     * Rough time until the current backlog has drained through all workers
+     */
+    private long retryAfterSeconds() {
+        int backlog = conversionExecutor.getQueueSize() + conversionExecutor.getActiveCount();
+        int workers = Math.max(1, conversionExecutor.getMaxPoolSize());
+        long seconds = (long) Math.ceil(backlog * averageConversionMillis / workers / 1000);
+        return Math.max(1, Math.min(seconds, MAX_RETRY_AFTER_SECONDS));
+    }
+
+    /**
+     * Recover from conversions lost to a restart (of this node or another): keep the rows of work
+     * still queued or running here fresh, fail the ones nobody has touched for stale-after, and
+     * delete staged uploads that old which no queued conversion will read. Also runs at startup.
+     */
+    @Scheduled(fixedDelayString = "${medivault.conversion.recovery-interval-ms:300000}")
+    public void recoverStalled() {
+        LocalDateTime now = LocalDateTime.now();
+        if (!inFlight.isEmpty()) {
+            medicalFileRepository.touchProcessing(Set.copyOf(inFlight.keySet()), UNFINISHED, now);
+        }
+
+        LocalDateTime cutoff = now.minus(staleAfter);
+        int conversions = medicalFileRepository.failStalledConversions(UNFINISHED, cutoff,
+                "Conversion was interrupted, please upload the file again", FileProcessingStatus.FAILED, now);
+        // An interrupted append leaves the existing PDF as it was, so the file is usable again
+        int appends = medicalFileRepository.failStalledAppends(UNFINISHED, cutoff,
+                "Adding pages was interrupted, please add them again", FileProcessingStatus.COMPLETED, now);
+        if (conversions > 0 || appends > 0) {
+            log.warn("Failed {} interrupted conversions and {} interrupted appends", conversions, appends);
+        }
+
+        deleteStaleStagedFiles(Instant.now().minus(staleAfter));
+    }
+
+    private void deleteStaleStagedFiles(Instant cutoff) {
+        Set<Path> queued = new HashSet<>();
+        inFlight.values().forEach(inputs -> inputs.forEach(input -> queued.add(input.path().toAbsolutePath())));
+
+        Path stagingDir = Paths.get(STAGING_DIR);
+        if (!Files.isDirectory(stagingDir)) {
+            return;
+        }
+
+        try (Stream<Path> staged = Files.list(stagingDir)) {
+            staged.filter(path -> !queued.contains(path.toAbsolutePath()))
+                    .filter(path -> isOlderThan(path, cutoff))
+                    .forEach(UploadStagingUtil::deleteQuietly);
+        } catch (IOException e) {
+            log.warn("Staged uploads could not be listed", e);
+        }
+    }
+
+    private static boolean isOlderThan(Path path, Instant cutoff) {
+        try {
+            return Files.isRegularFile(path) && Files.getLastModifiedTime(path).toInstant().isBefore(cutoff);
+        } catch (IOException e) {
+            // Deleted meanwhile
+            return false;
+        }
+    }
+
+    private void process(Long medicalFileId, List<StagedFile> inputs) {
+        try {
+            if (medicalFileRepository.updateProcessingStatus(
+                    medicalFileId, FileProcessingStatus.PROCESSING, LocalDateTime.now()) == 0) {
+                // Deleted before a worker picked it up
+                return;
+            }
+
+            String pdfUrl = inputs.size() == 1 ? convertSingle(inputs.get(0)) : convertAndMerge(inputs);
+
+            if (medicalFileRepository.completeProcessing(
+                    medicalFileId, pdfUrl, FileProcessingStatus.COMPLETED, LocalDateTime.now()) == 0) {
+                // Deleted while converting, nothing holds the stored PDF
+                fileStorageService.release(pdfUrl);
+                return;
+            }
+
+            prewarmThumbnail(medicalFileId, pdfUrl);
+            queueTextExtraction(medicalFileId);
+        } catch (Exception e) {
+            log.warn("Conversion of medical file {} failed", medicalFileId, e);
+            medicalFileRepository.failProcessing(medicalFileId, errorMessage(e),
+                    FileProcessingStatus.FAILED, LocalDateTime.now());
+        } finally {
+            inputs.forEach(input -> UploadStagingUtil.deleteQuietly(input.path()));
+        }
+    }
+
+    private void processAppend(Long medicalFileId, String basePdfUrl, List<StagedFile> inputs) {
+        try {
+            if (medicalFileRepository.updateProcessingStatus(
+                    medicalFileId, FileProcessingStatus.PROCESSING, LocalDateTime.now()) == 0) {
+                // Deleted before a worker picked it up
+                return;
+            }
+
+            FileStorageService.AppendedBlob appended = appendToPdf(basePdfUrl, inputs);
+            String pdfUrl = appended.location();
+
+            if (medicalFileRepository.completeProcessing(
+                    medicalFileId, pdfUrl, FileProcessingStatus.COMPLETED, LocalDateTime.now()) == 0) {
+                // Deleted while appending, nothing holds the new PDF
+                fileStorageService.release(pdfUrl);
+                return;
+            }
+
+            // The file now points at the extended PDF; drop its reference to the previous version,
+            // unless that was extended in place and the reference went with it
+            if (!appended.extendedInPlace()) {
+                fileStorageService.release(basePdfUrl);
+            }
+            prewarmThumbnail(medicalFileId, pdfUrl);
+            queueTextExtraction(medicalFileId);
+        } catch (Exception e) {
+            log.warn("Appending pages to medical file {} failed", medicalFileId, e);
+            // The existing PDF is untouched, so the file stays COMPLETED and only the error is recorded;
+            // the appendId is cleared so the same append can be retried
+            medicalFileRepository.failAppend(medicalFileId, errorMessage(e),
+                    FileProcessingStatus.COMPLETED, LocalDateTime.now());
+        } finally {
+            inputs.forEach(input -> UploadStagingUtil.deleteQuietly(input.path()));
+        }
+    }
+
+    /**
+     * Render the first-page preview while the PDF is still in the page cache.
+     * A failure here only costs a slower first preview, so the file stays COMPLETED.
+     */
+    private void prewarmThumbnail(Long medicalFileId, String pdfUrl) {
+        try {
+            thumbnailService.prewarm(pdfUrl);
+        } catch (Exception e) {
+            log.warn("Thumbnail of medical file {} could not be rendered", medicalFileId, e);
+        }
+    }
+
+    /**
+     * Queue the (re)written PDF for text extraction. The PDF itself is complete either way,
+     * so a failure here leaves the file COMPLETED with no text rather than failing it.
+     */
+    private void queueTextExtraction(Long medicalFileId) {
+        try {
+            medicalFileTextService.queue(medicalFileId);
+        } catch (Exception e) {
+            log.warn("Text extraction of medical file {} could not be queued", medicalFileId, e);
+        }
+    }
+
+    private String convertSingle(StagedFile input) throws IOException {
+        String filename = input.originalFilename();
+
+        if (pdfConversionService.isPdfFile(filename)) {
+            // Already PDF, move it into the store as is
+            return storePdf(input.path(), false);
+        }
+
+        Path pdfPath = fileStorageService.createTempFile(".pdf");
+        try {
+            if (pdfConversionService.isImageFile(filename)) {
+                // Convert image to PDF
+                pdfConversionService.convertImageToPdf(input.path(), pdfPath);
+            } else if (pdfConversionService.isTextFile(filename)) {
+                // Convert text to PDF
+                pdfConversionService.convertTextToPdf(input.path(), pdfPath);
+            } else {
+                throw new RuntimeException("Unsupported file type: " + filename);
+            }
+            return storePdf(pdfPath, false);
+        } finally {
+            UploadStagingUtil.deleteQuietly(pdfPath);
+        }
+    }
+
+    private String convertAndMerge(List<StagedFile> inputs) throws IOException {
+        List<Path> tempFiles = new ArrayList<>();
+        try {
+            List<Path> pdfPaths = convertEach(inputs, tempFiles);
+
+            // Merge all PDFs into one, in upload order, and hand it to the content-addressed store
+            Path pdfPath;
+            if (pdfPaths.size() == 1) {
+                pdfPath = pdfPaths.get(0);
+            } else {
+                pdfPath = fileStorageService.createTempFile(".pdf");
+                tempFiles.add(pdfPath);
+                pdfConversionService.mergePdfs(pdfPaths, pdfPath);
+            }
+
+            return storePdf(pdfPath, true);
+        } finally {
+            tempFiles.forEach(UploadStagingUtil::deleteQuietly);
+        }
+    }
+
+    /**
+     * Store the stored PDF plus the pages of all inputs as a new stored PDF: the unchanged
+     * original followed by one incremental update. Only the update is written, onto the end of
+     * the original's file unless another row shares that blob.
+     */
+    private FileStorageService.AppendedBlob appendToPdf(String basePdfUrl, List<StagedFile> inputs) throws IOException {
+        List<Path> tempFiles = new ArrayList<>();
+        try {
+            List<Path> pdfPaths = convertEach(inputs, tempFiles);
+
+            Path increment = fileStorageService.createTempFile(".pdf");
+            tempFiles.add(increment);
+            pdfConversionService.appendPdfs(fileStorageService.resolve(basePdfUrl), pdfPaths, increment);
+
+            // Not linearized: that would rewrite the whole file, which is what appending avoids.
+            // Viewers fall back to a normal load for a linearized file with an update appended.
+            return fileStorageService.storeAppended(basePdfUrl, increment);
+        } finally {
+            tempFiles.forEach(UploadStagingUtil::deleteQuietly);
+        }
+    }
+
+    /**
+     * Move a finished PDF into the store, linearizing it first if configured for this kind of output
+     */
+    private String storePdf(Path pdfPath, boolean merged) throws IOException {
+        if (pdfLinearizer.appliesTo(merged)) {
+            Path linearized = fileStorageService.createTempFile(".pdf");
+            try {
+                if (pdfLinearizer.linearize(pdfPath, linearized)) {
+                    return fileStorageService.storeFile(linearized);
+                }
+            } finally {
+                UploadStagingUtil.deleteQuietly(linearized);
+            }
+        }
+        return fileStorageService.storeFile(pdfPath);
+    }
+
+    /**
+     * Convert every input to its own PDF in parallel; index i of the result always holds input i.
+     * PDF inputs are used as they are, intermediate files are added to {@code tempFiles}.
+     */
+    private List<Path> convertEach(List<StagedFile> inputs, List<Path> tempFiles) throws IOException {
+        List<Path> pdfPaths = new ArrayList<>(inputs.size());
+        List<ParallelConversionRunner.ConversionTask> tasks = new ArrayList<>();
+
+        for (StagedFile input : inputs) {
+            String filename = input.originalFilename();
+
+            if (pdfConversionService.isPdfFile(filename)) {
+                pdfPaths.add(input.path());
+                continue;
+            }
+
+            Path pdfPath = fileStorageService.createTempFile(".pdf");
+            tempFiles.add(pdfPath);
+            pdfPaths.add(pdfPath);
+
+            if (pdfConversionService.isImageFile(filename)) {
+                tasks.add(() -> pdfConversionService.convertImageToPdf(input.path(), pdfPath));
+            } else if (pdfConversionService.isTextFile(filename)) {
+                tasks.add(() -> pdfConversionService.convertTextToPdf(input.path(), pdfPath));
+            } else {
+                throw new RuntimeException("Unsupported file type: " + filename);
+            }
+        }
+
+        parallelConversionRunner.runAll(tasks);
+        return pdfPaths;
+    }
+
+    private String errorMessage(Exception e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+}
@@ -1,10 +1,18 @@
 package com.app.medivault.service;
 
+import com.app.medivault.dtos.FileDownload;
+import com.app.medivault.dtos.MedicalFilePageTextResponse;
 import com.app.medivault.dtos.MedicalFileResponse;
+import com.app.medivault.dtos.MedicalFileStatusResponse;
 import com.app.medivault.entity.*;
+import com.app.medivault.repository.MedicalFilePageTextRepository;
 import com.app.medivault.repository.MedicalFileRepository;
+import com.app.medivault.repository.MedicalFileStatusView;
+import com.app.medivault.repository.OcrJobRepository;
 import com.app.medivault.repository.PatientRepository;
+import com.app.medivault.util.UploadStagingUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -14,6 +22,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -23,28 +32,58 @@ public class MedicalFileService {
     private final MedicalFileRepository medicalFileRepository;
     private final PatientRepository patientRepository;
     private final PdfConversionService pdfConversionService;
+    private final FileStorageService fileStorageService;
+    private final MedicalFileProcessor medicalFileProcessor;
+    private final MedicalFilePageTextRepository pageTextRepository;
+    private final OcrJobRepository ocrJobRepository;
 
-    private static final String UPLOAD_DIR = "uploads/medical-files/";
+    private static final String STAGING_DIR = MedicalFileProcessor.STAGING_DIR;
 
     @Autowired
     public MedicalFileService(MedicalFileRepository medicalFileRepository,
                               PatientRepository patientRepository,
-                              PdfConversionService pdfConversionService) {
+                              PdfConversionService pdfConversionService,
+                              FileStorageService fileStorageService,
+                              MedicalFileProcessor medicalFileProcessor,
+                              MedicalFilePageTextRepository pageTextRepository,
+                              OcrJobRepository ocrJobRepository) {
         this.medicalFileRepository = medicalFileRepository;
         this.patientRepository = patientRepository;
         this.pdfConversionService = pdfConversionService;
+        this.fileStorageService = fileStorageService;
+        this.medicalFileProcessor = medicalFileProcessor;
+        this.pageTextRepository = pageTextRepository;
+        this.ocrJobRepository = ocrJobRepository;
         
         // Create upload directory if it doesn't exist
         try {
-            Files.createDirectories(Paths.get(UPLOAD_DIR));
+            Files.createDirectories(Paths.get(STAGING_DIR));
         } catch (IOException e) {
             // Directory creation failed
         }
     }
 
-    @Transactional
     public MedicalFileResponse uploadMedicalFile(String uploadId, Long patientId, MultipartFile file, 
                                                   String category, String description, Long userId) throws IOException {
+        String originalFilename = file.getOriginalFilename();
+        return submitUpload(uploadId, patientId, List.of(file), originalFilename,
+                getFileExtension(originalFilename), category, description, userId);
+    }
+
+    public MedicalFileResponse uploadMultipleMedicalFiles(String uploadId, Long patientId, 
+                                                          List<MultipartFile> files, String category, 
+                                                          String description, Long userId) throws IOException {
+        return submitUpload(uploadId, patientId, files, "Multiple files (" + files.size() + " files)",
+                "merged", category, description, userId);
+    }
+
+    /**
+     * Stage the uploaded files to disk, persist the MedicalFile as PENDING and queue its conversion.
+     * No transaction or DB connection is held while files are written or converted.
+     */
+    private MedicalFileResponse submitUpload(String uploadId, Long patientId, List<MultipartFile> files,
+                                             String originalFilename, String originalFiletype,
+                                             String category, String description, Long userId) throws IOException {
         // Check for duplicate upload using uploadId (idempotency)
         Optional<MedicalFile> existingFile = medicalFileRepository.findByUploadId(uploadId);
         if (existingFile.isPresent()) {
@@ -59,49 +98,37 @@ public class MedicalFileService {
             throw new RuntimeException("Unauthorized access to patient");
         }
 
-        String originalFilename = file.getOriginalFilename();
-        String originalFiletype = getFileExtension(originalFilename);
-
-        // Create medical file entity
-        MedicalFile medicalFile = new MedicalFile();
-        medicalFile.setUploadId(uploadId);
-        medicalFile.setPatient(patient);
-        medicalFile.setOriginalFilename(originalFilename);
-        medicalFile.setOriginalFiletype(originalFiletype);
-        medicalFile.setFileCategory(category);
-        medicalFile.setDescription(description);
-        medicalFile.setProcessingStatus(FileProcessingStatus.PROCESSING);
-
-        medicalFile = medicalFileRepository.save(medicalFile);
+        for (MultipartFile file : files) {
+            if (!isSupportedFile(file.getOriginalFilename())) {
+                throw new RuntimeException("Unsupported file type: " + file.getOriginalFilename());
+            }
+        }
 
-        // Process file based on type
+        List<MedicalFileProcessor.StagedFile> stagedFiles = new ArrayList<>();
         try {
-            byte[] pdfBytes = processFile(file);
-            
-            // Save PDF
-            String pdfFileName = UUID.randomUUID().toString() + ".pdf";
-            Path pdfPath = Paths.get(UPLOAD_DIR + pdfFileName);
-            Files.write(pdfPath, pdfBytes);
-            
-            medicalFile.setPdfUrl(pdfPath.toString());
-            medicalFile.setProcessingStatus(FileProcessingStatus.COMPLETED);
-        } catch (Exception e) {
-            medicalFile.setProcessingStatus(FileProcessingStatus.FAILED);
-            medicalFileRepository.save(medicalFile);
-            throw new RuntimeException("File processing failed: " + e.getMessage());
+            for (MultipartFile file : files) {
+                Path stagedFile = UploadStagingUtil.stage(file, Paths.get(STAGING_DIR));
+                stagedFiles.add(new MedicalFileProcessor.StagedFile(stagedFile, file.getOriginalFilename()));
+            }
+        } catch (IOException | RuntimeException e) {
+            stagedFiles.forEach(staged -> UploadStagingUtil.deleteQuietly(staged.path()));
+            throw e;
         }
 
-        medicalFile = medicalFileRepository.save(medicalFile);
-        return mapToResponse(medicalFile);
+        return queueConversion(uploadId, patient, stagedFiles, originalFilename, originalFiletype, category, description);
     }
 
-    @Transactional
-    public MedicalFileResponse uploadMultipleMedicalFiles(String uploadId, Long patientId, 
-                                                          List<MultipartFile> files, String category, 
-                                                          String description, Long userId) throws IOException {
-        // Check for duplicate upload
+    /**
+     * Submit a file that was already assembled on disk (e.g. by a chunked upload) for conversion.
+     * The staged file is consumed once the upload is accepted; if it is rejected the caller keeps it.
+     */
+    public MedicalFileResponse uploadStagedMedicalFile(String uploadId, Long patientId, Path stagedFile,
+                                                       String originalFilename, String category,
+                                                       String description, Long userId) {
+        // Check for duplicate upload using uploadId (idempotency)
         Optional<MedicalFile> existingFile = medicalFileRepository.findByUploadId(uploadId);
         if (existingFile.isPresent()) {
+            UploadStagingUtil.deleteQuietly(stagedFile);
             return mapToResponse(existingFile.get());
         }
 
@@ -113,87 +140,130 @@ public class MedicalFileService {
             throw new RuntimeException("Unauthorized access to patient");
         }
 
-        // Create medical file entity
-        MedicalFile medicalFile = new MedicalFile();
-        medicalFile.setUploadId(uploadId);
-        medicalFile.setPatient(patient);
-        medicalFile.setOriginalFilename("Multiple files (" + files.size() + " files)");
-        medicalFile.setOriginalFiletype("merged");
-        medicalFile.setFileCategory(category);
-        medicalFile.setDescription(description);
-        medicalFile.setProcessingStatus(FileProcessingStatus.PROCESSING);
+        if (!isSupportedFile(originalFilename)) {
+            throw new RuntimeException("Unsupported file type: " + originalFilename);
+        }
 
-        medicalFile = medicalFileRepository.save(medicalFile);
+        return queueConversion(uploadId, patient, List.of(new MedicalFileProcessor.StagedFile(stagedFile, originalFilename)),
+                originalFilename, getFileExtension(originalFilename), category, description);
+    }
 
-        // Process and merge files
+    /**
+     * Persist the MedicalFile as PENDING and hand its staged inputs to the conversion worker
+     */
+    private MedicalFileResponse queueConversion(String uploadId, Patient patient,
+                                                List<MedicalFileProcessor.StagedFile> stagedFiles,
+                                                String originalFilename, String originalFiletype,
+                                                String category, String description) {
         try {
-            List<byte[]> imageBytesList = new ArrayList<>();
-            List<byte[]> pdfBytesList = new ArrayList<>();
+            // Create medical file entity
+            MedicalFile medicalFile = new MedicalFile();
+            medicalFile.setUploadId(uploadId);
+            medicalFile.setPatient(patient);
+            medicalFile.setOriginalFilename(originalFilename);
+            medicalFile.setOriginalFiletype(originalFiletype);
+            medicalFile.setFileCategory(category);
+            medicalFile.setDescription(description);
+            medicalFile.setProcessingStatus(FileProcessingStatus.PENDING);
+
+            medicalFile = medicalFileRepository.save(medicalFile);
+            MedicalFileResponse response = mapToResponse(medicalFile);
+
+            try {
+                medicalFileProcessor.submit(medicalFile.getId(), stagedFiles);
+            } catch (ServiceBusyException e) {
+                // Nothing was accepted, so a retry with the same uploadId must start over
+                medicalFileRepository.deleteById(medicalFile.getId());
+                throw e;
+            }
 
-            for (MultipartFile file : files) {
-                String filename = file.getOriginalFilename();
-                byte[] fileBytes = file.getBytes();
-
-                if (pdfConversionService.isPdfFile(filename)) {
-                    pdfBytesList.add(fileBytes);
-                } else if (pdfConversionService.isImageFile(filename)) {
-                    imageBytesList.add(fileBytes);
-                } else if (pdfConversionService.isTextFile(filename)) {
-                    // Convert text to PDF and add to PDF list
-                    byte[] pdfBytes = pdfConversionService.convertTextToPdf(fileBytes);
-                    pdfBytesList.add(pdfBytes);
-                } else {
-                    throw new RuntimeException("Unsupported file type: " + filename);
-                }
+            return response;
+        } catch (RuntimeException e) {
+            stagedFiles.forEach(staged -> UploadStagingUtil.deleteQuietly(staged.path()));
+            throw e;
+        }
+    }
+
+    /**
+     * Append new image/text/PDF pages to the end of a completed medical file.
+     * Runs in the background like an upload; the current PDF stays downloadable meanwhile.
+     * Retrying with the same appendId after it was accepted is a no-op.
+     */
+    public MedicalFileResponse appendPages(Long fileId, String appendId, List<MultipartFile> files,
+                                           Long userId) throws IOException {
+        MedicalFile file = medicalFileRepository.findById(fileId)
+                .orElseThrow(() -> new RuntimeException("Medical file not found"));
+
+        if (!file.getPatient().getUser().getId().equals(userId)) {
+            throw new RuntimeException("Unauthorized access");
+        }
+
+        // Duplicate request (idempotency)
+        if (appendId.equals(file.getLastAppendId())) {
+            return mapToResponse(file);
+        }
+
+        if (file.getProcessingStatus() != FileProcessingStatus.COMPLETED || file.getPdfUrl() == null) {
+            throw new RuntimeException("Medical file is still being processed");
+        }
+
+        for (MultipartFile upload : files) {
+            if (!isSupportedFile(upload.getOriginalFilename())) {
+                throw new RuntimeException("Unsupported file type: " + upload.getOriginalFilename());
+            }
+        }
+
+        List<MedicalFileProcessor.StagedFile> stagedFiles = new ArrayList<>();
+        try {
+            for (MultipartFile upload : files) {
+                Path stagedFile = UploadStagingUtil.stage(upload, Paths.get(STAGING_DIR));
+                stagedFiles.add(new MedicalFileProcessor.StagedFile(stagedFile, upload.getOriginalFilename()));
             }
 
-            // Convert all images to PDF
-            if (!imageBytesList.isEmpty()) {
-                byte[] imagePdf = pdfConversionService.mergeImagesToPdf(imageBytesList);
-                pdfBytesList.add(imagePdf);
+            // Only one conversion or append may work on a file at a time
+            if (medicalFileRepository.claimForAppend(fileId, appendId, FileProcessingStatus.COMPLETED,
+                    FileProcessingStatus.PENDING, LocalDateTime.now()) == 0) {
+                throw new RuntimeException("Medical file is still being processed");
             }
 
-            // Merge all PDFs into one
-            byte[] finalPdfBytes;
-            if (pdfBytesList.size() == 1) {
-                finalPdfBytes = pdfBytesList.get(0);
-            } else {
-                finalPdfBytes = pdfConversionService.mergePdfs(pdfBytesList);
+            MedicalFileResponse response = mapToResponse(file);
+            response.setProcessingStatus(FileProcessingStatus.PENDING.name());
+
+            try {
+                medicalFileProcessor.submitAppend(fileId, file.getPdfUrl(), stagedFiles);
+            } catch (ServiceBusyException e) {
+                medicalFileRepository.failAppend(fileId, "Conversion queue is full",
+                        FileProcessingStatus.COMPLETED, LocalDateTime.now());
+                throw e;
             }
 
-            // Save merged PDF
-            String pdfFileName = UUID.randomUUID().toString() + "_merged.pdf";
-            Path pdfPath = Paths.get(UPLOAD_DIR + pdfFileName);
-            Files.write(pdfPath, finalPdfBytes);
-            
-            medicalFile.setPdfUrl(pdfPath.toString());
-            medicalFile.setProcessingStatus(FileProcessingStatus.COMPLETED);
-        } catch (Exception e) {
-            medicalFile.setProcessingStatus(FileProcessingStatus.FAILED);
-            medicalFileRepository.save(medicalFile);
-            throw new RuntimeException("File processing failed: " + e.getMessage());
+            return response;
+        } catch (IOException | RuntimeException e) {
+            stagedFiles.forEach(staged -> UploadStagingUtil.deleteQuietly(staged.path()));
+            throw e;
         }
+    }
 
-        medicalFile = medicalFileRepository.save(medicalFile);
-        return mapToResponse(medicalFile);
+    /**
+     * Check whether a file can be converted into a medical file PDF
+     */
+    public boolean isSupportedFile(String filename) {
+        return filename != null && (pdfConversionService.isPdfFile(filename)
+                || pdfConversionService.isImageFile(filename)
+                || pdfConversionService.isTextFile(filename));
     }
 
-    private byte[] processFile(MultipartFile file) throws IOException {
-        String filename = file.getOriginalFilename();
-        byte[] fileBytes = file.getBytes();
-
-        if (pdfConversionService.isPdfFile(filename)) {
-            // Already PDF, return as is
-            return fileBytes;
-        } else if (pdfConversionService.isImageFile(filename)) {
-            // Convert image to PDF
-            return pdfConversionService.convertImageToPdf(fileBytes);
-        } else if (pdfConversionService.isTextFile(filename)) {
-            // Convert text to PDF
-            return pdfConversionService.convertTextToPdf(fileBytes);
-        } else {
-            throw new RuntimeException("Unsupported file type: " + filename);
-        }
+    public MedicalFileStatusResponse getProcessingStatus(Long fileId, Long userId) {
+        MedicalFileStatusView status = medicalFileRepository.findStatusByIdAndUserId(fileId, userId)
+                .orElseThrow(() -> new RuntimeException("Medical file not found"));
+
+        return new MedicalFileStatusResponse(
+                status.getId(),
+                status.getUploadId(),
+                status.getProcessingStatus() != null ? status.getProcessingStatus().name() : null,
+                status.getProcessingError(),
+                status.getTextStatus() != null ? status.getTextStatus().name() : null,
+                status.getUpdatedAt());
     }
 
     public List<MedicalFileResponse> getMedicalFilesByPatient(Long patientId, Long userId) {
@@ -221,6 +291,56 @@ public class MedicalFileService {
         return mapToResponse(file);
     }
 
+    /**
+     * The medical file created by an upload, if its upload has been accepted yet
+     */
+    public Optional<MedicalFileResponse> findByUploadId(String uploadId, Long userId) {
+        Optional<MedicalFile> file = medicalFileRepository.findByUploadId(uploadId);
+
+        if (file.isPresent() && !file.get().getPatient().getUser().getId().equals(userId)) {
+            throw new RuntimeException("Unauthorized access");
+        }
+
+        return file.map(this::mapToResponse);
+    }
+
+    public FileDownload getPdfDownload(Long fileId, Long userId) {
+        MedicalFile file = medicalFileRepository.findById(fileId)
+                .orElseThrow(() -> new RuntimeException("Medical file not found"));
+
+        if (!file.getPatient().getUser().getId().equals(userId)) {
+            throw new RuntimeException("Unauthorized access");
+        }
+
+        // Pages being appended don't block downloads, the previous version stays valid until replaced
+        if (file.getPdfUrl() == null) {
+            throw new RuntimeException("Medical file is not ready for download");
+        }
+
+        return new FileDownload(file.getPdfUrl(), MediaType.APPLICATION_PDF_VALUE, downloadName(file));
+    }
+
+    /**
+     * Extracted text of each page processed so far, in page order
+     */
+    public List<MedicalFilePageTextResponse> getPageTexts(Long fileId, Long userId) {
+        MedicalFile file = medicalFileRepository.findById(fileId)
+                .orElseThrow(() -> new RuntimeException("Medical file not found"));
+
+        if (!file.getPatient().getUser().getId().equals(userId)) {
+            throw new RuntimeException("Unauthorized access");
+        }
+
+        return pageTextRepository.findByMedicalFileIdOrderByPageNumber(fileId).stream()
+                .map(page -> new MedicalFilePageTextResponse(
+                        page.getPageNumber(),
+                        page.getSource() != null ? page.getSource().name() : null,
+                        page.getStatus().name(),
+                        page.getText(),
+                        page.getError()))
+                .collect(Collectors.toList());
+    }
+
     @Transactional
     public void deleteMedicalFile(Long fileId, Long userId) {
         MedicalFile file = medicalFileRepository.findById(fileId)
@@ -230,16 +350,23 @@ public class MedicalFileService {
             throw new RuntimeException("Unauthorized access");
         }
 
-        // Delete PDF file
-        try {
-            Files.deleteIfExists(Paths.get(file.getPdfUrl()));
-        } catch (IOException e) {
-            // File deletion failed
-        }
+        // Drop this file's reference to the stored PDF
+        fileStorageService.release(file.getPdfUrl());
 
+        ocrJobRepository.deleteByTarget(OcrJobTarget.MEDICAL_FILE, fileId);
+        pageTextRepository.deleteByMedicalFileId(fileId);
         medicalFileRepository.delete(file);
     }
 
+    private String downloadName(MedicalFile file) {
+        String name = file.getOriginalFilename();
+        if (name == null || file.getOriginalFiletype() == null || "merged".equals(file.getOriginalFiletype())) {
+            return "medical-file-" + file.getId() + ".pdf";
+        }
+        int lastDot = name.lastIndexOf('.');
+        return (lastDot > 0 ? name.substring(0, lastDot) : name) + ".pdf";
+    }
+
     private String getFileExtension(String filename) {
         if (filename == null) return "";
         int lastDot = filename.lastIndexOf('.');
@@ -255,9 +382,13 @@ public class MedicalFileService {
         response.setOriginalFilename(file.getOriginalFilename());
         response.setOriginalFiletype(file.getOriginalFiletype());
         response.setPdfUrl(file.getPdfUrl());
+        if (file.getPdfUrl() != null) {
+            response.setThumbnailUrl("/api/medical-files/" + file.getId() + "/pages/1/thumbnail");
+        }
         response.setFileCategory(file.getFileCategory());
         response.setDescription(file.getDescription());
         response.setProcessingStatus(file.getProcessingStatus() != null ? file.getProcessingStatus().name() : null);
+        response.setTextStatus(file.getTextStatus() != null ? file.getTextStatus().name() : null);
         response.setCreatedAt(file.getCreatedAt());
         response.setUpdatedAt(file.getUpdatedAt());
         return response;
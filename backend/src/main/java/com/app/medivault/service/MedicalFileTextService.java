@@ -0,0 +1,283 @@
+package com.app.medivault.service;
+
+import com.app.medivault.entity.FileProcessingStatus;
+import com.app.medivault.entity.MedicalFile;
+import com.app.medivault.entity.MedicalFilePageText;
+import com.app.medivault.entity.OcrJob;
+import com.app.medivault.entity.OcrJobStatus;
+import com.app.medivault.entity.OcrJobTarget;
+import com.app.medivault.entity.PageTextSource;
+import com.app.medivault.repository.MedicalFilePageTextRepository;
+import com.app.medivault.repository.MedicalFileRepository;
+import com.app.medivault.repository.OcrJobRepository;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extracts the text of converted medical file PDFs, page by page. Pages with an embedded text
+ * layer are read directly; only pages without one are rendered and sent to OCR, in parallel on
+ * a bounded pool. Each page's result is stored as it completes, so a retry of the file's OCR job
+ * only redoes the pages that failed.
+ */
+@Service
+public class MedicalFileTextService {
+
+    private static final Logger log = LoggerFactory.getLogger(MedicalFileTextService.class);
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final float POINTS_PER_INCH = 72;
+
+    private final MedicalFileRepository medicalFileRepository;
+    private final MedicalFilePageTextRepository pageTextRepository;
+    private final OcrJobRepository ocrJobRepository;
+    private final FileStorageService fileStorageService;
+    private final TextExtractionService textExtractionService;
+    private final OcrImagePreprocessor preprocessor;
+    private final PdfConversionService pdfConversionService;
+    private final ThreadPoolTaskExecutor pdfOcrExecutor;
+    private final int minTextLayerChars;
+    private final int renderDpi;
+
+    @Autowired
+    public MedicalFileTextService(MedicalFileRepository medicalFileRepository,
+                                  MedicalFilePageTextRepository pageTextRepository,
+                                  OcrJobRepository ocrJobRepository,
+                                  FileStorageService fileStorageService,
+                                  TextExtractionService textExtractionService,
+                                  OcrImagePreprocessor preprocessor,
+                                  PdfConversionService pdfConversionService,
+                                  @Qualifier("pdfOcrExecutor") ThreadPoolTaskExecutor pdfOcrExecutor,
+                                  @Value("${medivault.ocr.pdf.min-text-layer-chars:20}") int minTextLayerChars,
+                                  @Value("${medivault.ocr.pdf.render-dpi:300}") int renderDpi) {
+        this.medicalFileRepository = medicalFileRepository;
+        this.pageTextRepository = pageTextRepository;
+        this.ocrJobRepository = ocrJobRepository;
+        this.fileStorageService = fileStorageService;
+        this.textExtractionService = textExtractionService;
+        this.preprocessor = preprocessor;
+        this.pdfConversionService = pdfConversionService;
+        this.pdfOcrExecutor = pdfOcrExecutor;
+        this.minTextLayerChars = minTextLayerChars;
+        this.renderDpi = renderDpi;
+    }
+
+    /**
+     * Queue (or re-queue) text extraction for a file whose PDF was just written or extended.
+     * Pages already extracted are kept: appends only add pages at the end.
+     */
+    public void queue(Long medicalFileId) {
+        LocalDateTime now = LocalDateTime.now();
+        medicalFileRepository.updateTextStatus(medicalFileId, FileProcessingStatus.PENDING, now);
+        if (ocrJobRepository.requeue(OcrJobTarget.MEDICAL_FILE, medicalFileId, OcrJobStatus.QUEUED, now) > 0) {
+            return;
+        }
+
+        OcrJob job = new OcrJob();
+        job.setTargetType(OcrJobTarget.MEDICAL_FILE);
+        job.setTargetId(medicalFileId);
+        job.setStatus(OcrJobStatus.QUEUED);
+        job.setAttempts(0);
+        job.setNextAttemptAt(now);
+        try {
+            ocrJobRepository.save(job);
+        } catch (DataIntegrityViolationException e) {
+            // Created concurrently by another append; make sure it runs against the latest PDF
+            ocrJobRepository.requeue(OcrJobTarget.MEDICAL_FILE, medicalFileId, OcrJobStatus.QUEUED, now);
+        }
+    }
+
+    /**
+     * Extract and store the text of every page not done yet. Called by OcrJobWorker; throws if any
+     * page failed, after storing the others, so the job is retried for the failed pages only.
+     * Stops storing pages once the job's lease has been lost.
+     */
+    public void extractText(Long medicalFileId, OcrJobLease lease) throws IOException {
+        MedicalFile file = medicalFileRepository.findById(medicalFileId).orElse(null);
+        if (file == null || file.getPdfUrl() == null) {
+            // Deleted while queued, or never converted
+            return;
+        }
+        medicalFileRepository.updateTextStatus(medicalFileId, FileProcessingStatus.PROCESSING, LocalDateTime.now());
+
+        Map<Integer, MedicalFilePageText> previous = new HashMap<>();
+        for (MedicalFilePageText page : pageTextRepository.findByMedicalFileIdOrderByPageNumber(medicalFileId)) {
+            previous.put(page.getPageNumber(), page);
+        }
+
+        Path pdfPath = fileStorageService.resolve(file.getPdfUrl());
+        List<Integer> scannedPages = new ArrayList<>();
+        int pageCount;
+        try (PDDocument document = Loader.loadPDF(pdfPath.toFile(), pdfConversionService.streamCache())) {
+            pageCount = document.getNumberOfPages();
+            PDFTextStripper stripper = new PDFTextStripper();
+            for (int page = 1; page <= pageCount; page++) {
+                MedicalFilePageText done = previous.get(page);
+                if (done != null && done.getStatus() == FileProcessingStatus.COMPLETED) {
+                    continue;
+                }
+
+                stripper.setStartPage(page);
+                stripper.setEndPage(page);
+                String text = stripper.getText(document);
+                if (hasTextLayer(text)) {
+                    if (!lease.renew()) {
+                        return;
+                    }
+                    savePage(medicalFileId, page, previous, PageTextSource.TEXT_LAYER, text, null);
+                } else {
+                    scannedPages.add(page);
+                }
+            }
+        }
+
+        int failed = recognizePages(medicalFileId, pdfPath, scannedPages, previous, lease);
+        if (!lease.renew()) {
+            return;
+        }
+
+        if (medicalFileRepository.updateTextStatus(medicalFileId,
+                failed > 0 ? FileProcessingStatus.PROCESSING : FileProcessingStatus.COMPLETED,
+                LocalDateTime.now()) == 0) {
+            // Deleted while extracting, drop what was stored meanwhile
+            pageTextRepository.deleteByMedicalFileId(medicalFileId);
+            return;
+        }
+        if (failed > 0) {
+            throw new RuntimeException("Text extraction failed for " + failed + " of " + pageCount + " pages");
+        }
+    }
+
+    /**
+     * Set the text status shown to the user while the OCR job retries or after it gives up
+     */
+    public void updateTextStatus(Long medicalFileId, FileProcessingStatus status) {
+        medicalFileRepository.updateTextStatus(medicalFileId, status, LocalDateTime.now());
+    }
+
+    /**
+     * Render and OCR the given pages in parallel. PDDocument is not thread-safe, so the pages are
+     * split into one group per pool thread and each group renders from its own copy of the document.
+     * Returns the number of pages that failed.
+     */
+    private int recognizePages(Long medicalFileId, Path pdfPath, List<Integer> pages,
+                               Map<Integer, MedicalFilePageText> previous, OcrJobLease lease) {
+        if (pages.isEmpty()) {
+            return 0;
+        }
+
+        int groups = Math.min(pages.size(), Math.max(1, pdfOcrExecutor.getMaxPoolSize()));
+        List<List<Integer>> pagesByGroup = new ArrayList<>(groups);
+        for (int i = 0; i < groups; i++) {
+            pagesByGroup.add(new ArrayList<>());
+        }
+        // Interleaved, so every group gets a similar mix of early and late pages
+        for (int i = 0; i < pages.size(); i++) {
+            pagesByGroup.get(i % groups).add(pages.get(i));
+        }
+
+        AtomicInteger failed = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(groups);
+        for (List<Integer> group : pagesByGroup) {
+            futures.add(CompletableFuture.runAsync(
+                    () -> recognizeGroup(medicalFileId, pdfPath, group, previous, lease, failed), pdfOcrExecutor));
+        }
+        futures.forEach(CompletableFuture::join);
+        return failed.get();
+    }
+
+    private void recognizeGroup(Long medicalFileId, Path pdfPath, List<Integer> pages,
+                                Map<Integer, MedicalFilePageText> previous, OcrJobLease lease,
+                                AtomicInteger failed) {
+        try (PDDocument document = Loader.loadPDF(pdfPath.toFile(), pdfConversionService.streamCache())) {
+            PDFRenderer renderer = new PDFRenderer(document);
+            // Large embedded scans are decoded at reduced resolution when the output is small anyway
+            renderer.setSubsamplingAllowed(true);
+
+            for (int page : pages) {
+                try {
+                    BufferedImage image = renderer.renderImage(page - 1, renderScale(document, page - 1), ImageType.GRAY);
+                    String text = textExtractionService.extractPageText(image);
+                    if (!lease.renew()) {
+                        // Another claim is redoing these pages
+                        return;
+                    }
+                    savePage(medicalFileId, page, previous, PageTextSource.OCR, text, null);
+                } catch (IOException | RuntimeException e) {
+                    failed.incrementAndGet();
+                    log.warn("OCR of page {} of medical file {} failed: {}", page, medicalFileId, e.getMessage());
+                    if (!lease.renew()) {
+                        return;
+                    }
+                    savePage(medicalFileId, page, previous, PageTextSource.OCR, null, errorMessage(e));
+                }
+            }
+        } catch (IOException e) {
+            failed.addAndGet(pages.size());
+            log.warn("Medical file {} could not be opened for OCR", medicalFileId, e);
+        }
+    }
+
+    /**
+     * Scale for the target DPI, reduced so the longer edge stays within what the engine needs
+     */
+    private float renderScale(PDDocument document, int pageIndex) {
+        PDRectangle box = document.getPage(pageIndex).getCropBox();
+        float longEdge = Math.max(box.getWidth(), box.getHeight());
+        return Math.min(renderDpi / POINTS_PER_INCH, preprocessor.getMaxDimension() / longEdge);
+    }
+
+    private boolean hasTextLayer(String text) {
+        int meaningful = 0;
+        for (int i = 0; i < text.length() && meaningful < minTextLayerChars; i++) {
+            if (Character.isLetterOrDigit(text.charAt(i))) {
+                meaningful++;
+            }
+        }
+        return meaningful >= minTextLayerChars;
+    }
+
+    private void savePage(Long medicalFileId, int pageNumber, Map<Integer, MedicalFilePageText> previous,
+                          PageTextSource source, String text, String error) {
+        MedicalFilePageText page = new MedicalFilePageText();
+        MedicalFilePageText earlier = previous.get(pageNumber);
+        if (earlier != null) {
+            // Replace the failed attempt's row
+            page.setId(earlier.getId());
+            page.setCreatedAt(earlier.getCreatedAt());
+        }
+        page.setMedicalFileId(medicalFileId);
+        page.setPageNumber(pageNumber);
+        page.setSource(source);
+        page.setStatus(error == null ? FileProcessingStatus.COMPLETED : FileProcessingStatus.FAILED);
+        page.setText(text);
+        page.setError(error);
+        pageTextRepository.save(page);
+    }
+
+    private static String errorMessage(Exception e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+}
@@ -0,0 +1,15 @@
+package com.app.medivault.service;
+
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+
+import java.util.List;
+
+/**
+ * Sends one batchAnnotateImages call. Responses are returned in request order.
+ */
+@FunctionalInterface
+public interface OcrAnnotator {
+
+    List<AnnotateImageResponse> annotate(List<AnnotateImageRequest> requests) throws Exception;
+}
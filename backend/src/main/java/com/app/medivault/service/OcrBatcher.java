@@ -0,0 +1,174 @@
+package com.app.medivault.service;
+
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects OCR requests from concurrent callers and sends them as multi-image batchAnnotateImages
+ * calls. A batch is flushed when it reaches the maximum image count or payload size, or when its
+ * first request has waited for the linger time; each caller's future gets its own response back.
+ * A few batches may be in flight at once, so the next batch collects while the previous one runs.
+ */
+public class OcrBatcher implements AutoCloseable {
+
+    private final OcrAnnotator annotator;
+    private final int maxBatchSize;
+    private final long maxBatchBytes;
+    private final long lingerNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService dispatcher;
+    private final Thread collector;
+    private volatile boolean running = true;
+
+    // Taken from the queue but did not fit in the previous batch; only touched by the collector thread
+    private Pending carried;
+
+    private record Pending(AnnotateImageRequest request, CompletableFuture<AnnotateImageResponse> future) {
+
+        long size() {
+            return request.getImage().getContent().size();
+        }
+    }
+
+    public OcrBatcher(OcrAnnotator annotator, int maxBatchSize, long maxBatchBytes, Duration linger, int maxConcurrentBatches) {
+        this.annotator = annotator;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerNanos = linger.toNanos();
+
+        CustomizableThreadFactory dispatchThreads = new CustomizableThreadFactory("ocr-batch-");
+        dispatchThreads.setDaemon(true);
+        this.dispatcher = Executors.newFixedThreadPool(Math.max(1, maxConcurrentBatches), dispatchThreads);
+
+        this.collector = new Thread(this::collect, "ocr-batcher");
+        this.collector.setDaemon(true);
+        this.collector.start();
+    }
+
+    /**
+     * Queue a request for the next batch
+     */
+    public CompletableFuture<AnnotateImageResponse> submit(AnnotateImageRequest request) {
+        CompletableFuture<AnnotateImageResponse> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("OCR batcher is shut down"));
+            return future;
+        }
+        queue.add(new Pending(request, future));
+        return future;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        collector.interrupt();
+        try {
+            collector.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Batches already sent finish on their own; nothing new is dispatched
+        dispatcher.shutdown();
+
+        IllegalStateException shutDown = new IllegalStateException("OCR batcher is shut down");
+        if (carried != null) {
+            carried.future().completeExceptionally(shutDown);
+        }
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future().completeExceptionally(shutDown);
+        }
+    }
+
+    private void collect() {
+        while (running) {
+            try {
+                List<Pending> batch = nextBatch();
+                try {
+                    dispatcher.execute(() -> send(batch));
+                } catch (RejectedExecutionException e) {
+                    fail(batch, new IllegalStateException("OCR batcher is shut down"));
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Block for the first request, then keep adding until the batch is full or the linger time is up
+     */
+    private List<Pending> nextBatch() throws InterruptedException {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        Pending first = carried != null ? carried : queue.take();
+        carried = null;
+        batch.add(first);
+        long bytes = first.size();
+        long deadline = System.nanoTime() + lingerNanos;
+
+        while (batch.size() < maxBatchSize) {
+            long remaining = deadline - System.nanoTime();
+            Pending next;
+            try {
+                next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            } catch (InterruptedException e) {
+                // Shutting down: hand back what was already taken so its callers are answered
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (next == null) {
+                break;
+            }
+            if (bytes + next.size() > maxBatchBytes) {
+                // Starts the next batch; an oversized image is still sent, just on its own
+                carried = next;
+                break;
+            }
+            batch.add(next);
+            bytes += next.size();
+        }
+        return batch;
+    }
+
+    private void send(List<Pending> batch) {
+        List<AnnotateImageRequest> requests = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            requests.add(pending.request());
+        }
+
+        List<AnnotateImageResponse> responses;
+        try {
+            responses = annotator.annotate(requests);
+        } catch (Exception e) {
+            fail(batch, e);
+            return;
+        }
+
+        if (responses.size() != batch.size()) {
+            fail(batch, new IllegalStateException(
+                    "OCR batch returned " + responses.size() + " responses for " + batch.size() + " images"));
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).future().complete(responses.get(i));
+        }
+    }
+
+    private static void fail(List<Pending> batch, Throwable cause) {
+        for (Pending pending : batch) {
+            pending.future().completeExceptionally(cause);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.app.medivault.service;
+
+import com.google.protobuf.ByteString;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps slow or failing OCR upstreams from tying up every worker. Each call gets a deadline;
+ * a circuit breaker fails calls fast while the engine keeps failing; an adaptive (AIMD) limit
+ * caps calls in flight, shrinking when latency rises. Optionally a call still running after the
+ * recent latency percentile is hedged with a second attempt, and the first answer wins.
+ */
+@Component
+public class OcrCallGuard implements AutoCloseable {
+
+    private static final int LATENCY_WINDOW = 512;
+    private static final int MIN_SAMPLES_TO_HEDGE = 20;
+
+    private final OcrEngine engine;
+    private final long timeoutNanos;
+    private final CircuitBreaker circuitBreaker;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final LatencyWindow latencies = new LatencyWindow(LATENCY_WINDOW);
+    private final boolean hedgingEnabled;
+    private final double hedgePercentile;
+    private final long minHedgeDelayNanos;
+    private final ScheduledExecutorService hedgeScheduler;
+    private final Counter timeouts;
+    private final Counter rejected;
+    private final Counter hedges;
+
+    @Autowired
+    public OcrCallGuard(OcrEngine engine,
+                        MeterRegistry meterRegistry,
+                        @Value("${medivault.ocr.timeout:30s}") Duration timeout,
+                        @Value("${medivault.ocr.circuit-breaker.window:20}") int breakerWindow,
+                        @Value("${medivault.ocr.circuit-breaker.minimum-calls:10}") int breakerMinimumCalls,
+                        @Value("${medivault.ocr.circuit-breaker.failure-rate:0.5}") double breakerFailureRate,
+                        @Value("${medivault.ocr.circuit-breaker.open-duration:30s}") Duration breakerOpenDuration,
+                        @Value("${medivault.ocr.limit.initial:8}") int initialLimit,
+                        @Value("${medivault.ocr.limit.min:1}") int minLimit,
+                        @Value("${medivault.ocr.limit.max:64}") int maxLimit,
+                        @Value("${medivault.ocr.limit.latency-threshold:5s}") Duration latencyThreshold,
+                        @Value("${medivault.ocr.hedge.enabled:false}") boolean hedgingEnabled,
+                        @Value("${medivault.ocr.hedge.percentile:95}") double hedgePercentile,
+                        @Value("${medivault.ocr.hedge.min-delay:500ms}") Duration minHedgeDelay) {
+        this.engine = engine;
+        this.timeoutNanos = timeout.toNanos();
+        this.circuitBreaker = new CircuitBreaker(breakerWindow, breakerMinimumCalls, breakerFailureRate,
+                breakerOpenDuration.toNanos());
+        this.concurrencyLimit = new AdaptiveConcurrencyLimit(initialLimit, minLimit, maxLimit,
+                latencyThreshold.toNanos(), 0.75);
+        this.hedgingEnabled = hedgingEnabled;
+        this.hedgePercentile = hedgePercentile;
+        this.minHedgeDelayNanos = minHedgeDelay.toNanos();
+
+        CustomizableThreadFactory threads = new CustomizableThreadFactory("ocr-hedge-");
+        threads.setDaemon(true);
+        this.hedgeScheduler = Executors.newSingleThreadScheduledExecutor(threads);
+
+        Gauge.builder("medivault.ocr.limit", concurrencyLimit, AdaptiveConcurrencyLimit::getLimit)
+                .description("Current adaptive limit on OCR calls in flight")
+                .register(meterRegistry);
+        Gauge.builder("medivault.ocr.in-flight", concurrencyLimit, AdaptiveConcurrencyLimit::getInFlight)
+                .register(meterRegistry);
+        Gauge.builder("medivault.ocr.circuit.open", circuitBreaker,
+                        breaker -> breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                .description("1 while the OCR circuit breaker is open or half-open")
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("medivault.ocr.timeouts").register(meterRegistry);
+        this.rejected = Counter.builder("medivault.ocr.rejected")
+                .description("OCR calls failed fast by the circuit breaker or concurrency limit")
+                .register(meterRegistry);
+        this.hedges = Counter.builder("medivault.ocr.hedges").register(meterRegistry);
+    }
+
+    public boolean cacheResults() {
+        return engine.cacheResults();
+    }
+
+    /**
+     * Recognise the text in an image, failing with a RuntimeException if the engine errors,
+     * the deadline passes, or the engine is currently considered unavailable
+     */
+    public String recognize(ByteString image) {
+        long deadline = System.nanoTime() + timeoutNanos;
+
+        if (!circuitBreaker.tryAcquirePermission()) {
+            rejected.increment();
+            throw new RuntimeException("OCR temporarily unavailable (circuit open)");
+        }
+
+        boolean acquired;
+        try {
+            acquired = concurrencyLimit.acquire(deadline);
+        } catch (InterruptedException e) {
+            circuitBreaker.onNotCalled();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("OCR interrupted", e);
+        }
+        if (!acquired) {
+            circuitBreaker.onNotCalled();
+            rejected.increment();
+            throw new RuntimeException("OCR concurrency limit reached");
+        }
+
+        CompletableFuture<String> winner = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        send(image, winner, outstanding);
+        if (hedgingEnabled) {
+            scheduleHedge(image, winner, outstanding);
+        }
+
+        try {
+            String text = winner.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            circuitBreaker.onSuccess();
+            return text;
+        } catch (TimeoutException e) {
+            // The upstream call keeps its concurrency slot until it returns, which the engine's own
+            // deadline (the same timeout) makes happen about now
+            circuitBreaker.onFailure();
+            timeouts.increment();
+            throw new RuntimeException("OCR timed out after " + Duration.ofNanos(timeoutNanos));
+        } catch (ExecutionException e) {
+            circuitBreaker.onFailure();
+            Throwable cause = unwrap(e.getCause());
+            throw cause instanceof RuntimeException runtime ? runtime : new RuntimeException("OCR failed", cause);
+        } catch (InterruptedException e) {
+            circuitBreaker.onNotCalled();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("OCR interrupted", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        hedgeScheduler.shutdownNow();
+    }
+
+    /**
+     * Start one engine call on an already acquired concurrency slot. The first success completes
+     * the winner; it only fails once every attempt made for it has failed.
+     */
+    private void send(ByteString image, CompletableFuture<String> winner, AtomicInteger outstanding) {
+        long start = System.nanoTime();
+        CompletableFuture<String> attempt;
+        try {
+            attempt = engine.recognize(image);
+        } catch (RuntimeException e) {
+            attempt = CompletableFuture.failedFuture(e);
+        }
+
+        attempt.whenComplete((text, error) -> {
+            long latency = System.nanoTime() - start;
+            concurrencyLimit.release(latency, error == null);
+            if (error == null) {
+                latencies.record(latency);
+                winner.complete(text);
+            } else if (outstanding.decrementAndGet() == 0) {
+                winner.completeExceptionally(error);
+            }
+        });
+    }
+
+    /**
+     * Send a second attempt if the first is still running once it is slower than the recent
+     * percentile. Hedges are only sent when a concurrency slot is free, so under load they stop.
+     */
+    private void scheduleHedge(ByteString image, CompletableFuture<String> winner, AtomicInteger outstanding) {
+        long observed = latencies.percentile(hedgePercentile, MIN_SAMPLES_TO_HEDGE);
+        if (observed < 0) {
+            return;
+        }
+        long delay = Math.max(minHedgeDelayNanos, observed);
+
+        hedgeScheduler.schedule(() -> {
+            if (winner.isDone() || !concurrencyLimit.tryAcquire()) {
+                return;
+            }
+            outstanding.incrementAndGet();
+            hedges.increment();
+            send(image, winner, outstanding);
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
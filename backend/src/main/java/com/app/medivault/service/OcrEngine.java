@@ -0,0 +1,20 @@
+package com.app.medivault.service;
+
+import com.google.protobuf.ByteString;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Recognises the text in one image. The engine is chosen with medivault.ocr.engine.
+ */
+public interface OcrEngine {
+
+    CompletableFuture<String> recognize(ByteString image);
+
+    /**
+     * Whether results may be stored in the OCR result cache
+     */
+    default boolean cacheResults() {
+        return true;
+    }
+}
@@ -0,0 +1,174 @@
+package com.app.medivault.service;
+
+import com.app.medivault.util.ExifUtil;
+import com.app.medivault.util.ImageTransformUtil;
+import com.google.protobuf.ByteString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Prepares photos for OCR: upright, grayscale, no larger than the engine needs, cropped to the
+ * sheet of paper, contrast-stretched and re-encoded as a compact JPEG. Multi-MB phone photos
+ * typically leave as a few hundred KB. Images that can't be decoded here are sent unchanged.
+ */
+@Component
+public class OcrImagePreprocessor {
+
+    private static final Logger log = LoggerFactory.getLogger(OcrImagePreprocessor.class);
+
+    // Larger encode buffers are not kept between calls
+    private static final int MAX_REUSED_BUFFER = 4 * 1024 * 1024;
+
+    private final boolean enabled;
+    private final int maxDimension;
+    private final boolean crop;
+    private final float jpegQuality;
+
+    // OCR worker threads are long-lived, so each keeps its encode buffer and JPEG writer
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Per-thread output buffer whose contents can be copied out without an intermediate array
+     */
+    private static final class EncodeBuffer extends ByteArrayOutputStream {
+
+        ByteString toByteString() {
+            return ByteString.copyFrom(buf, 0, count);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+
+    private static final class Scratch {
+        final EncodeBuffer buffer = new EncodeBuffer();
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+    }
+
+    @Autowired
+    public OcrImagePreprocessor(@Value("${medivault.ocr.preprocess.enabled:true}") boolean enabled,
+                                @Value("${medivault.ocr.preprocess.max-dimension:2048}") int maxDimension,
+                                @Value("${medivault.ocr.preprocess.crop:true}") boolean crop,
+                                @Value("${medivault.ocr.preprocess.jpeg-quality:0.85}") float jpegQuality) {
+        this.enabled = enabled;
+        this.maxDimension = maxDimension;
+        this.crop = crop;
+        this.jpegQuality = jpegQuality;
+    }
+
+    /**
+     * Bytes to send for OCR of the image stored at {@code imagePath}, whose contents are {@code original}
+     */
+    public ByteString prepare(Path imagePath, ByteString original) {
+        if (!enabled) {
+            return original;
+        }
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(original.newInput())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                return original;
+            }
+
+            BufferedImage image;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                image = decode(reader);
+            } finally {
+                reader.dispose();
+            }
+            if (image == null) {
+                return original;
+            }
+
+            // Gray first: every later step then touches one byte per pixel
+            image = ImageTransformUtil.toGrayscale(image);
+            image = ImageTransformUtil.applyOrientation(image, ExifUtil.readOrientation(imagePath));
+            image = ImageTransformUtil.scaleToFit(image, maxDimension, maxDimension);
+
+            Rectangle bounds = crop
+                    ? ImageTransformUtil.findDocumentBounds(image)
+                    : new Rectangle(0, 0, image.getWidth(), image.getHeight());
+            ImageTransformUtil.normalizeContrast(image, bounds);
+            if (bounds.width != image.getWidth() || bounds.height != image.getHeight()) {
+                image = image.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height);
+            }
+
+            return encode(image);
+        } catch (IOException | RuntimeException e) {
+            log.debug("OCR preprocessing skipped for {}: {}", imagePath.getFileName(), e.getMessage());
+            return original;
+        }
+    }
+
+    /**
+     * Bytes to send for OCR of a page rendered from a PDF, already gray and sized by the caller
+     */
+    public ByteString preparePage(BufferedImage gray) throws IOException {
+        ImageTransformUtil.normalizeContrast(gray, new Rectangle(0, 0, gray.getWidth(), gray.getHeight()));
+        return encode(gray);
+    }
+
+    /**
+     * Longest edge, in pixels, worth sending to the OCR engine
+     */
+    public int getMaxDimension() {
+        return maxDimension;
+    }
+
+    /**
+     * Decode once, subsampled when the image is at least twice the size the engine needs
+     */
+    private BufferedImage decode(ImageReader reader) throws IOException {
+        int longEdge = Math.max(reader.getWidth(0), reader.getHeight(0));
+        ImageReadParam param = reader.getDefaultReadParam();
+        int step = Math.max(1, longEdge / maxDimension);
+        if (step > 1) {
+            param.setSourceSubsampling(step, step, 0, 0);
+        }
+        return reader.read(0, param);
+    }
+
+    private ByteString encode(BufferedImage image) throws IOException {
+        Scratch local = scratch.get();
+        local.buffer.reset();
+        try {
+            try (ImageOutputStream ios = new MemoryCacheImageOutputStream(local.buffer)) {
+                local.writer.setOutput(ios);
+                ImageWriteParam param = local.writer.getDefaultWriteParam();
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(jpegQuality);
+                local.writer.write(null, new IIOImage(image, null, null), param);
+            } finally {
+                local.writer.reset();
+            }
+            return local.buffer.toByteString();
+        } finally {
+            if (local.buffer.capacity() > MAX_REUSED_BUFFER) {
+                local.writer.dispose();
+                scratch.remove();
+            }
+        }
+    }
+}
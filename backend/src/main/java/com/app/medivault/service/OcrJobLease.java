@@ -0,0 +1,16 @@
+package com.app.medivault.service;
+
+/**
+ * The lease an OCR job runs under. Work that stores results checks it first: once the lease has
+ * been lost (it expired and another claim took the job, or the job was re-queued or cancelled)
+ * a second copy of the job may be running, and this one's results must be dropped.
+ */
+@FunctionalInterface
+public interface OcrJobLease {
+
+    /**
+     * Extend the lease, returning false if it has been lost. Inside a transaction the job's row
+     * stays locked until commit, so the lease can't be lost before the results are written.
+     */
+    boolean renew();
+}
@@ -0,0 +1,257 @@
+package com.app.medivault.service;
+
+import com.app.medivault.entity.AnalysisStatus;
+import com.app.medivault.entity.FileProcessingStatus;
+import com.app.medivault.entity.OcrJob;
+import com.app.medivault.entity.OcrJobStatus;
+import com.app.medivault.entity.OcrJobTarget;
+import com.app.medivault.repository.OcrJobRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drains the ocr_jobs table. Every node polls for due jobs and leases them with
+ * SELECT ... FOR UPDATE SKIP LOCKED, so concurrent nodes never take the same row. Running jobs
+ * renew their lease; a job whose node dies is picked up again once its lease expires. Every
+ * claim has its own owner token, so a claim that lost its lease (even to a later claim on the
+ * same node) can't store results or report back. Failed attempts are retried with exponential
+ * backoff until the attempt limit, then the job is left FAILED as a dead letter.
+ */
+@Service
+public class OcrJobWorker {
+
+    private static final Logger log = LoggerFactory.getLogger(OcrJobWorker.class);
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final OcrJobRepository ocrJobRepository;
+    private final PrescriptionService prescriptionService;
+    private final MedicalFileTextService medicalFileTextService;
+    private final ThreadPoolTaskExecutor ocrExecutor;
+    private final TransactionTemplate transactionTemplate;
+    private final String nodeId;
+    private final int maxAttempts;
+    private final Duration lease;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Owner token of every job running on this node, by job id
+    private final Map<Long, String> running = new ConcurrentHashMap<>();
+    private final Counter completedJobs;
+    private final Counter retriedJobs;
+    private final Counter deadJobs;
+
+    /**
+     * The parts of a leased job a worker thread needs, detached from the claiming transaction
+     */
+    private record ClaimedJob(Long id, String owner, OcrJobTarget targetType, Long targetId, int attempt) {
+    }
+
+    @Autowired
+    public OcrJobWorker(OcrJobRepository ocrJobRepository,
+                        PrescriptionService prescriptionService,
+                        MedicalFileTextService medicalFileTextService,
+                        @Qualifier("ocrExecutor") ThreadPoolTaskExecutor ocrExecutor,
+                        PlatformTransactionManager transactionManager,
+                        MeterRegistry meterRegistry,
+                        @Value("${medivault.ocr.jobs.node-id:}") String nodeId,
+                        @Value("${medivault.ocr.jobs.max-attempts:5}") int maxAttempts,
+                        @Value("${medivault.ocr.jobs.lease:5m}") Duration lease,
+                        @Value("${medivault.ocr.jobs.initial-backoff:10s}") Duration initialBackoff,
+                        @Value("${medivault.ocr.jobs.max-backoff:30m}") Duration maxBackoff) {
+        this.ocrJobRepository = ocrJobRepository;
+        this.prescriptionService = prescriptionService;
+        this.medicalFileTextService = medicalFileTextService;
+        this.ocrExecutor = ocrExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.nodeId = nodeId.isBlank() ? defaultNodeId() : nodeId;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.lease = lease;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.completedJobs = Counter.builder("medivault.ocr.jobs.completed").register(meterRegistry);
+        this.retriedJobs = Counter.builder("medivault.ocr.jobs.retried")
+                .description("Failed OCR attempts scheduled for a retry")
+                .register(meterRegistry);
+        this.deadJobs = Counter.builder("medivault.ocr.jobs.dead")
+                .description("OCR jobs left FAILED after the last attempt")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Lease as many due jobs as this node has idle OCR threads and start them
+     */
+    @Scheduled(fixedDelayString = "${medivault.ocr.jobs.poll-interval-ms:1000}")
+    public void poll() {
+        int idle = ocrExecutor.getMaxPoolSize() - inFlight.get();
+        if (idle <= 0) {
+            return;
+        }
+
+        List<ClaimedJob> claimed = transactionTemplate.execute(status -> claim(idle));
+        for (ClaimedJob job : claimed) {
+            inFlight.incrementAndGet();
+            try {
+                ocrExecutor.execute(() -> {
+                    try {
+                        run(job);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                });
+            } catch (TaskRejectedException e) {
+                // Shutting down: the lease runs out and another node (or this one after restart) retries it
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private List<ClaimedJob> claim(int limit) {
+        LocalDateTime now = LocalDateTime.now();
+        List<OcrJob> due = ocrJobRepository.findClaimable(OcrJobStatus.QUEUED, OcrJobStatus.PROCESSING, now,
+                PageRequest.of(0, limit));
+
+        List<ClaimedJob> claimed = new ArrayList<>(due.size());
+        for (OcrJob job : due) {
+            if (job.getStatus() == OcrJobStatus.PROCESSING && job.getAttempts() >= maxAttempts) {
+                // The last attempt never reported back (e.g. it crashed its node), don't run it again
+                job.setStatus(OcrJobStatus.FAILED);
+                job.setLeaseOwner(null);
+                job.setLeaseExpiresAt(null);
+                job.setLastError("Lease expired during the final attempt");
+                markTarget(job.getTargetType(), job.getTargetId(), false);
+                deadJobs.increment();
+                continue;
+            }
+
+            String owner = nodeId + ":" + UUID.randomUUID();
+            job.setStatus(OcrJobStatus.PROCESSING);
+            job.setAttempts(job.getAttempts() + 1);
+            job.setLeaseOwner(owner);
+            job.setLeaseExpiresAt(now.plus(lease));
+            claimed.add(new ClaimedJob(job.getId(), owner, job.getTargetType(), job.getTargetId(), job.getAttempts()));
+        }
+        ocrJobRepository.saveAll(due);
+        return claimed;
+    }
+
+    /**
+     * Extend the lease of every job still running here, so long jobs (e.g. large scanned PDFs)
+     * aren't claimed a second time while they run
+     */
+    @Scheduled(fixedDelayString = "${medivault.ocr.jobs.renew-interval-ms:60000}")
+    public void renewLeases() {
+        running.forEach((id, owner) -> {
+            if (!renew(id, owner)) {
+                log.info("OCR job {} lost its lease, its results will be dropped", id);
+            }
+        });
+    }
+
+    private boolean renew(Long id, String owner) {
+        return ocrJobRepository.renewLease(id, owner, OcrJobStatus.PROCESSING, LocalDateTime.now().plus(lease)) > 0;
+    }
+
+    private void run(ClaimedJob job) {
+        OcrJobLease jobLease = () -> renew(job.id(), job.owner());
+        running.put(job.id(), job.owner());
+        try {
+            if (job.targetType() == OcrJobTarget.MEDICAL_FILE) {
+                medicalFileTextService.extractText(job.targetId(), jobLease);
+            } else {
+                prescriptionService.processOcr(job.targetId(), jobLease);
+            }
+            running.remove(job.id());
+            if (ocrJobRepository.release(job.id(), job.owner(), OcrJobStatus.PROCESSING, OcrJobStatus.COMPLETED, null,
+                    LocalDateTime.now()) > 0) {
+                completedJobs.increment();
+            } else {
+                log.info("OCR for {} {} lost its lease before finishing, another attempt owns it now",
+                        job.targetType(), job.targetId());
+            }
+        } catch (Exception e) {
+            running.remove(job.id());
+            String error = truncate(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+
+            if (job.attempt() >= maxAttempts) {
+                log.warn("OCR for {} {} failed after {} attempts: {}", job.targetType(), job.targetId(),
+                        job.attempt(), error);
+                if (ocrJobRepository.release(job.id(), job.owner(), OcrJobStatus.PROCESSING, OcrJobStatus.FAILED, error,
+                        LocalDateTime.now()) > 0) {
+                    markTarget(job.targetType(), job.targetId(), false);
+                    deadJobs.increment();
+                }
+                return;
+            }
+
+            log.info("OCR for {} {} failed (attempt {} of {}), retrying: {}", job.targetType(), job.targetId(),
+                    job.attempt(), maxAttempts, error);
+            LocalDateTime now = LocalDateTime.now();
+            if (ocrJobRepository.reschedule(job.id(), job.owner(), OcrJobStatus.PROCESSING, OcrJobStatus.QUEUED, error,
+                    now.plus(backoff(job.attempt())), now) > 0) {
+                markTarget(job.targetType(), job.targetId(), true);
+                retriedJobs.increment();
+            }
+        }
+    }
+
+    /**
+     * Show a retry as waiting again, or a dead letter as failed, on the prescription or file itself
+     */
+    private void markTarget(OcrJobTarget targetType, Long targetId, boolean retrying) {
+        if (targetType == OcrJobTarget.MEDICAL_FILE) {
+            medicalFileTextService.updateTextStatus(targetId,
+                    retrying ? FileProcessingStatus.PENDING : FileProcessingStatus.FAILED);
+        } else {
+            prescriptionService.updateAnalysisStatus(targetId, retrying ? AnalysisStatus.QUEUED : AnalysisStatus.FAILED);
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter: half the delay is fixed, the other half random,
+     * so jobs that failed together (e.g. during an upstream outage) don't all retry at once
+     */
+    private Duration backoff(int attempt) {
+        long base = initialBackoff.toMillis() << Math.min(attempt - 1, 20);
+        long delay = Math.min(base, maxBackoff.toMillis());
+        return Duration.ofMillis(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+    }
+
+    private static String truncate(String message) {
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "node";
+        }
+        // Suffix keeps two processes on one host (or a restarted one) from sharing leases
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,107 @@
+package com.app.medivault.service;
+
+import com.app.medivault.entity.OcrResult;
+import com.app.medivault.repository.OcrResultRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+
+/**
+ * Recognised text by SHA-256 of the image bytes, so re-uploads and retries of the same scan
+ * skip the (billed) OCR call. Recent results are kept in a size-bounded in-memory LRU;
+ * when persistence is enabled they are also stored in the ocr_results table and survive restarts.
+ */
+@Component
+public class OcrResultCache {
+
+    private final OcrResultRepository ocrResultRepository;
+    private final boolean persistent;
+    private final Duration retention;
+    private final long capacityBytes;
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long sizeBytes;
+
+    @Autowired
+    public OcrResultCache(OcrResultRepository ocrResultRepository,
+                          @Value("${medivault.ocr.cache.memory-size:8MB}") DataSize memorySize,
+                          @Value("${medivault.ocr.cache.persistent:true}") boolean persistent,
+                          @Value("${medivault.ocr.cache.retention:90d}") Duration retention) {
+        this.ocrResultRepository = ocrResultRepository;
+        this.capacityBytes = memorySize.toBytes();
+        this.persistent = persistent;
+        this.retention = retention;
+    }
+
+    public Optional<String> get(String contentHash) {
+        synchronized (this) {
+            String text = entries.get(contentHash);
+            if (text != null) {
+                return Optional.of(text);
+            }
+        }
+
+        if (!persistent) {
+            return Optional.empty();
+        }
+        try {
+            Optional<String> stored = ocrResultRepository.findById(contentHash).map(OcrResult::getText);
+            stored.ifPresent(text -> remember(contentHash, text));
+            return stored;
+        } catch (DataAccessException e) {
+            // Cache unavailable: fall through to a fresh OCR call
+            return Optional.empty();
+        }
+    }
+
+    public void put(String contentHash, String text) {
+        remember(contentHash, text);
+
+        if (persistent) {
+            try {
+                ocrResultRepository.save(new OcrResult(contentHash, text, null));
+            } catch (DataAccessException e) {
+                // Another request stored the same result first, or the table is unavailable
+            }
+        }
+    }
+
+    /**
+     * Drop persisted results older than the retention period
+     */
+    @Scheduled(fixedDelayString = "${medivault.ocr.cache.cleanup-interval-ms:86400000}")
+    public void purgeExpired() {
+        if (persistent) {
+            ocrResultRepository.deleteCreatedBefore(LocalDateTime.now().minus(retention));
+        }
+    }
+
+    private synchronized void remember(String contentHash, String text) {
+        long size = sizeOf(text);
+        // A single huge document would flush everything else, leave it to the table
+        if (size > capacityBytes / 8) {
+            return;
+        }
+
+        String previous = entries.put(contentHash, text);
+        sizeBytes += size - (previous != null ? sizeOf(previous) : 0);
+
+        Iterator<String> eldest = entries.values().iterator();
+        while (sizeBytes > capacityBytes && eldest.hasNext()) {
+            sizeBytes -= sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long sizeOf(String text) {
+        return 2L * text.length();
+    }
+}
@@ -0,0 +1,114 @@
+package com.app.medivault.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the per-input steps of one conversion in parallel on the shared CPU pool.
+ * Each call may only occupy a limited number of pool threads, so one large batch
+ * cannot starve the conversions of other uploads.
+ */
+@Component
+public class ParallelConversionRunner {
+
+    private final ForkJoinPool cpuPool;
+    private final int maxParallelPerRequest;
+
+    /**
+     * One independent step, typically converting input i into output file i
+     */
+    @FunctionalInterface
+    public interface ConversionTask {
+        void run() throws IOException;
+    }
+
+    @Autowired
+    public ParallelConversionRunner(@Qualifier("conversionCpuPool") ForkJoinPool cpuPool,
+                                    @Value("${medivault.conversion.max-parallel-per-request:4}") int maxParallelPerRequest) {
+        this.cpuPool = cpuPool;
+        this.maxParallelPerRequest = Math.max(1, maxParallelPerRequest);
+    }
+
+    /**
+     * Run all tasks and wait for them. Results are written by the tasks themselves (usually to
+     * per-index output files), so callers keep the original order. After the first failure no
+     * further tasks are started, in-flight ones are awaited, and the failure is rethrown.
+     */
+    public void runAll(List<ConversionTask> tasks) throws IOException {
+        // Already on a pool thread: run inline instead of waiting on our own pool
+        if (tasks.size() <= 1 || ForkJoinTask.getPool() == cpuPool) {
+            for (ConversionTask task : tasks) {
+                task.run();
+            }
+            return;
+        }
+
+        Semaphore permits = new Semaphore(maxParallelPerRequest);
+        AtomicBoolean failed = new AtomicBoolean();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(tasks.size());
+
+        try {
+            for (ConversionTask task : tasks) {
+                permits.acquire();
+                if (failed.get()) {
+                    permits.release();
+                    break;
+                }
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        task.run();
+                    } catch (IOException e) {
+                        failed.set(true);
+                        throw new UncheckedIOException(e);
+                    } catch (RuntimeException | Error e) {
+                        failed.set(true);
+                        throw e;
+                    } finally {
+                        permits.release();
+                    }
+                }, cpuPool));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        }
+
+        Throwable failure = null;
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+
+        if (failure instanceof UncheckedIOException unchecked) {
+            throw unchecked.getCause();
+        }
+        if (failure instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (failure instanceof Error error) {
+            throw error;
+        }
+        if (failed.get()) {
+            throw new InterruptedIOException("Conversion interrupted");
+        }
+    }
+}
@@ -1,128 +1,179 @@
 package com.app.medivault.service;
 
+import com.app.medivault.config.ImageIngestionProfile;
+import com.app.medivault.util.CharsetDetectionUtil;
+import com.app.medivault.util.ExifUtil;
+import com.app.medivault.util.ImageTransformUtil;
+import com.app.medivault.util.UploadStagingUtil;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessStreamCache.StreamCacheCreateFunction;
+import org.apache.pdfbox.multipdf.PDFMergerUtility;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.image.BufferedImage;
-import java.io.*;
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 @Service
 public class PdfConversionService {
 
+    // JPEGs up to this factor above the DPI cap are kept as is rather than re-encoded
+    private static final float PASSTHROUGH_SLACK = 1.25f;
+
+    private final ParallelConversionRunner parallelConversionRunner;
+    private final ImageIngestionProfile imageProfile;
+    private final long maxHeapPerDocument;
+    private final Path scratchDir;
+
+    @Autowired
+    public PdfConversionService(ParallelConversionRunner parallelConversionRunner,
+                                ImageIngestionProfile imageProfile,
+                                @Value("${medivault.conversion.max-heap-per-document:16MB}") DataSize maxHeapPerDocument,
+                                @Value("${medivault.conversion.scratch-dir:uploads/scratch}") String scratchDir) {
+        this.parallelConversionRunner = parallelConversionRunner;
+        this.imageProfile = imageProfile;
+        this.maxHeapPerDocument = maxHeapPerDocument.toBytes();
+        this.scratchDir = Path.of(scratchDir).toAbsolutePath();
+
+        // Create scratch directory if it doesn't exist
+        try {
+            Files.createDirectories(this.scratchDir);
+        } catch (IOException e) {
+            // Directory creation failed
+        }
+    }
+
     /**
      * Convert text file to PDF
+     * The text is decoded in its detected charset and streamed onto as many pages as it needs
      */
-    public byte[] convertTextToPdf(byte[] textBytes) throws IOException {
-        String text = new String(textBytes);
-        
-        try (PDDocument document = new PDDocument()) {
-            PDPage page = new PDPage(PDRectangle.A4);
-            document.addPage(page);
-
-            try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
-                contentStream.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12);
-                contentStream.beginText();
-                contentStream.newLineAtOffset(50, 750);
-                
-                // Split text into lines and add to PDF
-                String[] lines = text.split("\n");
-                float leading = 14.5f;
-                
-                for (String line : lines) {
-                    // Handle line wrapping for long lines
-                    if (line.length() > 80) {
-                        List<String> wrappedLines = wrapText(line, 80);
-                        for (String wrappedLine : wrappedLines) {
-                            contentStream.showText(wrappedLine);
-                            contentStream.newLineAtOffset(0, -leading);
-                        }
-                    } else {
-                        contentStream.showText(line);
-                        contentStream.newLineAtOffset(0, -leading);
-                    }
-                }
-                
-                contentStream.endText();
-            }
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            document.save(baos);
-            return baos.toByteArray();
+    public void convertTextToPdf(Path source, Path target) throws IOException {
+        try (PDDocument document = new PDDocument(streamCache());
+             Reader reader = CharsetDetectionUtil.openReader(source)) {
+            new TextPdfRenderer(document, new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12, 14.5f)
+                    .render(reader);
+            document.save(target.toFile());
         }
     }
 
     /**
      * Convert single image to PDF
      */
-    public byte[] convertImageToPdf(byte[] imageBytes) throws IOException {
-        try (PDDocument document = new PDDocument()) {
-            BufferedImage bufferedImage = ImageIO.read(new ByteArrayInputStream(imageBytes));
-            
-            PDPage page = new PDPage(new PDRectangle(bufferedImage.getWidth(), bufferedImage.getHeight()));
-            document.addPage(page);
-
-            PDImageXObject pdImage = PDImageXObject.createFromByteArray(document, imageBytes, null);
-
-            try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
-                contentStream.drawImage(pdImage, 0, 0);
-            }
-
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            document.save(baos);
-            return baos.toByteArray();
+    public void convertImageToPdf(Path source, Path target) throws IOException {
+        try (PDDocument document = new PDDocument(streamCache())) {
+            addImagePage(document, source);
+            document.save(target.toFile());
         }
     }
 
     /**
      * Merge multiple images into a single PDF
+     * Images are decoded and converted in parallel, then merged in their original order
      */
-    public byte[] mergeImagesToPdf(List<byte[]> imageBytesList) throws IOException {
-        try (PDDocument document = new PDDocument()) {
-            for (byte[] imageBytes : imageBytesList) {
-                BufferedImage bufferedImage = ImageIO.read(new ByteArrayInputStream(imageBytes));
-                
-                PDPage page = new PDPage(new PDRectangle(bufferedImage.getWidth(), bufferedImage.getHeight()));
-                document.addPage(page);
-
-                PDImageXObject pdImage = PDImageXObject.createFromByteArray(document, imageBytes, null);
+    public void mergeImagesToPdf(List<Path> imagePaths, Path target) throws IOException {
+        if (imagePaths.size() == 1) {
+            convertImageToPdf(imagePaths.get(0), target);
+            return;
+        }
 
-                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
-                    contentStream.drawImage(pdImage, 0, 0);
-                }
+        List<Path> pagePdfs = new ArrayList<>();
+        try {
+            List<ParallelConversionRunner.ConversionTask> tasks = new ArrayList<>();
+            for (Path imagePath : imagePaths) {
+                Path pagePdf = Files.createTempFile(target.toAbsolutePath().getParent(), "page-", ".pdf");
+                pagePdfs.add(pagePdf);
+                tasks.add(() -> convertImageToPdf(imagePath, pagePdf));
             }
+            parallelConversionRunner.runAll(tasks);
 
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            document.save(baos);
-            return baos.toByteArray();
+            mergePdfs(pagePdfs, target);
+        } finally {
+            pagePdfs.forEach(UploadStagingUtil::deleteQuietly);
         }
     }
 
     /**
      * Merge multiple PDF files into a single PDF
+     * Sources are read from disk one at a time and their pages cloned into the result,
+     * which is written straight to the target file
      */
-    public byte[] mergePdfs(List<byte[]> pdfBytesList) throws IOException {
-        try (PDDocument mergedDocument = new PDDocument()) {
-            for (byte[] pdfBytes : pdfBytesList) {
-                try (PDDocument document = org.apache.pdfbox.Loader.loadPDF(pdfBytes)) {
-                    for (PDPage page : document.getPages()) {
-                        mergedDocument.addPage(page);
-                    }
-                }
+    public void mergePdfs(List<Path> pdfPaths, Path target) throws IOException {
+        PDFMergerUtility merger = new PDFMergerUtility();
+        merger.setDocumentMergeMode(PDFMergerUtility.DocumentMergeMode.OPTIMIZE_RESOURCES_MODE);
+        for (Path pdfPath : pdfPaths) {
+            merger.addSource(pdfPath.toFile());
+        }
+        merger.setDestinationFileName(target.toString());
+        merger.mergeDocuments(streamCache());
+    }
+
+    /**
+     * Write an incremental update that appends the pages of other PDFs to an existing PDF.
+     * Only the update is written to {@code increment}: the new and changed objects (new pages,
+     * their resources, the page tree), to be added after the base file's unchanged bytes.
+     */
+    public void appendPdfs(Path basePdf, List<Path> pdfPaths, Path increment) throws IOException {
+        // Sources stay open until the increment is written, the cloned pages are read from them lazily
+        List<PDDocument> sources = new ArrayList<>();
+        try (PDDocument document = Loader.loadPDF(basePdf.toFile(), streamCache())) {
+            PDFMergerUtility merger = new PDFMergerUtility();
+            for (Path pdfPath : pdfPaths) {
+                PDDocument source = Loader.loadPDF(pdfPath.toFile(), streamCache());
+                sources.add(source);
+                // Clones into fresh objects, so nothing collides with the base file's object numbers
+                merger.appendDocument(document, source);
+            }
+
+            COSDictionary pages = document.getPages().getCOSObject();
+            pages.setNeedToBeUpdated(true);
+            COSArray kids = pages.getCOSArray(COSName.KIDS);
+            if (kids != null) {
+                kids.setNeedToBeUpdated(true);
             }
+            document.getDocumentCatalog().getCOSObject().setNeedToBeUpdated(true);
 
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            mergedDocument.save(baos);
-            return baos.toByteArray();
+            // PDFBox writes the base file ahead of the update; only the update is kept
+            long baseLength = Files.size(basePdf);
+            try (SkippingOutputStream out = new SkippingOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(increment)), baseLength)) {
+                document.saveIncremental(out);
+                if (out.remaining() > 0) {
+                    throw new IOException("Incremental update is shorter than the PDF it extends");
+                }
+            }
+        } finally {
+            for (PDDocument source : sources) {
+                source.close();
+            }
         }
     }
 
@@ -152,29 +203,157 @@ public class PdfConversionService {
     }
 
     /**
-     * Wrap text for PDF display
+     * Append one image as a page according to the ingestion profile: upright per its EXIF
+     * orientation, fitted to the page, downsampled to the target DPI and re-encoded as JPEG.
+     * Sizing only reads the image header; a JPEG that already fits the profile is embedded
+     * as is, anything else is decoded exactly once (subsampled when far too large).
      */
-    private List<String> wrapText(String text, int maxLength) {
-        List<String> lines = new java.util.ArrayList<>();
-        String[] words = text.split(" ");
-        StringBuilder currentLine = new StringBuilder();
-        
-        for (String word : words) {
-            if (currentLine.length() + word.length() + 1 > maxLength) {
-                lines.add(currentLine.toString());
-                currentLine = new StringBuilder(word);
-            } else {
-                if (currentLine.length() > 0) {
-                    currentLine.append(" ");
+    private void addImagePage(PDDocument document, Path imagePath) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(imagePath.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported or corrupt image");
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+
+                boolean jpeg = "jpeg".equalsIgnoreCase(reader.getFormatName());
+                int orientation = jpeg ? ExifUtil.readOrientation(imagePath) : ExifUtil.ORIENTATION_NORMAL;
+                boolean swapsAxes = orientation >= 5;
+                int width = swapsAxes ? reader.getHeight(0) : reader.getWidth(0);
+                int height = swapsAxes ? reader.getWidth(0) : reader.getHeight(0);
+
+                PDRectangle pageSize = pageSizeFor(width, height);
+                float scale = Math.min(pageSize.getWidth() / width, pageSize.getHeight() / height);
+                float drawWidth = width * scale;
+                float drawHeight = height * scale;
+
+                // More pixels than the target DPI at the drawn size only add bytes, not legibility
+                int maxWidth = Math.max(1, Math.round(drawWidth / 72f * imageProfile.getTargetDpi()));
+                int maxHeight = Math.max(1, Math.round(drawHeight / 72f * imageProfile.getTargetDpi()));
+
+                PDImageXObject pdImage;
+                if (jpeg && canPassThrough(reader, orientation, width, height, maxWidth, maxHeight)) {
+                    // JPEGFactory only parses the header here; the compressed bytes are copied as is
+                    try (InputStream jpegStream = Files.newInputStream(imagePath)) {
+                        pdImage = JPEGFactory.createFromStream(document, jpegStream);
+                    }
+                } else {
+                    BufferedImage image = decode(reader, width, height, maxWidth, maxHeight);
+                    image = ImageTransformUtil.applyOrientation(image, orientation);
+                    if (imageProfile.isGrayscale()) {
+                        image = ImageTransformUtil.toGrayscale(image);
+                    }
+                    image = ImageTransformUtil.scaleToFit(image, maxWidth, maxHeight);
+                    pdImage = JPEGFactory.createFromImage(document, image, imageProfile.getJpegQuality());
+                }
+
+                PDPage page = new PDPage(pageSize);
+                document.addPage(page);
+
+                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                    contentStream.drawImage(pdImage, (pageSize.getWidth() - drawWidth) / 2,
+                            (pageSize.getHeight() - drawHeight) / 2, drawWidth, drawHeight);
                 }
-                currentLine.append(word);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * A JPEG can be embedded without re-encoding if it is upright, within the DPI cap
+     * (with a little slack) and, when grayscale is required, already single-channel
+     */
+    private boolean canPassThrough(ImageReader reader, int orientation, int width, int height,
+                                   int maxWidth, int maxHeight) throws IOException {
+        if (orientation != ExifUtil.ORIENTATION_NORMAL) {
+            return false;
+        }
+        if (width > maxWidth * PASSTHROUGH_SLACK || height > maxHeight * PASSTHROUGH_SLACK) {
+            return false;
+        }
+        if (imageProfile.isGrayscale()) {
+            ImageTypeSpecifier rawType = reader.getRawImageType(0);
+            return rawType != null && rawType.getNumComponents() == 1;
+        }
+        return true;
+    }
+
+    /**
+     * Decode the first image once, skipping whole source pixels when it is at least twice the
+     * size it will be drawn at, so a 12MP photo never has to be held at full resolution.
+     * Width and height are in upright orientation; subsampling is symmetric so the order doesn't matter.
+     */
+    private BufferedImage decode(ImageReader reader, int width, int height, int maxWidth, int maxHeight) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        int step = Math.max(1, Math.min(width / maxWidth, height / maxHeight));
+        if (step > 1) {
+            param.setSourceSubsampling(step, step, 0, 0);
+        }
+        return reader.read(0, param);
+    }
+
+    /**
+     * Page for an upright image: the profile's paper size, turned landscape for landscape images
+     */
+    private PDRectangle pageSizeFor(int width, int height) {
+        PDRectangle paper = switch (imageProfile.getPageSize()) {
+            case A4 -> PDRectangle.A4;
+            case LETTER -> PDRectangle.LETTER;
+            case ORIGINAL -> new PDRectangle(width, height);
+        };
+
+        if (width > height && paper.getWidth() < paper.getHeight()) {
+            return new PDRectangle(paper.getHeight(), paper.getWidth());
+        }
+        return paper;
+    }
+
+    /**
+     * Stream cache for a document: stream data beyond the heap budget spills to a scratch file.
+     * Also used where stored PDFs are opened for reading, so no open document holds more heap.
+     */
+    public StreamCacheCreateFunction streamCache() {
+        return MemoryUsageSetting.setupMixed(maxHeapPerDocument)
+                .setTempDir(scratchDir.toFile())
+                .streamCache;
+    }
+
+    /**
+     * Drops the first bytes written through it
+     */
+    private static final class SkippingOutputStream extends FilterOutputStream {
+
+        private long remaining;
+
+        SkippingOutputStream(OutputStream out, long skip) {
+            super(out);
+            this.remaining = skip;
+        }
+
+        long remaining() {
+            return remaining;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (remaining > 0) {
+                remaining--;
+                return;
             }
+            out.write(b);
         }
-        
-        if (currentLine.length() > 0) {
-            lines.add(currentLine.toString());
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int skipped = (int) Math.min(remaining, len);
+            remaining -= skipped;
+            if (len > skipped) {
+                out.write(b, off + skipped, len - skipped);
+            }
         }
-        
-        return lines;
     }
 }
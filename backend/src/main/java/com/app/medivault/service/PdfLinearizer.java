@@ -0,0 +1,103 @@
+package com.app.medivault.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rewrites PDFs as linearized ("fast web view") files, so a viewer fetching byte ranges can show
+ * page 1 before the rest has arrived. PDFBox cannot write linearized files, so this runs qpdf.
+ * Linearization is an optimisation only: if qpdf is missing or fails, callers keep the plain PDF.
+ */
+@Component
+public class PdfLinearizer {
+
+    private static final Logger log = LoggerFactory.getLogger(PdfLinearizer.class);
+
+    // qpdf exits with 3 when it succeeded with warnings (e.g. a slightly damaged input it repaired)
+    private static final int QPDF_SUCCESS = 0;
+    private static final int QPDF_WARNINGS = 3;
+
+    public enum Mode {
+        /** Never linearize */
+        NONE,
+        /** Linearize PDFs merged from several uploads, usually the largest documents */
+        MERGED,
+        /** Linearize every converted PDF */
+        ALL
+    }
+
+    private final Mode mode;
+    private final String command;
+    private final Duration timeout;
+    private volatile boolean available = true;
+
+    @Autowired
+    public PdfLinearizer(@Value("${medivault.conversion.linearize.mode:MERGED}") Mode mode,
+                         @Value("${medivault.conversion.linearize.command:qpdf}") String command,
+                         @Value("${medivault.conversion.linearize.timeout:60s}") Duration timeout) {
+        this.mode = mode;
+        this.command = command;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Whether output of this kind should be linearized
+     */
+    public boolean appliesTo(boolean merged) {
+        return available && (mode == Mode.ALL || (mode == Mode.MERGED && merged));
+    }
+
+    /**
+     * Write a linearized copy of {@code source} to {@code target}.
+     * Returns false (leaving no usable target) if the PDF could not be linearized.
+     */
+    public boolean linearize(Path source, Path target) {
+        if (!available) {
+            return false;
+        }
+
+        Process process;
+        try {
+            process = new ProcessBuilder(command, "--linearize", source.toAbsolutePath().toString(),
+                    target.toAbsolutePath().toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+        } catch (IOException e) {
+            // Not installed: stop trying for the lifetime of this process
+            available = false;
+            log.warn("PDF linearization disabled, could not run '{}': {}", command, e.getMessage());
+            return false;
+        }
+
+        try {
+            if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+                log.warn("PDF linearization timed out after {}", timeout);
+                return false;
+            }
+
+            int exitCode = process.exitValue();
+            if (exitCode != QPDF_SUCCESS && exitCode != QPDF_WARNINGS) {
+                log.warn("PDF linearization failed with exit code {}", exitCode);
+                return false;
+            }
+            return Files.size(target) > 0;
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package com.app.medivault.service;
+
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+
+/**
+ * Hand-written tokenizer for OCR'd prescription text. One forward pass with bounded lookahead,
+ * reading the text in place: the current token is exposed through the lexer's accessors rather
+ * than as an object, so lexing allocates nothing and only the values a caller asks for (a
+ * duration, a date) are built.
+ */
+final class PrescriptionLexer {
+
+    enum Token {
+        // Letters, optionally followed by letters or digits ("Telma", "B12")
+        WORD,
+        NUMBER,
+        // Strength: "500mg", "2.5 ml", "1000 IU", "250 mg/5 ml"
+        DOSAGE,
+        // "OD", "BD", "TDS", "SOS", "twice daily", "1-0-1", "1 - 1 - 1 - 1"
+        FREQUENCY,
+        // "5 days", "2 weeks", "5d"; a leading "x" or "for" is lexed separately
+        DURATION,
+        // "12/05/2024", "12-5-24", "12 May 2024", "May 12, 2024"
+        DATE,
+        // Any other single non-space character
+        SEPARATOR,
+        NEWLINE,
+        END
+    }
+
+    private static final String[] FREQUENCY_WORDS = {
+            "od", "bd", "bid", "tds", "tid", "qid", "qds", "hs", "qhs", "sos", "stat", "prn", "daily"
+    };
+    private static final String[] FREQUENCY_CODES = {
+            "OD", "BD", "BD", "TDS", "TDS", "QID", "QID", "HS", "HS", "SOS", "STAT", "SOS", "OD"
+    };
+    private static final String[] TIMES_A_DAY = {"once", "twice", "thrice"};
+    private static final String[] TIMES_A_DAY_CODES = {"OD", "BD", "TDS"};
+    private static final String[] DOSAGE_UNITS = {"mg", "mcg", "\u00b5g", "ug", "g", "gm", "gms", "ml", "iu", "unit", "units"};
+    private static final String[] DURATION_UNITS = {"d", "day", "days", "wk", "wks", "week", "weeks", "mo", "month", "months"};
+    private static final String[] DURATION_NAMES = {"day", "day", "day", "week", "week", "week", "week", "month", "month", "month"};
+    private static final String[] MONTHS = {
+            "january", "february", "march", "april", "may", "june",
+            "july", "august", "september", "october", "november", "december"
+    };
+
+    private final CharSequence text;
+    private final int limit;
+    private int pos;
+
+    private int start;
+    private int end;
+    private long number;
+    private String code;
+    // 1-0-1 style frequency, one digit per dose
+    private int doseDigits;
+    private int doseCount;
+    private int day;
+    private int month;
+    private int year;
+
+    PrescriptionLexer(CharSequence text) {
+        this.text = text;
+        this.limit = text.length();
+    }
+
+    Token next() {
+        while (pos < limit) {
+            char c = text.charAt(pos);
+            if (c == '\n') {
+                start = pos;
+                end = ++pos;
+                return Token.NEWLINE;
+            }
+            if (!Character.isWhitespace(c)) {
+                break;
+            }
+            pos++;
+        }
+        start = pos;
+        if (pos >= limit) {
+            end = pos;
+            return Token.END;
+        }
+
+        char c = text.charAt(pos);
+        if (isDigit(c)) {
+            return number();
+        }
+        if (Character.isLetter(c)) {
+            return word();
+        }
+        end = ++pos;
+        return Token.SEPARATOR;
+    }
+
+    int start() {
+        return start;
+    }
+
+    int end() {
+        return end;
+    }
+
+    /**
+     * The character of a SEPARATOR
+     */
+    char separator() {
+        return text.charAt(start);
+    }
+
+    /**
+     * Whether the current WORD is {@code lower}, ignoring case
+     */
+    boolean wordIs(String lower) {
+        return matches(start, end, lower);
+    }
+
+    /**
+     * Whether the current WORD is one of {@code lower}, ignoring case
+     */
+    boolean wordIsAny(String[] lower) {
+        return indexOf(lower, start, end) >= 0;
+    }
+
+    /**
+     * A FREQUENCY as its usual abbreviation, or as the dose pattern ("1-0-1")
+     */
+    String frequency() {
+        if (code != null) {
+            return code;
+        }
+        StringBuilder doses = new StringBuilder(doseCount * 2);
+        for (int i = doseCount - 1; i >= 0; i--) {
+            doses.append((char) ('0' + (doseDigits >> (i * 4) & 0xF)));
+            if (i > 0) {
+                doses.append('-');
+            }
+        }
+        return doses.toString();
+    }
+
+    /**
+     * A DURATION, e.g. "5 days"
+     */
+    String duration() {
+        return number + " " + code + (number == 1 ? "" : "s");
+    }
+
+    LocalDate date() {
+        return LocalDate.of(year, month, day);
+    }
+
+    private Token number() {
+        int digitsStart = pos;
+        long value = digits();
+        int digitCount = pos - digitsStart;
+
+        if (digitCount <= 2 && pos < limit) {
+            char next = text.charAt(pos);
+            if ((next == '/' || next == '.' || next == '-') && numericDate((int) value, next)) {
+                return Token.DATE;
+            }
+            if (digitCount == 1 && doseFrequency((int) value)) {
+                return Token.FREQUENCY;
+            }
+            if (namedMonthDate((int) value)) {
+                return Token.DATE;
+            }
+        }
+
+        // Decimal part
+        if (pos + 1 < limit && text.charAt(pos) == '.' && isDigit(text.charAt(pos + 1))) {
+            pos++;
+            digits();
+        }
+        number = value;
+        end = pos;
+
+        // Unit, possibly after a space
+        int unitStart = skipSpaces(pos);
+        if (unitStart < limit && text.charAt(unitStart) == '%') {
+            end = pos = unitStart + 1;
+            return Token.DOSAGE;
+        }
+        int unitEnd = letters(unitStart);
+        if (unitEnd > unitStart && !isLetterOrDigit(unitEnd)) {
+            if (indexOf(DOSAGE_UNITS, unitStart, unitEnd) >= 0) {
+                end = pos = perVolume(unitEnd);
+                return Token.DOSAGE;
+            }
+            int duration = indexOf(DURATION_UNITS, unitStart, unitEnd);
+            if (duration >= 0) {
+                code = DURATION_NAMES[duration];
+                end = pos = unitEnd;
+                return Token.DURATION;
+            }
+        }
+        return Token.NUMBER;
+    }
+
+    private Token word() {
+        int wordEnd = pos;
+        while (wordEnd < limit && isLetterOrDigit(wordEnd)) {
+            wordEnd++;
+        }
+
+        // "x5 days": the x is a separator
+        if (wordEnd - pos > 1 && (text.charAt(pos) == 'x' || text.charAt(pos) == 'X') && isDigit(text.charAt(pos + 1))) {
+            end = ++pos;
+            return Token.SEPARATOR;
+        }
+
+        int wordStart = pos;
+        pos = end = wordEnd;
+
+        int frequency = indexOf(FREQUENCY_WORDS, wordStart, wordEnd);
+        if (frequency >= 0) {
+            code = FREQUENCY_CODES[frequency];
+            return Token.FREQUENCY;
+        }
+        int times = indexOf(TIMES_A_DAY, wordStart, wordEnd);
+        if (times >= 0) {
+            // "twice daily", "twice a day", "twice day"
+            int after = followingWord(wordEnd, "a");
+            int period = after >= 0 ? after : skipSpaces(wordEnd);
+            int periodEnd = letters(period);
+            if (matches(period, periodEnd, "daily") || matches(period, periodEnd, "day")) {
+                code = TIMES_A_DAY_CODES[times];
+                pos = end = periodEnd;
+                return Token.FREQUENCY;
+            }
+        }
+
+        int monthIndex = month(wordStart, wordEnd);
+        if (monthIndex > 0) {
+            // "May 12, 2024"
+            int dayStart = skipSpaces(wordEnd);
+            int dayEnd = digitsEnd(dayStart);
+            if (dayEnd - dayStart >= 1 && dayEnd - dayStart <= 2) {
+                int yearStart = dayEnd < limit && text.charAt(dayEnd) == ',' ? skipSpaces(dayEnd + 1) : skipSpaces(dayEnd);
+                int yearEnd = digitsEnd(yearStart);
+                if (yearEnd - yearStart == 4 && valid(parse(dayStart, dayEnd), monthIndex, parse(yearStart, yearEnd))) {
+                    pos = end = yearEnd;
+                    return Token.DATE;
+                }
+            }
+        }
+        return Token.WORD;
+    }
+
+    /**
+     * d/m/y (or m/d/y when the day can only be second), with the same separator twice and a 2 or 4 digit year
+     */
+    private boolean numericDate(int first, char separator) {
+        int secondStart = pos + 1;
+        int secondEnd = digitsEnd(secondStart);
+        if (secondEnd - secondStart < 1 || secondEnd - secondStart > 2
+                || secondEnd >= limit || text.charAt(secondEnd) != separator) {
+            return false;
+        }
+        int yearStart = secondEnd + 1;
+        int yearEnd = digitsEnd(yearStart);
+        if (yearEnd - yearStart != 2 && yearEnd - yearStart != 4) {
+            return false;
+        }
+
+        int second = parse(secondStart, secondEnd);
+        int y = parse(yearStart, yearEnd);
+        if (yearEnd - yearStart == 2) {
+            y += 2000;
+        }
+        // Day first unless only the other order is possible
+        if (!valid(first, second, y) && !valid(second, first, y)) {
+            return false;
+        }
+        pos = end = yearEnd;
+        return true;
+    }
+
+    /**
+     * "12 May 2024", "12-May-24"
+     */
+    private boolean namedMonthDate(int first) {
+        int monthStart = pos < limit && text.charAt(pos) == '-' ? pos + 1 : skipSpaces(pos);
+        int monthEnd = letters(monthStart);
+        int monthIndex = month(monthStart, monthEnd);
+        if (monthIndex <= 0) {
+            return false;
+        }
+        int yearStart = monthEnd < limit && (text.charAt(monthEnd) == '-' || text.charAt(monthEnd) == ',')
+                ? skipSpaces(monthEnd + 1) : skipSpaces(monthEnd);
+        int yearEnd = digitsEnd(yearStart);
+        if (yearEnd - yearStart != 2 && yearEnd - yearStart != 4) {
+            return false;
+        }
+        int y = parse(yearStart, yearEnd);
+        if (!valid(first, monthIndex, yearEnd - yearStart == 2 ? y + 2000 : y)) {
+            return false;
+        }
+        pos = end = yearEnd;
+        return true;
+    }
+
+    /**
+     * Three or four single-digit doses separated by dashes: morning-noon-night(-bedtime)
+     */
+    private boolean doseFrequency(int firstDose) {
+        int doses = firstDose;
+        int count = 1;
+        int p = pos;
+        while (count < 4) {
+            int dash = skipSpaces(p);
+            if (dash >= limit || text.charAt(dash) != '-') {
+                break;
+            }
+            int digit = skipSpaces(dash + 1);
+            if (digit >= limit || !isDigit(text.charAt(digit)) || (digit + 1 < limit && isDigit(text.charAt(digit + 1)))) {
+                break;
+            }
+            doses = doses << 4 | (text.charAt(digit) - '0');
+            count++;
+            p = digit + 1;
+        }
+        if (count < 3) {
+            return false;
+        }
+        code = null;
+        doseDigits = doses;
+        doseCount = count;
+        pos = end = p;
+        return true;
+    }
+
+    /**
+     * Extends "250 mg" over "/5 ml" or "/ml"
+     */
+    private int perVolume(int unitEnd) {
+        if (unitEnd >= limit || text.charAt(unitEnd) != '/') {
+            return unitEnd;
+        }
+        int volumeEnd = digitsEnd(unitEnd + 1);
+        int unitStart = skipSpaces(volumeEnd);
+        int volumeUnitEnd = letters(unitStart);
+        if (volumeUnitEnd > unitStart && !isLetterOrDigit(volumeUnitEnd)
+                && indexOf(DOSAGE_UNITS, unitStart, volumeUnitEnd) >= 0) {
+            return volumeUnitEnd;
+        }
+        return unitEnd;
+    }
+
+    /**
+     * Sets the date fields if day/month/year is a real date
+     */
+    private boolean valid(int d, int m, int y) {
+        if (m < 1 || m > 12 || d < 1 || y < 1900 || y > 2100 || d > Month.of(m).length(Year.isLeap(y))) {
+            return false;
+        }
+        day = d;
+        month = m;
+        year = y;
+        return true;
+    }
+
+    /**
+     * 1-12 for a month name or its three-letter (or "sept") abbreviation, else 0
+     */
+    private int month(int from, int to) {
+        int length = to - from;
+        if (length < 3) {
+            return 0;
+        }
+        for (int i = 0; i < MONTHS.length; i++) {
+            String name = MONTHS[i];
+            if (startsWith(from, to, name)
+                    && (length == 3 || length == name.length() || (i == 8 && length == 4))) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Start of the word after {@code from} if the next word is {@code lower}, else -1
+     */
+    private int followingWord(int from, String lower) {
+        int wordStart = skipSpaces(from);
+        int wordEnd = letters(wordStart);
+        return matches(wordStart, wordEnd, lower) ? skipSpaces(wordEnd) : -1;
+    }
+
+    private long digits() {
+        long value = 0;
+        while (pos < limit && isDigit(text.charAt(pos))) {
+            value = value * 10 + (text.charAt(pos++) - '0');
+        }
+        return value;
+    }
+
+    private int digitsEnd(int from) {
+        int i = from;
+        while (i < limit && isDigit(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private int parse(int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private int letters(int from) {
+        int i = from;
+        while (i < limit && Character.isLetter(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Skips spaces and tabs, but not line breaks
+     */
+    private int skipSpaces(int from) {
+        int i = from;
+        while (i < limit && text.charAt(i) != '\n' && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private int indexOf(String[] lower, int from, int to) {
+        for (int i = 0; i < lower.length; i++) {
+            if (matches(from, to, lower[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int from, int to, String lower) {
+        if (to - from != lower.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (Character.toLowerCase(text.charAt(i)) != lower.charAt(i - from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the text from {@code from} to {@code to} is the start of {@code lower}, ignoring case
+     */
+    private boolean startsWith(int from, int to, String lower) {
+        if (to - from > lower.length()) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (Character.toLowerCase(text.charAt(i)) != lower.charAt(i - from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isLetterOrDigit(int index) {
+        return index < limit && Character.isLetterOrDigit(text.charAt(index));
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
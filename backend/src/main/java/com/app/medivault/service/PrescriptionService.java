@@ -1,57 +1,64 @@
 package com.app.medivault.service;
 
+import com.app.medivault.dtos.DrugInteractionResult;
+import com.app.medivault.dtos.FileDownload;
 import com.app.medivault.dtos.MedicineDto;
 import com.app.medivault.dtos.PrescriptionRequest;
 import com.app.medivault.dtos.PrescriptionResponse;
 import com.app.medivault.entity.*;
 import com.app.medivault.repository.MedicineRepository;
+import com.app.medivault.repository.OcrJobRepository;
 import com.app.medivault.repository.PatientRepository;
 import com.app.medivault.repository.PrescriptionRepository;
+import com.app.medivault.util.UploadStagingUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.InputStream;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.stream.Collectors;
 
 @Service
 public class PrescriptionService {
 
-    private final GoogleVisionOcrService ocrService;
+    // Length of the prescriptions.alerts column
+    private static final int MAX_ALERTS_LENGTH = 2000;
+
+    private final TextExtractionService textExtractionService;
     private final PrescriptionTextParser parser;
     private final PrescriptionRepository prescriptionRepository;
     private final PatientRepository patientRepository;
     private final MedicineRepository medicineRepository;
-
-    private static final String UPLOAD_DIR = "uploads/prescriptions/";
+    private final FileStorageService fileStorageService;
+    private final OcrJobRepository ocrJobRepository;
+    private final TransactionTemplate transactionTemplate;
 
     @Autowired
-    public PrescriptionService(GoogleVisionOcrService ocrService,
+    public PrescriptionService(TextExtractionService textExtractionService,
                                PrescriptionTextParser parser,
                                PrescriptionRepository prescriptionRepository,
                                PatientRepository patientRepository,
-                               MedicineRepository medicineRepository) {
-        this.ocrService = ocrService;
+                               MedicineRepository medicineRepository,
+                               FileStorageService fileStorageService,
+                               OcrJobRepository ocrJobRepository,
+                               PlatformTransactionManager transactionManager) {
+        this.textExtractionService = textExtractionService;
         this.parser = parser;
         this.prescriptionRepository = prescriptionRepository;
         this.patientRepository = patientRepository;
         this.medicineRepository = medicineRepository;
-        
-        // Create upload directory if it doesn't exist
-        try {
-            Files.createDirectories(Paths.get(UPLOAD_DIR));
-        } catch (IOException e) {
-            // Directory creation failed
-        }
+        this.fileStorageService = fileStorageService;
+        this.ocrJobRepository = ocrJobRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     @Transactional
@@ -70,67 +77,131 @@ public class PrescriptionService {
             throw new RuntimeException("Unauthorized access to patient");
         }
 
-        // Save file
-        String fileName = UUID.randomUUID().toString() + "_" + file.getOriginalFilename();
-        Path filePath = Paths.get(UPLOAD_DIR + fileName);
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+        // Save file, hashing it as it streams in so re-uploaded scans share one blob
+        String imageUrl;
+        try (InputStream in = file.getInputStream()) {
+            imageUrl = fileStorageService.store(in);
+        }
+
+        return savePrescription(uploadId, patient, imageUrl);
+    }
+
+    /**
+     * Create a prescription from an image already assembled on disk (e.g. by a chunked upload).
+     * The staged file is moved into the file store once the upload is accepted.
+     */
+    @Transactional
+    public PrescriptionResponse uploadPrescription(String uploadId, Long patientId, Path stagedFile, Long userId) throws IOException {
+        // Check for duplicate upload using uploadId (idempotency)
+        Optional<Prescription> existingPrescription = prescriptionRepository.findByUploadId(uploadId);
+        if (existingPrescription.isPresent()) {
+            UploadStagingUtil.deleteQuietly(stagedFile);
+            return mapToResponse(existingPrescription.get());
+        }
+
+        // Verify patient belongs to user
+        Patient patient = patientRepository.findById(patientId)
+                .orElseThrow(() -> new RuntimeException("Patient not found"));
+
+        if (!patient.getUser().getId().equals(userId)) {
+            throw new RuntimeException("Unauthorized access to patient");
+        }
+
+        return savePrescription(uploadId, patient, fileStorageService.storeFile(stagedFile));
+    }
 
+    private PrescriptionResponse savePrescription(String uploadId, Patient patient, String imageUrl) {
         // Create prescription
         Prescription prescription = new Prescription();
         prescription.setUploadId(uploadId);
-        prescription.setImageUrl(filePath.toString());
+        prescription.setImageUrl(imageUrl);
         prescription.setPatient(patient);
-        prescription.setAnalysisStatus(AnalysisStatus.PENDING);
+        prescription.setAnalysisStatus(AnalysisStatus.QUEUED);
 
         prescription = prescriptionRepository.save(prescription);
 
-        // Start OCR processing asynchronously (in real app, use @Async or message queue)
-        try {
-            processOcr(prescription.getId(), file.getBytes());
-        } catch (Exception e) {
-            // OCR failed, but prescription is saved
-            prescription.setAnalysisStatus(AnalysisStatus.FAILED);
-            prescriptionRepository.save(prescription);
-        }
+        // Queue OCR in the same transaction; OcrJobWorker picks it up once this commits
+        OcrJob job = new OcrJob();
+        job.setTargetType(OcrJobTarget.PRESCRIPTION);
+        job.setTargetId(prescription.getId());
+        job.setStatus(OcrJobStatus.QUEUED);
+        job.setAttempts(0);
+        job.setNextAttemptAt(LocalDateTime.now());
+        ocrJobRepository.save(job);
 
         return mapToResponse(prescription);
     }
 
-    @Transactional
-    public void processOcr(Long prescriptionId, byte[] imageBytes) throws IOException {
-        Prescription prescription = prescriptionRepository.findById(prescriptionId)
-                .orElseThrow(() -> new RuntimeException("Prescription not found"));
+    /**
+     * Run OCR for a prescription and store the recognised text and medicines.
+     * Called by OcrJobWorker; the OCR call itself runs outside any transaction so it holds no DB connection.
+     * Failures are thrown to the worker, which decides between a retry and FAILED. Nothing is
+     * stored once the job's lease has been lost.
+     */
+    public void processOcr(Long prescriptionId, OcrJobLease lease) {
+        Optional<Prescription> found = prescriptionRepository.findById(prescriptionId);
+        if (found.isEmpty()) {
+            // Deleted while queued, nothing to do
+            return;
+        }
 
-        prescription.setAnalysisStatus(AnalysisStatus.PROCESSING);
-        prescriptionRepository.save(prescription);
+        prescriptionRepository.updateAnalysisStatus(prescriptionId, AnalysisStatus.PROCESSING, LocalDateTime.now());
 
-        try {
-            // Extract text using OCR
-            String rawText = ocrService.extractText(imageBytes);
+        // Extract text using OCR
+        Path imagePath = fileStorageService.resolve(found.get().getImageUrl());
+        String rawText = textExtractionService.extractText(imagePath);
+        PrescriptionTextParser.ParsedPrescription parsed = parser.parse(rawText);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!lease.renew()) {
+                // Claimed again meanwhile, that attempt stores its own results
+                return;
+            }
+            Prescription prescription = prescriptionRepository.findByIdForUpdate(prescriptionId).orElse(null);
+            if (prescription == null) {
+                return;
+            }
             prescription.setRawOcrText(rawText);
 
-            // Parse medicines from text
-            List<Medicine> medicines = parser.parseMedicines(rawText);
-            
-            // Associate medicines with prescription
-            for (Medicine medicine : medicines) {
-                medicine.setPrescription(prescription);
+            // Medicines the user saved while OCR was queued or retrying are kept as they are
+            if (!Boolean.TRUE.equals(prescription.getMedicinesConfirmed())) {
+                // Parsed medicines replace any from an earlier attempt
+                prescription.getMedicines().clear();
+                for (Medicine medicine : parsed.medicines()) {
+                    medicine.setPrescription(prescription);
+                    prescription.getMedicines().add(medicine);
+                }
+
+                setInteractions(prescription, parsed.interactions());
             }
-            
-            prescription.setMedicines(medicines);
-            prescription.setAnalysisStatus(AnalysisStatus.COMPLETED);
 
+            // Header details only where the user hasn't entered them already
+            if (prescription.getDoctorName() == null) {
+                prescription.setDoctorName(parsed.doctorName());
+            }
+            if (prescription.getHospitalName() == null) {
+                prescription.setHospitalName(parsed.hospitalName());
+            }
+            if (prescription.getPrescriptionDate() == null) {
+                prescription.setPrescriptionDate(parsed.prescriptionDate());
+            }
+
+            prescription.setAnalysisStatus(AnalysisStatus.COMPLETED);
             prescriptionRepository.save(prescription);
-        } catch (Exception e) {
-            prescription.setAnalysisStatus(AnalysisStatus.FAILED);
-            prescriptionRepository.save(prescription);
-            throw e;
-        }
+        });
+    }
+
+    /**
+     * Set the analysis status shown to the user while the OCR job retries or after it gives up
+     */
+    public void updateAnalysisStatus(Long prescriptionId, AnalysisStatus status) {
+        prescriptionRepository.updateAnalysisStatus(prescriptionId, status, LocalDateTime.now());
     }
 
     @Transactional
     public PrescriptionResponse updatePrescription(Long prescriptionId, PrescriptionRequest request, Long userId) {
-        Prescription prescription = prescriptionRepository.findById(prescriptionId)
+        // Locked, so an OCR job finishing meanwhile waits and then sees the user's medicines
+        Prescription prescription = prescriptionRepository.findByIdForUpdate(prescriptionId)
                 .orElseThrow(() -> new RuntimeException("Prescription not found"));
 
         // Verify ownership
@@ -145,6 +216,9 @@ public class PrescriptionService {
 
         // Update medicines
         if (request.getMedicines() != null) {
+            // From now on OCR (a queued or retried job) leaves the medicines alone
+            prescription.setMedicinesConfirmed(true);
+
             // Remove old medicines
             prescription.getMedicines().clear();
 
@@ -155,9 +229,16 @@ public class PrescriptionService {
                 medicine.setDosage(dto.getDosage());
                 medicine.setFrequency(dto.getFrequency());
                 medicine.setDuration(dto.getDuration());
+                // Saved by the user, so reviewed
+                medicine.setNeedsReview(false);
                 medicine.setPrescription(prescription);
                 prescription.getMedicines().add(medicine);
             }
+
+            // The OCR'd medicines' warnings no longer apply; check the ones saved instead
+            setInteractions(prescription, parser.checkInteractions(request.getMedicines().stream()
+                    .map(MedicineDto::getName)
+                    .collect(Collectors.toList())));
         }
 
         prescription = prescriptionRepository.save(prescription);
@@ -165,6 +246,15 @@ public class PrescriptionService {
         return mapToResponse(prescription);
     }
 
+    /**
+     * Store the interactions between a prescription's medicines, one warning per line
+     */
+    private void setInteractions(Prescription prescription, DrugInteractionResult interactions) {
+        prescription.setRiskLevel(RiskLevel.valueOf(interactions.getRiskLevel()));
+        String alerts = String.join("\n", interactions.getWarnings());
+        prescription.setAlerts(alerts.isEmpty() ? null : alerts.substring(0, Math.min(alerts.length(), MAX_ALERTS_LENGTH)));
+    }
+
     public List<PrescriptionResponse> getPrescriptionsByPatient(Long patientId, Long userId) {
         Patient patient = patientRepository.findById(patientId)
                 .orElseThrow(() -> new RuntimeException("Patient not found"));
@@ -192,6 +282,32 @@ public class PrescriptionService {
         return mapToResponse(prescription);
     }
 
+    /**
+     * The prescription created by an upload, if its upload has been accepted yet
+     */
+    public Optional<PrescriptionResponse> findByUploadId(String uploadId, Long userId) {
+        Optional<Prescription> prescription = prescriptionRepository.findByUploadId(uploadId);
+
+        // Verify ownership
+        if (prescription.isPresent() && !prescription.get().getPatient().getUser().getId().equals(userId)) {
+            throw new RuntimeException("Unauthorized access");
+        }
+
+        return prescription.map(this::mapToResponse);
+    }
+
+    public FileDownload getImageDownload(Long prescriptionId, Long userId) {
+        Prescription prescription = prescriptionRepository.findById(prescriptionId)
+                .orElseThrow(() -> new RuntimeException("Prescription not found"));
+
+        // Verify ownership
+        if (!prescription.getPatient().getUser().getId().equals(userId)) {
+            throw new RuntimeException("Unauthorized access");
+        }
+
+        return new FileDownload(prescription.getImageUrl(), null, "prescription-" + prescription.getId());
+    }
+
     @Transactional
     public void deletePrescription(Long prescriptionId, Long userId) {
         Prescription prescription = prescriptionRepository.findById(prescriptionId)
@@ -202,13 +318,10 @@ public class PrescriptionService {
             throw new RuntimeException("Unauthorized access");
         }
 
-        // Delete file
-        try {
-            Files.deleteIfExists(Paths.get(prescription.getImageUrl()));
-        } catch (IOException e) {
-            // File deletion failed
-        }
+        // Drop this prescription's reference to the stored image
+        fileStorageService.release(prescription.getImageUrl());
 
+        ocrJobRepository.deleteByTarget(OcrJobTarget.PRESCRIPTION, prescriptionId);
         prescriptionRepository.delete(prescription);
     }
 
@@ -217,6 +330,7 @@ public class PrescriptionService {
         response.setId(prescription.getId());
         response.setUploadId(prescription.getUploadId());
         response.setImageUrl(prescription.getImageUrl());
+        response.setThumbnailUrl("/api/prescriptions/" + prescription.getId() + "/thumbnail");
         response.setPatientId(prescription.getPatient().getId());
         response.setPatientName(prescription.getPatient().getName());
         response.setDoctorName(prescription.getDoctorName());
@@ -225,7 +339,8 @@ public class PrescriptionService {
         response.setDiagnosis(prescription.getDiagnosis());
         
         List<MedicineDto> medicineDtos = prescription.getMedicines().stream()
-                .map(m -> new MedicineDto(m.getId(), m.getName(), m.getDosage(), m.getFrequency(), m.getDuration()))
+                .map(m -> new MedicineDto(m.getId(), m.getName(), m.getDosage(), m.getFrequency(), m.getDuration(),
+                        m.getRecognizedText(), m.getMatchConfidence(), m.getNeedsReview()))
                 .collect(Collectors.toList());
         response.setMedicines(medicineDtos);
         
@@ -1,36 +1,314 @@
 package com.app.medivault.service;
 
+import com.app.medivault.dtos.DrugInteractionResult;
 import com.app.medivault.entity.Medicine;
+import com.app.medivault.entity.RiskLevel;
+import com.app.medivault.service.PrescriptionLexer.Token;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
 
+/**
+ * Reads medicines and header details from OCR'd prescription text. Drug names come from the
+ * generic and brand names of the drug knowledge base, matched in a single pass over the text
+ * however large the formulary grows. Words that aren't an exact name are looked up
+ * approximately, to catch OCR misreadings; uncertain matches are kept but flagged for the user
+ * to review, and left out of the interaction check until they are confirmed. Dosages,
+ * frequencies, durations and the header are then read in one pass of PrescriptionLexer, and the
+ * medicines found are checked for interactions.
+ */
 @Component
 public class PrescriptionTextParser {
 
-    public List<Medicine> parseMedicines(String text) {
+    // Lines after a drug's own that can still hold its instructions
+    private static final int FOLLOWING_LINES = 1;
+    private static final int MAX_DOCTOR_NAME_WORDS = 4;
+    // Longer "names" are OCR'd paragraphs that merely mention a hospital
+    private static final int MAX_HOSPITAL_NAME_LENGTH = 120;
+    private static final String[] QUALIFICATIONS = {
+            "mbbs", "md", "ms", "dnb", "dm", "mch", "frcs", "frcp", "mrcp", "facs", "bds", "mds", "bams", "bhms",
+            "dgo", "dch", "mrcog", "phd", "consultant", "reg", "regd"
+    };
+    private static final String[] HOSPITAL_WORDS = {
+            "hospital", "hospitals", "clinic", "clinics", "polyclinic", "healthcare", "centre", "center", "infirmary"
+    };
+    private static final String[] DATE_LABELS = {"date", "dated", "dt"};
 
-        List<Medicine> medicines = new ArrayList<>();
+    // Prescription vocabulary that is a letter or two away from some brand name ("Tablet", "Rablet")
+    private static final Set<String> COMMON_WORDS = Set.of(
+            "tablet", "tablets", "capsule", "capsules", "syrup", "injection", "drops", "ointment", "cream",
+            "morning", "evening", "night", "before", "after", "meals", "daily", "twice", "thrice", "times",
+            "weeks", "months", "doctor", "hospital", "clinic", "patient", "review", "advice", "follow"
+    );
 
-        Pattern pattern = Pattern.compile(
-                "(?i)(Paracetamol|Amoxicillin|Ibuprofen)\\s*(\\d+mg)?\\s*(.*)"
-        );
+    private final DrugKnowledgeBaseService knowledgeBase;
+    private final double reviewConfidence;
 
-        for (String line : text.split("\n")) {
-            Matcher m = pattern.matcher(line);
-            if (m.find()) {
-                Medicine med = new Medicine();
-                med.setName(m.group(1));
-                med.setDosage(m.group(2));
-                med.setFrequency("As prescribed");
-                med.setDuration("N/A");
-                medicines.add(med);
+    /**
+     * A drug name (dictionary entry {@code id}) found at {@code [start, end)} of the text
+     */
+    private record Found(int start, int end, int id, DrugDictionary.Entry entry, double confidence) {
+    }
+
+    /**
+     * What was read from a prescription; header fields not found are null
+     */
+    public record ParsedPrescription(List<Medicine> medicines, String doctorName, String hospitalName,
+                                     LocalDate prescriptionDate, DrugInteractionResult interactions) {
+    }
+
+    @Autowired
+    public PrescriptionTextParser(DrugKnowledgeBaseService knowledgeBase,
+                                  @Value("${medivault.drugs.review-confidence:0.85}") double reviewConfidence) {
+        this.knowledgeBase = knowledgeBase;
+        this.reviewConfidence = reviewConfidence;
+    }
+
+    /**
+     * Read the medicines, with their dosage, frequency and duration, and the prescription header
+     * (doctor, hospital, date) from OCR'd text, and check the medicines for interactions
+     */
+    public ParsedPrescription parse(String text) {
+        if (text == null || text.isEmpty()) {
+            return new ParsedPrescription(new ArrayList<>(), null, null, null,
+                    new DrugInteractionResult(RiskLevel.LOW.name(), new ArrayList<>()));
+        }
+
+        // One version of the knowledge base for the whole parse, even if a new one is swapped in
+        DrugKnowledgeBase kb = knowledgeBase.current();
+        List<Found> found = new ArrayList<>();
+        List<DrugDictionary.Match> exact = kb.dictionary().findAll(text);
+        for (DrugDictionary.Match match : exact) {
+            found.add(new Found(match.start(), match.end(), match.id(), match.entry(), 1));
+        }
+        findApproximate(text, kb.fuzzyIndex(), exact, found);
+        found.sort(Comparator.comparingInt(Found::start));
+
+        int drugs = found.size();
+        String[] dosages = new String[drugs];
+        String[] frequencies = new String[drugs];
+        String[] durations = new String[drugs];
+        String doctorName = null;
+        String hospitalName = null;
+        LocalDate prescriptionDate = null;
+        boolean dateLabelled = false;
+
+        // Instructions belong to the last drug named, on its line or the next
+        int current = -1;
+        int nextDrug = 0;
+        int linesSinceDrug = 0;
+        // Hospital names run from the start of their line, or the last comma or bar, to the keyword
+        int segmentStart = 0;
+        boolean afterNursing = false;
+        boolean afterDateLabel = false;
+        boolean readingDoctor = false;
+        int doctorStart = -1;
+        int doctorEnd = -1;
+        int doctorWords = 0;
+
+        PrescriptionLexer lexer = new PrescriptionLexer(text);
+        for (Token token = lexer.next(); token != Token.END; token = lexer.next()) {
+            if (readingDoctor) {
+                if (token == Token.WORD && doctorWords < MAX_DOCTOR_NAME_WORDS && !lexer.wordIsAny(QUALIFICATIONS)) {
+                    if (doctorStart < 0) {
+                        doctorStart = lexer.start();
+                    }
+                    doctorEnd = lexer.end();
+                    doctorWords++;
+                    continue;
+                }
+                if (token == Token.SEPARATOR && lexer.separator() == '.') {
+                    continue;
+                }
+                readingDoctor = false;
+                if (doctorStart >= 0) {
+                    doctorName = "Dr. " + text.substring(doctorStart, doctorEnd);
+                }
             }
+
+            while (nextDrug < drugs && lexer.start() >= found.get(nextDrug).start()) {
+                current = nextDrug++;
+                linesSinceDrug = 0;
+            }
+            if (current >= 0 && lexer.start() < found.get(current).end()) {
+                // Part of the drug name itself
+                continue;
+            }
+
+            switch (token) {
+                case NEWLINE -> {
+                    segmentStart = lexer.end();
+                    afterDateLabel = false;
+                    if (current >= 0 && ++linesSinceDrug > FOLLOWING_LINES) {
+                        current = -1;
+                    }
+                }
+                case SEPARATOR -> {
+                    char separator = lexer.separator();
+                    if (separator == ',' || separator == '|') {
+                        segmentStart = lexer.end();
+                    }
+                }
+                case DOSAGE -> {
+                    if (current >= 0 && dosages[current] == null) {
+                        dosages[current] = text.substring(lexer.start(), lexer.end());
+                    }
+                }
+                case FREQUENCY -> {
+                    if (current >= 0 && frequencies[current] == null) {
+                        frequencies[current] = lexer.frequency();
+                    }
+                }
+                case DURATION -> {
+                    if (current >= 0 && durations[current] == null) {
+                        durations[current] = lexer.duration();
+                    }
+                }
+                case DATE -> {
+                    // The first date, unless a later one is labelled as the date
+                    if (prescriptionDate == null || (afterDateLabel && !dateLabelled)) {
+                        prescriptionDate = lexer.date();
+                        dateLabelled = afterDateLabel;
+                    }
+                }
+                case WORD -> {
+                    if (lexer.wordIs("dr") && doctorName == null && current < 0) {
+                        readingDoctor = true;
+                        doctorStart = -1;
+                        doctorWords = 0;
+                    } else if (lexer.wordIsAny(DATE_LABELS)) {
+                        afterDateLabel = true;
+                    } else if (hospitalName == null && lexer.end() - segmentStart <= MAX_HOSPITAL_NAME_LENGTH
+                            && (lexer.wordIsAny(HOSPITAL_WORDS) || (afterNursing && lexer.wordIs("home")))) {
+                        hospitalName = text.substring(segmentStart, lexer.end()).strip();
+                    }
+                    afterNursing = lexer.wordIs("nursing");
+                }
+                default -> {
+                }
+            }
+        }
+        if (readingDoctor && doctorStart >= 0) {
+            doctorName = "Dr. " + text.substring(doctorStart, doctorEnd);
         }
-        return medicines;
+
+        List<Medicine> medicines = new ArrayList<>(drugs);
+        // Only confident matches are checked: a misread name would raise or hide a warning
+        int[] ids = new int[drugs];
+        int confident = 0;
+        for (int i = 0; i < drugs; i++) {
+            Found drug = found.get(i);
+            if (drug.confidence() >= reviewConfidence) {
+                ids[confident++] = drug.id();
+            }
+            DrugDictionary.Entry entry = drug.entry();
+
+            Medicine med = new Medicine();
+            med.setName(entry.generic() != null ? entry.name() + " (" + entry.generic() + ")" : entry.name());
+            med.setRecognizedText(text.substring(drug.start(), drug.end()));
+            med.setMatchConfidence(drug.confidence());
+            med.setNeedsReview(drug.confidence() < reviewConfidence);
+            med.setDosage(dosages[i]);
+            med.setFrequency(frequencies[i] != null ? frequencies[i] : "As prescribed");
+            med.setDuration(durations[i] != null ? durations[i] : "N/A");
+            medicines.add(med);
+        }
+        return new ParsedPrescription(medicines, doctorName, hospitalName, prescriptionDate,
+                kb.interactions().check(ids, confident));
     }
-}
 
+    /**
+     * Check medicines whose names were entered or confirmed by the user for interactions. Every
+     * dictionary name in a medicine's name counts, so "Ecosprin (Aspirin)" is checked as both.
+     */
+    public DrugInteractionResult checkInteractions(List<String> medicineNames) {
+        DrugKnowledgeBase kb = knowledgeBase.current();
+        int[] ids = new int[medicineNames.size()];
+        int count = 0;
+        for (String name : medicineNames) {
+            if (name == null) {
+                continue;
+            }
+            for (DrugDictionary.Match match : kb.dictionary().findAll(name)) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2 + 1);
+                }
+                ids[count++] = match.id();
+            }
+        }
+        return kb.interactions().check(ids, count);
+    }
+
+    /**
+     * Look up the words outside exact matches in the fuzzy index, as a pair with the next word on
+     * the same line first (for two-word names), then on their own
+     */
+    private static void findApproximate(String text, DrugNameIndex fuzzyIndex, List<DrugDictionary.Match> exact,
+                                        List<Found> found) {
+        int nextExact = 0;
+        int start = nextWord(text, 0, true);
+        while (start < text.length()) {
+            while (nextExact < exact.size() && exact.get(nextExact).end() <= start) {
+                nextExact++;
+            }
+            int covered = nextExact < exact.size() ? exact.get(nextExact).start() : text.length();
+            int end = wordEnd(text, start);
+            if (end > covered) {
+                start = nextWord(text, exact.get(nextExact).end(), true);
+                continue;
+            }
+
+            int pairStart = nextWord(text, end, false);
+            if (pairStart < covered) {
+                int pairEnd = wordEnd(text, pairStart);
+                if (pairEnd <= covered) {
+                    DrugNameIndex.Candidate pair = fuzzyIndex.lookup(text.substring(start, pairEnd));
+                    if (pair != null) {
+                        found.add(new Found(start, pairEnd, pair.id(), pair.entry(), pair.confidence()));
+                        start = nextWord(text, pairEnd, true);
+                        continue;
+                    }
+                }
+            }
+
+            String word = text.substring(start, end);
+            DrugNameIndex.Candidate single = COMMON_WORDS.contains(word.toLowerCase()) ? null : fuzzyIndex.lookup(word);
+            if (single != null) {
+                found.add(new Found(start, end, single.id(), single.entry(), single.confidence()));
+            }
+            start = nextWord(text, end, true);
+        }
+    }
+
+    /**
+     * Start of the next word at or after {@code from}, or the text length; when
+     * {@code crossLines} is false, a line break ends the search
+     */
+    private static int nextWord(String text, int from, boolean crossLines) {
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                return i;
+            }
+            if (c == '\n' && !crossLines) {
+                break;
+            }
+        }
+        return text.length();
+    }
+
+    private static int wordEnd(String text, int start) {
+        int i = start;
+        while (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
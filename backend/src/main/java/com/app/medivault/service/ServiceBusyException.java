@@ -0,0 +1,18 @@
+package com.app.medivault.service;
+
+import lombok.Getter;
+
+/**
+ * Thrown when a bounded worker pool is saturated and the request is shed instead of queued.
+ * Controllers answer it with 503 and a Retry-After header.
+ */
+@Getter
+public class ServiceBusyException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public ServiceBusyException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,108 @@
+package com.app.medivault.service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/**
+ * Strings stored back to back as UTF-16 in one buffer section (count, count + 1 offsets, chars),
+ * read in place. Only {@link #get} builds a String; comparisons read the buffer directly.
+ */
+final class StringTable {
+
+    private final ByteBuffer section;
+    private final int size;
+    private final IntBuffer offsets;
+    private final CharBuffer chars;
+
+    StringTable(ByteBuffer section) {
+        this.section = section;
+        this.size = section.getInt(0);
+        int charsStart = Integer.BYTES * (size + 2);
+        this.offsets = section.slice(Integer.BYTES, Integer.BYTES * (size + 1)).order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer();
+        this.chars = section.slice(charsStart, section.limit() - charsStart).order(ByteOrder.LITTLE_ENDIAN)
+                .asCharBuffer();
+    }
+
+    static StringTable of(List<String> strings) {
+        int length = 0;
+        for (String string : strings) {
+            length += string.length();
+        }
+
+        ByteBuffer section = ByteBuffer.allocate(Integer.BYTES * (strings.size() + 2) + Character.BYTES * length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        section.putInt(strings.size());
+        int offset = 0;
+        section.putInt(offset);
+        for (String string : strings) {
+            offset += string.length();
+            section.putInt(offset);
+        }
+        for (String string : strings) {
+            for (int i = 0; i < string.length(); i++) {
+                section.putChar(string.charAt(i));
+            }
+        }
+        return new StringTable(section.clear());
+    }
+
+    /**
+     * The encoded table, for writing into a knowledge base file
+     */
+    ByteBuffer section() {
+        return section.duplicate();
+    }
+
+    int size() {
+        return size;
+    }
+
+    int length(int index) {
+        return offsets.get(index + 1) - offsets.get(index);
+    }
+
+    char charAt(int index, int position) {
+        return chars.get(offsets.get(index) + position);
+    }
+
+    String get(int index) {
+        return chars.subSequence(offsets.get(index), offsets.get(index + 1)).toString();
+    }
+
+    /**
+     * Position of {@code key} in a table written in sorted order, or -1
+     */
+    int find(CharSequence key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int order = compare(mid, key);
+            if (order < 0) {
+                low = mid + 1;
+            } else if (order > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int index, CharSequence key) {
+        int from = offsets.get(index);
+        int length = offsets.get(index + 1) - from;
+        int common = Math.min(length, key.length());
+        for (int i = 0; i < common; i++) {
+            int order = Character.compare(chars.get(from + i), key.charAt(i));
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(length, key.length());
+    }
+}
@@ -0,0 +1,91 @@
+package com.app.medivault.service;
+
+import com.google.protobuf.ByteString;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Text of a stored image or rendered PDF page: from the OCR result cache when the same image was
+ * recognised before, otherwise from the configured OCR engine (behind the call guard)
+ * after preprocessing.
+ */
+@Service
+public class TextExtractionService {
+
+    private final OcrCallGuard ocrCallGuard;
+    private final OcrResultCache ocrResultCache;
+    private final OcrImagePreprocessor preprocessor;
+
+    @Autowired
+    public TextExtractionService(OcrCallGuard ocrCallGuard, OcrResultCache ocrResultCache,
+                                 OcrImagePreprocessor preprocessor) {
+        this.ocrCallGuard = ocrCallGuard;
+        this.ocrResultCache = ocrResultCache;
+        this.preprocessor = preprocessor;
+    }
+
+    public String extractText(Path imagePath) {
+        ByteString imgBytes;
+        String contentHash;
+        try (InputStream in = Files.newInputStream(imagePath)) {
+            // Read the stored file once; the cache is keyed by the original bytes
+            imgBytes = ByteString.readFrom(in);
+            contentHash = sha256(imgBytes);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException("OCR failed", e);
+        }
+
+        return recognize(contentHash, () -> preprocessor.prepare(imagePath, imgBytes));
+    }
+
+    /**
+     * Text of a page rendered from a scanned PDF (grayscale, at most the preprocessor's max dimension).
+     * Rendering is deterministic, so a retried page hits the cache by the hash of its encoded image.
+     */
+    public String extractPageText(BufferedImage page) {
+        ByteString payload;
+        String contentHash;
+        try {
+            payload = preprocessor.preparePage(page);
+            contentHash = sha256(payload);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new RuntimeException("OCR failed", e);
+        }
+
+        return recognize(contentHash, () -> payload);
+    }
+
+    private String recognize(String contentHash, Supplier<ByteString> payload) {
+        boolean cacheable = ocrCallGuard.cacheResults();
+        if (cacheable) {
+            Optional<String> cached = ocrResultCache.get(contentHash);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+        }
+
+        // Errors are not cached: they are often transient (quota, deadline)
+        String text = ocrCallGuard.recognize(payload.get());
+        if (cacheable) {
+            ocrResultCache.put(contentHash, text);
+        }
+        return text;
+    }
+
+    private static String sha256(ByteString bytes) throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(bytes.asReadOnlyByteBuffer());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
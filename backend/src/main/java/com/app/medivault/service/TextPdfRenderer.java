@@ -0,0 +1,202 @@
+package com.app.medivault.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lays out plain text onto as many pages as it needs, reading the source incrementally.
+ * Lines are wrapped at word boundaries by measured glyph width; each page's content stream
+ * is closed as soon as the page is full, so only the current line is held in memory.
+ */
+class TextPdfRenderer {
+
+    private static final PDRectangle PAGE_SIZE = PDRectangle.A4;
+    private static final float MARGIN = 50;
+    private static final int TAB_WIDTH = 4;
+    private static final char REPLACEMENT = '?';
+
+    private final PDDocument document;
+    private final PDFont font;
+    private final float fontSize;
+    private final float leading;
+    private final float maxLineWidth;
+
+    // Glyph widths in text space, by character; NaN marks characters the font cannot encode
+    private final float[] latinWidths = new float[256];
+    private final Map<Character, Float> otherWidths = new HashMap<>();
+
+    private final StringBuilder line = new StringBuilder();
+    private float lineWidth;
+    private int lastSpace = -1;
+
+    private PDPageContentStream contentStream;
+    private float y;
+
+    TextPdfRenderer(PDDocument document, PDFont font, float fontSize, float leading) {
+        this.document = document;
+        this.font = font;
+        this.fontSize = fontSize;
+        this.leading = leading;
+        this.maxLineWidth = PAGE_SIZE.getWidth() - 2 * MARGIN;
+        Arrays.fill(latinWidths, -1);
+    }
+
+    /**
+     * Render all text from the reader. An empty input still produces one blank page.
+     */
+    void render(Reader reader) throws IOException {
+        char[] buffer = new char[8192];
+        boolean skipLineFeed = false;
+        boolean pending = false;
+
+        try {
+            int count;
+            while ((count = reader.read(buffer)) != -1) {
+                for (int i = 0; i < count; i++) {
+                    char c = buffer[i];
+                    if (skipLineFeed) {
+                        skipLineFeed = false;
+                        if (c == '\n') {
+                            continue;
+                        }
+                    }
+
+                    if (c == '\r' || c == '\n') {
+                        skipLineFeed = c == '\r';
+                        emitLine();
+                        pending = false;
+                    } else if (c == '\t') {
+                        for (int t = 0; t < TAB_WIDTH; t++) {
+                            append(' ');
+                        }
+                        pending = true;
+                    } else if (c >= ' ' && !Character.isLowSurrogate(c)) {
+                        // Characters outside the font, including supplementary ones, come out as '?'
+                        append(c);
+                        pending = true;
+                    }
+                    // Other control characters and the second half of surrogate pairs are dropped
+                }
+            }
+
+            if (pending || contentStream == null) {
+                emitLine();
+            }
+        } finally {
+            if (contentStream != null) {
+                contentStream.endText();
+                contentStream.close();
+                contentStream = null;
+            }
+        }
+    }
+
+    /**
+     * Add a character to the current line, breaking at the last space (or mid-word if the
+     * word alone is wider than the page) once the line would overflow
+     */
+    private void append(char c) throws IOException {
+        float width = glyphWidth(c);
+        if (Float.isNaN(width)) {
+            c = REPLACEMENT;
+            width = glyphWidth(REPLACEMENT);
+        }
+
+        if (lineWidth + width > maxLineWidth && line.length() > 0) {
+            if (c == ' ') {
+                // Break here; the space itself is not carried to the next line
+                emitLine();
+                return;
+            }
+            if (lastSpace >= 0) {
+                String carried = line.substring(lastSpace + 1);
+                line.setLength(lastSpace);
+                emitLine();
+                for (int i = 0; i < carried.length(); i++) {
+                    line.append(carried.charAt(i));
+                    lineWidth += glyphWidth(carried.charAt(i));
+                }
+            } else {
+                emitLine();
+            }
+        }
+
+        line.append(c);
+        lineWidth += width;
+        if (c == ' ') {
+            lastSpace = line.length() - 1;
+        }
+    }
+
+    private void emitLine() throws IOException {
+        if (contentStream == null || y - leading < MARGIN) {
+            newPage();
+        } else {
+            contentStream.newLineAtOffset(0, -leading);
+            y -= leading;
+        }
+
+        if (line.length() > 0) {
+            contentStream.showText(line.toString());
+        }
+
+        line.setLength(0);
+        lineWidth = 0;
+        lastSpace = -1;
+    }
+
+    private void newPage() throws IOException {
+        if (contentStream != null) {
+            contentStream.endText();
+            contentStream.close();
+        }
+
+        PDPage page = new PDPage(PAGE_SIZE);
+        document.addPage(page);
+
+        contentStream = new PDPageContentStream(document, page);
+        contentStream.setFont(font, fontSize);
+        contentStream.beginText();
+        y = PAGE_SIZE.getHeight() - MARGIN;
+        contentStream.newLineAtOffset(MARGIN, y);
+    }
+
+    /**
+     * Width of a character at the current font size, measured once and cached
+     */
+    private float glyphWidth(char c) throws IOException {
+        if (c < latinWidths.length) {
+            float width = latinWidths[c];
+            if (width < 0) {
+                width = measure(c);
+                latinWidths[c] = width;
+            }
+            return width;
+        }
+
+        Float width = otherWidths.get(c);
+        if (width == null) {
+            width = measure(c);
+            otherWidths.put(c, width);
+        }
+        return width;
+    }
+
+    private float measure(char c) throws IOException {
+        try {
+            return font.getStringWidth(String.valueOf(c)) / 1000 * fontSize;
+        } catch (IllegalArgumentException e) {
+            // Not in the font's encoding (e.g. CJK with a standard 14 font)
+            return Float.NaN;
+        }
+    }
+}
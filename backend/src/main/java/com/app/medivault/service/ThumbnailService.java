@@ -0,0 +1,440 @@
+package com.app.medivault.service;
+
+import com.app.medivault.util.ExifUtil;
+import com.app.medivault.util.ImageTransformUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Renders JPEG previews of stored PDF pages and images.
+ * Results are cached in a byte-bounded in-memory LRU in front of a size-capped disk cache,
+ * both keyed by the content hash of the source, so a preview is rendered at most once per size.
+ */
+@Service
+public class ThumbnailService {
+
+    public static final int DEFAULT_WIDTH = 256;
+
+    // Requested widths are rounded up to this step so clients can't fill the cache with near-duplicates
+    private static final int WIDTH_STEP = 32;
+    private static final float JPEG_QUALITY = 0.8f;
+    private static final String EXTENSION = ".jpg";
+    // A temp file this old was left by an interrupted write rather than one still in progress
+    private static final Duration ABANDONED_TEMP_FILE_AGE = Duration.ofHours(1);
+
+    private final FileStorageService fileStorageService;
+    private final PdfConversionService pdfConversionService;
+    private final Path cacheDir;
+    private final long diskCacheBytes;
+    private final int maxWidth;
+    private final MemoryCache memoryCache;
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final Map<String, Object> renderLocks = new ConcurrentHashMap<>();
+    private final Semaphore renderPermits;
+    private final Duration renderWait;
+    private final Counter rejectedRenders;
+
+    /**
+     * A rendered preview and the validator clients can revalidate it with
+     */
+    public record Thumbnail(byte[] data, String etag) {
+    }
+
+    @Autowired
+    public ThumbnailService(FileStorageService fileStorageService,
+                            PdfConversionService pdfConversionService,
+                            @Value("${medivault.thumbnails.dir:uploads/thumbnails}") String cacheDir,
+                            @Value("${medivault.thumbnails.memory-cache-size:32MB}") DataSize memoryCacheSize,
+                            @Value("${medivault.thumbnails.disk-cache-size:1GB}") DataSize diskCacheSize,
+                            @Value("${medivault.thumbnails.max-width:1600}") int maxWidth,
+                            @Value("${medivault.thumbnails.max-concurrent-renders:2}") int maxConcurrentRenders,
+                            @Value("${medivault.thumbnails.render-wait:2s}") Duration renderWait,
+                            MeterRegistry meterRegistry) {
+        this.fileStorageService = fileStorageService;
+        this.pdfConversionService = pdfConversionService;
+        this.cacheDir = Path.of(cacheDir).toAbsolutePath();
+        this.diskCacheBytes = diskCacheSize.toBytes();
+        this.maxWidth = maxWidth;
+        this.memoryCache = new MemoryCache(memoryCacheSize.toBytes());
+        this.renderPermits = new Semaphore(Math.max(1, maxConcurrentRenders));
+        this.renderWait = renderWait;
+        this.rejectedRenders = Counter.builder("medivault.thumbnails.rejected")
+                .description("Preview renders shed because all render slots were busy")
+                .register(meterRegistry);
+
+        // Create cache directory if it doesn't exist and account for what is already in it
+        try {
+            Files.createDirectories(this.cacheDir);
+            evictDisk();
+        } catch (IOException e) {
+            // Directory creation failed
+        }
+    }
+
+    /**
+     * Render page {@code pageNumber} (1-based) of a stored PDF at the given pixel width
+     */
+    public Thumbnail renderPdfPage(String location, int pageNumber, int width) throws IOException {
+        if (pageNumber < 1) {
+            throw new RuntimeException("Page not found");
+        }
+        int targetWidth = normalizeWidth(width);
+        String key = cacheKey(location) + "-p" + pageNumber + "-w" + targetWidth;
+        return thumbnail(key, () -> renderPage(fileStorageService.resolve(location), pageNumber - 1, targetWidth));
+    }
+
+    /**
+     * Render a stored image scaled down to the given pixel width
+     */
+    public Thumbnail renderImage(String location, int width) throws IOException {
+        int targetWidth = normalizeWidth(width);
+        String key = cacheKey(location) + "-i-w" + targetWidth;
+        return thumbnail(key, () -> scaleImage(fileStorageService.resolve(location), targetWidth));
+    }
+
+    /**
+     * Render and cache the first-page preview of a newly stored PDF, so list screens never wait on it
+     */
+    public void prewarm(String location) throws IOException {
+        renderPdfPage(location, 1, DEFAULT_WIDTH);
+    }
+
+    @FunctionalInterface
+    private interface Renderer {
+        BufferedImage render() throws IOException;
+    }
+
+    private Thumbnail thumbnail(String key, Renderer renderer) throws IOException {
+        String etag = "\"" + key + "\"";
+        byte[] data = lookup(key);
+        if (data != null) {
+            return new Thumbnail(data, etag);
+        }
+
+        // Concurrent requests for the same preview render it once
+        Object lock = renderLocks.computeIfAbsent(key, k -> new Object());
+        try {
+            synchronized (lock) {
+                data = lookup(key);
+                if (data == null) {
+                    data = renderBounded(renderer);
+                    writeDisk(key, data);
+                    memoryCache.put(key, data);
+                }
+            }
+        } finally {
+            renderLocks.remove(key, lock);
+        }
+        return new Thumbnail(data, etag);
+    }
+
+    /**
+     * Rendering runs on request threads, so only a few renders may run at once;
+     * beyond that the request is shed rather than competing with the read path for CPU
+     */
+    private byte[] renderBounded(Renderer renderer) throws IOException {
+        boolean acquired;
+        try {
+            acquired = renderPermits.tryAcquire(renderWait.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            rejectedRenders.increment();
+            throw new ServiceBusyException("Server is busy rendering previews, please retry later", 1);
+        }
+
+        try {
+            return encodeJpeg(renderer.render());
+        } finally {
+            renderPermits.release();
+        }
+    }
+
+    private byte[] lookup(String key) {
+        byte[] data = memoryCache.get(key);
+        if (data == null) {
+            data = readDisk(key);
+            if (data != null) {
+                memoryCache.put(key, data);
+            }
+        }
+        return data;
+    }
+
+    private BufferedImage renderPage(Path pdfPath, int pageIndex, int width) throws IOException {
+        try (PDDocument document = Loader.loadPDF(pdfPath.toFile(), pdfConversionService.streamCache())) {
+            if (pageIndex >= document.getNumberOfPages()) {
+                throw new RuntimeException("Page not found");
+            }
+
+            PDPage page = document.getPage(pageIndex);
+            PDRectangle box = page.getCropBox();
+            int rotation = page.getRotation();
+            float pageWidth = rotation == 90 || rotation == 270 ? box.getHeight() : box.getWidth();
+
+            PDFRenderer renderer = new PDFRenderer(document);
+            // Large embedded scans are decoded at reduced resolution when the output is small anyway
+            renderer.setSubsamplingAllowed(true);
+            return renderer.renderImage(pageIndex, width / pageWidth, ImageType.RGB);
+        }
+    }
+
+    private BufferedImage scaleImage(Path imagePath, int width) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(imagePath.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unsupported or corrupt image");
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                // Rotated photos are stored sideways, so the upright width is the stored height
+                int orientation = ExifUtil.readOrientation(imagePath);
+                int uprightWidth = orientation >= 5 ? reader.getHeight(0) : reader.getWidth(0);
+
+                // Decode only every n-th pixel instead of the full photo, then scale the rest smoothly
+                int step = Math.max(1, uprightWidth / width);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage upright = ImageTransformUtil.applyOrientation(reader.read(0, param), orientation);
+                return scaleToWidth(upright, width);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scaleToWidth(BufferedImage image, int width) {
+        int targetWidth = Math.min(width, image.getWidth());
+        int targetHeight = Math.max(1, Math.round((float) image.getHeight() * targetWidth / image.getWidth()));
+
+        BufferedImage scaled = new BufferedImage(targetWidth, targetHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            // JPEG has no alpha, so transparent areas become white rather than black
+            graphics.drawImage(image, 0, 0, targetWidth, targetHeight, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream ios = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(ios);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private int normalizeWidth(int width) {
+        int clamped = Math.max(WIDTH_STEP, Math.min(width, maxWidth));
+        return (clamped + WIDTH_STEP - 1) / WIDTH_STEP * WIDTH_STEP;
+    }
+
+    /**
+     * Blobs are keyed by their content hash; legacy files by their location and modification time
+     */
+    private String cacheKey(String location) throws IOException {
+        String hash = fileStorageService.hashOf(location);
+        if (hash != null) {
+            return hash;
+        }
+
+        Path path = fileStorageService.resolve(location);
+        if (!Files.isRegularFile(path)) {
+            throw new RuntimeException("File not found");
+        }
+        String identity = location + "@" + Files.getLastModifiedTime(path).toMillis();
+        return "legacy-" + DigestUtils.md5DigestAsHex(identity.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Path diskPath(String key) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key + EXTENSION);
+    }
+
+    private byte[] readDisk(String key) {
+        Path path = diskPath(key);
+        try {
+            byte[] data = Files.readAllBytes(path);
+            // The modification time doubles as the last-access time for eviction
+            Files.setLastModifiedTime(path, FileTime.from(Instant.now()));
+            return data;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // Unreadable entry, render it again
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, byte[] data) {
+        Path path = diskPath(key);
+        Path tempFile = null;
+        try {
+            Files.createDirectories(path.getParent());
+            tempFile = Files.createTempFile(path.getParent(), "thumb-", ".tmp");
+            Files.write(tempFile, data);
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tempFile = null;
+        } catch (IOException e) {
+            // Disk cache is best effort, the preview is still served from memory
+            return;
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    // Temp file cleanup failed
+                }
+            }
+        }
+
+        if (diskBytes.addAndGet(data.length) > diskCacheBytes) {
+            evictDisk();
+        }
+    }
+
+    /**
+     * Delete least recently used entries until the disk cache is back under 90% of its cap.
+     * Previews of deleted files are not removed eagerly; nothing references them and they age out here.
+     */
+    private synchronized void evictDisk() {
+        record Entry(Path path, long size, long lastAccess) {
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        long abandonedBefore = System.currentTimeMillis() - ABANDONED_TEMP_FILE_AGE.toMillis();
+        try (Stream<Path> files = Files.walk(cacheDir, 2)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                if (!Files.isRegularFile(path)) {
+                    continue;
+                }
+                try {
+                    long lastModified = Files.getLastModifiedTime(path).toMillis();
+                    if (!path.getFileName().toString().endsWith(EXTENSION)) {
+                        // Other threads write previews through temp files; only delete abandoned ones
+                        if (lastModified < abandonedBefore) {
+                            Files.deleteIfExists(path);
+                        }
+                        continue;
+                    }
+                    entries.add(new Entry(path, Files.size(path), lastModified));
+                } catch (NoSuchFileException e) {
+                    // A temp file moved into place since the listing
+                }
+            }
+        } catch (IOException e) {
+            // Listing failed, retry on the next write
+            return;
+        }
+
+        long total = entries.stream().mapToLong(Entry::size).sum();
+        if (total > diskCacheBytes) {
+            long target = diskCacheBytes / 10 * 9;
+            entries.sort(Comparator.comparingLong(Entry::lastAccess));
+            for (Entry entry : entries) {
+                if (total <= target) {
+                    break;
+                }
+                try {
+                    Files.deleteIfExists(entry.path());
+                    total -= entry.size();
+                } catch (IOException e) {
+                    // In use or already gone, skip it
+                }
+            }
+        }
+        diskBytes.set(total);
+    }
+
+    /**
+     * Access-ordered LRU bounded by the total size of its values
+     */
+    private static final class MemoryCache {
+
+        private final long capacityBytes;
+        private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long sizeBytes;
+
+        private MemoryCache(long capacityBytes) {
+            this.capacityBytes = capacityBytes;
+        }
+
+        synchronized byte[] get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, byte[] data) {
+            // A single huge preview would flush everything else, leave it to the disk cache
+            if (data.length > capacityBytes / 8) {
+                return;
+            }
+
+            byte[] previous = entries.put(key, data);
+            sizeBytes += data.length - (previous != null ? previous.length : 0);
+
+            Iterator<byte[]> eldest = entries.values().iterator();
+            while (sizeBytes > capacityBytes && eldest.hasNext()) {
+                sizeBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.app.medivault.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Guesses the encoding of uploaded text files. Exports from EHR systems arrive as UTF-8,
+ * UTF-16 with a BOM, or legacy Windows code pages, and the server's default charset is
+ * not a useful guess for any of them.
+ */
+public final class CharsetDetectionUtil {
+
+    public static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    private CharsetDetectionUtil() {
+    }
+
+    /**
+     * Detected encoding and the length of the byte order mark to skip before decoding
+     */
+    public record DetectedCharset(Charset charset, int bomLength) {
+    }
+
+    /**
+     * Detect by BOM first, then accept UTF-8 if the leading sample decodes strictly,
+     * otherwise fall back to windows-1252 (a superset of ISO-8859-1 that decodes any byte)
+     */
+    public static DetectedCharset detect(Path path) throws IOException {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int read;
+        try (InputStream in = Files.newInputStream(path)) {
+            read = in.readNBytes(sample, 0, sample.length);
+        }
+
+        if (read >= 3 && (sample[0] & 0xFF) == 0xEF && (sample[1] & 0xFF) == 0xBB && (sample[2] & 0xFF) == 0xBF) {
+            return new DetectedCharset(StandardCharsets.UTF_8, 3);
+        }
+        if (read >= 2 && (sample[0] & 0xFF) == 0xFE && (sample[1] & 0xFF) == 0xFF) {
+            return new DetectedCharset(StandardCharsets.UTF_16BE, 2);
+        }
+        if (read >= 2 && (sample[0] & 0xFF) == 0xFF && (sample[1] & 0xFF) == 0xFE) {
+            return new DetectedCharset(StandardCharsets.UTF_16LE, 2);
+        }
+
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        // If the sample was cut off mid-file, a sequence split at its end is not an error
+        boolean endOfInput = read < sample.length;
+        CoderResult result = decoder.decode(ByteBuffer.wrap(sample, 0, read), CharBuffer.allocate(read), endOfInput);
+        if (!result.isError() && (!endOfInput || !decoder.flush(CharBuffer.allocate(1)).isError())) {
+            return new DetectedCharset(StandardCharsets.UTF_8, 0);
+        }
+        return new DetectedCharset(WINDOWS_1252, 0);
+    }
+
+    /**
+     * Open a reader over a text file in its detected encoding.
+     * Bytes that are invalid later in the file are replaced rather than failing the conversion.
+     */
+    public static Reader openReader(Path path) throws IOException {
+        DetectedCharset detected = detect(path);
+        InputStream in = Files.newInputStream(path);
+        try {
+            in.skipNBytes(detected.bomLength());
+            CharsetDecoder decoder = detected.charset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            return new InputStreamReader(in, decoder);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+}
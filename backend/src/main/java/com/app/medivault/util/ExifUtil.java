@@ -0,0 +1,129 @@
+package com.app.medivault.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Minimal EXIF reader. ImageIO ignores the orientation tag, so phone photos come out
+ * sideways unless it is read and applied separately.
+ */
+public final class ExifUtil {
+
+    public static final int ORIENTATION_NORMAL = 1;
+
+    private static final int MARKER_SOI = 0xFFD8;
+    private static final int MARKER_APP1 = 0xFFE1;
+    private static final int MARKER_SOS = 0xFFDA;
+    private static final int MARKER_EOI = 0xFFD9;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+
+    private ExifUtil() {
+    }
+
+    /**
+     * Read the EXIF orientation (1-8) of a JPEG file.
+     * Anything that is not a JPEG or carries no valid orientation is reported as normal.
+     */
+    public static int readOrientation(Path path) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readUnsignedShort() != MARKER_SOI) {
+                return ORIENTATION_NORMAL;
+            }
+
+            // Walk the header segments; EXIF lives in an APP1 segment before the image data
+            while (true) {
+                int marker = in.readUnsignedShort();
+                if ((marker & 0xFF00) != 0xFF00 || marker == MARKER_SOS || marker == MARKER_EOI) {
+                    return ORIENTATION_NORMAL;
+                }
+
+                int length = in.readUnsignedShort() - 2;
+                if (length < 0) {
+                    return ORIENTATION_NORMAL;
+                }
+
+                if (marker == MARKER_APP1) {
+                    byte[] segment = in.readNBytes(length);
+                    int orientation = parseExifOrientation(segment);
+                    if (orientation != 0) {
+                        return orientation;
+                    }
+                } else {
+                    in.skipNBytes(length);
+                }
+            }
+        } catch (EOFException e) {
+            return ORIENTATION_NORMAL;
+        } catch (IOException e) {
+            // Unreadable header, treat the image as upright
+            return ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Find the orientation tag in IFD0 of an APP1 segment, or 0 if it is not an EXIF segment
+     */
+    private static int parseExifOrientation(byte[] segment) {
+        // "Exif\0\0" followed by a TIFF header
+        if (segment.length < 14 || segment[0] != 'E' || segment[1] != 'x' || segment[2] != 'i'
+                || segment[3] != 'f' || segment[4] != 0 || segment[5] != 0) {
+            return 0;
+        }
+
+        int tiff = 6;
+        boolean littleEndian;
+        if (segment[tiff] == 'I' && segment[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (segment[tiff] == 'M' && segment[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return 0;
+        }
+
+        if (readShort(segment, tiff + 2, littleEndian) != 42) {
+            return 0;
+        }
+
+        long ifdOffset = readInt(segment, tiff + 4, littleEndian);
+        if (ifdOffset < 8 || tiff + ifdOffset + 2 > segment.length) {
+            return 0;
+        }
+
+        int ifd = tiff + (int) ifdOffset;
+        int entries = readShort(segment, ifd, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > segment.length) {
+                return 0;
+            }
+            if (readShort(segment, entry, littleEndian) == TAG_ORIENTATION) {
+                if (readShort(segment, entry + 2, littleEndian) != TYPE_SHORT) {
+                    return 0;
+                }
+                int orientation = readShort(segment, entry + 8, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : 0;
+            }
+        }
+        return 0;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean littleEndian) {
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static long readInt(byte[] data, int offset, boolean littleEndian) {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = data[offset + (littleEndian ? 3 - i : i)] & 0xFF;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+}
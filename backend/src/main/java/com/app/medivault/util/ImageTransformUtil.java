@@ -0,0 +1,268 @@
+package com.app.medivault.util;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+
+/**
+ * Pixel transforms applied to uploaded images before they are embedded or analysed
+ */
+public final class ImageTransformUtil {
+
+    // A row/column counts as paper when at least this fraction of its pixels is light
+    private static final double PAPER_FRACTION = 0.5;
+    // Only crop when the document fills at least this much of the frame (otherwise detection is unreliable)
+    private static final double MIN_DOCUMENT_AREA = 0.25;
+    // Percentiles mapped to black and white by the contrast stretch
+    private static final double CONTRAST_CLIP = 0.01;
+    private static final int MIN_CONTRAST_RANGE = 32;
+
+    private ImageTransformUtil() {
+    }
+
+    /**
+     * Rotate/flip an image so that it displays upright for the given EXIF orientation (1-8)
+     */
+    public static BufferedImage applyOrientation(BufferedImage image, int orientation) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+
+        // Affine maps from source to upright pixel coordinates, per EXIF orientation value
+        AffineTransform transform;
+        switch (orientation) {
+            case 2 -> transform = new AffineTransform(-1, 0, 0, 1, w, 0);
+            case 3 -> transform = new AffineTransform(-1, 0, 0, -1, w, h);
+            case 4 -> transform = new AffineTransform(1, 0, 0, -1, 0, h);
+            case 5 -> transform = new AffineTransform(0, 1, 1, 0, 0, 0);
+            case 6 -> transform = new AffineTransform(0, 1, -1, 0, h, 0);
+            case 7 -> transform = new AffineTransform(0, -1, -1, 0, h, w);
+            case 8 -> transform = new AffineTransform(0, -1, 1, 0, 0, w);
+            default -> {
+                return image;
+            }
+        }
+
+        boolean swapsAxes = orientation >= 5;
+        BufferedImage oriented = new BufferedImage(swapsAxes ? h : w, swapsAxes ? w : h, standardType(image));
+        Graphics2D graphics = oriented.createGraphics();
+        try {
+            graphics.drawImage(image, transform, null);
+        } finally {
+            graphics.dispose();
+        }
+        return oriented;
+    }
+
+    /**
+     * Scale an image down to fit within the given bounds, keeping its aspect ratio.
+     * Large reductions are done in halving steps, which keeps fine print legible
+     * where a single bilinear pass would drop most source pixels.
+     */
+    public static BufferedImage scaleToFit(BufferedImage image, int maxWidth, int maxHeight) {
+        double scale = Math.min((double) maxWidth / image.getWidth(), (double) maxHeight / image.getHeight());
+        if (scale >= 1) {
+            return image;
+        }
+
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            current = resize(current, width, height);
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    /**
+     * Convert to 8-bit grayscale, flattening any transparency onto white
+     */
+    public static BufferedImage toGrayscale(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+
+        BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D graphics = gray.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return gray;
+    }
+
+    /**
+     * Bounds of a sheet of paper photographed against a darker background, found from the rows and
+     * columns that are mostly lighter than the Otsu threshold, with a small margin. Returns the whole
+     * image when no such sheet stands out, e.g. for flatbed scans.
+     */
+    public static Rectangle findDocumentBounds(BufferedImage gray) {
+        int width = gray.getWidth();
+        int height = gray.getHeight();
+        WritableRaster raster = gray.getRaster();
+        int[] row = new int[width];
+        int[] histogram = new int[256];
+        for (int y = 0; y < height; y++) {
+            raster.getSamples(0, y, width, 1, 0, row);
+            for (int x = 0; x < width; x++) {
+                histogram[row[x]]++;
+            }
+        }
+        int threshold = otsuThreshold(histogram, (long) width * height);
+
+        int[] lightInColumn = new int[width];
+        int top = -1;
+        int bottom = -1;
+        for (int y = 0; y < height; y++) {
+            raster.getSamples(0, y, width, 1, 0, row);
+            int lightInRow = 0;
+            for (int x = 0; x < width; x++) {
+                if (row[x] > threshold) {
+                    lightInRow++;
+                    lightInColumn[x]++;
+                }
+            }
+            if (lightInRow >= width * PAPER_FRACTION) {
+                if (top < 0) {
+                    top = y;
+                }
+                bottom = y;
+            }
+        }
+        int left = -1;
+        int right = -1;
+        for (int x = 0; x < width; x++) {
+            if (lightInColumn[x] >= height * PAPER_FRACTION) {
+                if (left < 0) {
+                    left = x;
+                }
+                right = x;
+            }
+        }
+
+        Rectangle full = new Rectangle(0, 0, width, height);
+        if (top < 0 || left < 0) {
+            return full;
+        }
+        int marginX = width / 100;
+        int marginY = height / 100;
+        Rectangle document = new Rectangle(left - marginX, top - marginY,
+                right - left + 1 + 2 * marginX, bottom - top + 1 + 2 * marginY).intersection(full);
+        if ((double) document.width * document.height < MIN_DOCUMENT_AREA * width * height) {
+            return full;
+        }
+        return document;
+    }
+
+    /**
+     * Stretch the gray levels in place so the darkest and lightest 1% of the region's pixels
+     * become black and white. Levels are measured over the region only, so a dark background
+     * outside it doesn't limit the stretch. Nearly uniform images are left alone.
+     */
+    public static void normalizeContrast(BufferedImage gray, Rectangle region) {
+        WritableRaster raster = gray.getRaster();
+        int[] row = new int[gray.getWidth()];
+        int[] histogram = new int[256];
+        for (int y = region.y; y < region.y + region.height; y++) {
+            raster.getSamples(region.x, y, region.width, 1, 0, row);
+            for (int x = 0; x < region.width; x++) {
+                histogram[row[x]]++;
+            }
+        }
+
+        long clip = (long) (CONTRAST_CLIP * region.width * region.height);
+        int low = 0;
+        long darker = histogram[0];
+        while (low < 255 && darker <= clip) {
+            darker += histogram[++low];
+        }
+        int high = 255;
+        long lighter = histogram[255];
+        while (high > 0 && lighter <= clip) {
+            lighter += histogram[--high];
+        }
+        if (high - low < MIN_CONTRAST_RANGE) {
+            return;
+        }
+
+        int[] levels = new int[256];
+        for (int v = 0; v < 256; v++) {
+            levels[v] = Math.max(0, Math.min(255, (v - low) * 255 / (high - low)));
+        }
+        int width = gray.getWidth();
+        for (int y = 0; y < gray.getHeight(); y++) {
+            raster.getSamples(0, y, width, 1, 0, row);
+            for (int x = 0; x < width; x++) {
+                row[x] = levels[row[x]];
+            }
+            raster.setSamples(0, y, width, 1, 0, row);
+        }
+    }
+
+    /**
+     * Gray level that best separates the histogram into two classes (Otsu's method)
+     */
+    private static int otsuThreshold(int[] histogram, long total) {
+        double sum = 0;
+        for (int v = 0; v < 256; v++) {
+            sum += (double) v * histogram[v];
+        }
+
+        double backgroundSum = 0;
+        long backgroundCount = 0;
+        double bestVariance = -1;
+        int threshold = 127;
+        for (int v = 0; v < 256; v++) {
+            backgroundCount += histogram[v];
+            if (backgroundCount == 0) {
+                continue;
+            }
+            long foregroundCount = total - backgroundCount;
+            if (foregroundCount == 0) {
+                break;
+            }
+            backgroundSum += (double) v * histogram[v];
+            double backgroundMean = backgroundSum / backgroundCount;
+            double foregroundMean = (sum - backgroundSum) / foregroundCount;
+            double variance = (double) backgroundCount * foregroundCount
+                    * (backgroundMean - foregroundMean) * (backgroundMean - foregroundMean);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                threshold = v;
+            }
+        }
+        return threshold;
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, standardType(image));
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+
+    /**
+     * Pick a standard raster type that preserves the image's gray/alpha character
+     */
+    private static int standardType(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return BufferedImage.TYPE_BYTE_GRAY;
+        }
+        return image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+    }
+}
@@ -0,0 +1,42 @@
+package com.app.medivault.util;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public final class UploadStagingUtil {
+
+    private UploadStagingUtil() {
+    }
+
+    /**
+     * Stream a multipart upload into a temp file under the given directory.
+     * The servlet container already spools parts to disk, so transferTo moves
+     * (or stream-copies) that file instead of materialising it on the heap.
+     */
+    public static Path stage(MultipartFile file, Path stagingDir) throws IOException {
+        Files.createDirectories(stagingDir);
+        Path staged = Files.createTempFile(stagingDir, "upload-", ".tmp");
+        try {
+            file.transferTo(staged.toAbsolutePath().toFile());
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(staged);
+            throw e;
+        }
+        return staged;
+    }
+
+    /**
+     * Delete a staged or intermediate file, ignoring failures
+     */
+    public static void deleteQuietly(Path path) {
+        if (path == null) return;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // Temp file cleanup failed
+        }
+    }
+}
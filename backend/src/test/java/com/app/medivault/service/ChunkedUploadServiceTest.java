@@ -0,0 +1,225 @@
+package com.app.medivault.service;
+
+import com.app.medivault.dtos.MedicalFileResponse;
+import com.app.medivault.dtos.UploadSessionRequest;
+import com.app.medivault.dtos.UploadSessionResponse;
+import com.app.medivault.entity.Patient;
+import com.app.medivault.entity.UploadSession;
+import com.app.medivault.entity.UploadSessionStatus;
+import com.app.medivault.entity.UploadTarget;
+import com.app.medivault.entity.User;
+import com.app.medivault.repository.PatientRepository;
+import com.app.medivault.repository.UploadSessionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChunkedUploadServiceTest {
+
+	private static final String UPLOAD_ID = "upload-1";
+	private static final long USER_ID = 7L;
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	@TempDir
+	Path directory;
+
+	private final UploadSessionRepository sessions = mock(UploadSessionRepository.class);
+	private final MedicalFileService medicalFileService = mock(MedicalFileService.class);
+	private final PrescriptionService prescriptionService = mock(PrescriptionService.class);
+
+	private ChunkedUploadService uploads;
+	private UploadSession session;
+	private byte[] content;
+
+	@BeforeEach
+	void openSession() throws IOException {
+		uploads = new ChunkedUploadService(sessions, mock(PatientRepository.class), medicalFileService,
+				prescriptionService, mock(PlatformTransactionManager.class), directory.toString(),
+				DataSize.ofBytes(CHUNK_SIZE), DataSize.ofBytes(CHUNK_SIZE), DataSize.ofMegabytes(1), Duration.ofHours(1));
+
+		// Two full chunks and a short last one
+		content = new byte[2 * CHUNK_SIZE + 100];
+		new Random(42).nextBytes(content);
+
+		Path stagingFile = Files.createFile(directory.resolve("session.part"));
+		session = session(UploadSessionStatus.OPEN, stagingFile);
+		when(sessions.findByUploadId(UPLOAD_ID)).thenReturn(Optional.of(session));
+		when(sessions.findByUploadIdForUpdate(UPLOAD_ID)).thenReturn(Optional.of(session));
+		when(sessions.save(any(UploadSession.class))).thenAnswer(invocation -> invocation.getArgument(0));
+	}
+
+	@Test
+	void chunksArriveInAnyOrderAndRepeatsAreIgnored() throws IOException {
+		UploadSessionResponse last = write(2);
+		assertThat(last.getReceivedChunks()).containsExactly(2);
+		assertThat(last.getReceivedBytes()).isEqualTo(100);
+		assertThat(last.getCommittedOffset()).isZero();
+
+		UploadSessionResponse first = write(0);
+		assertThat(first.getReceivedChunks()).containsExactly(0, 2);
+		assertThat(first.getCommittedOffset()).isEqualTo(CHUNK_SIZE);
+
+		// A retried chunk isn't counted twice
+		assertThat(write(0).getReceivedBytes()).isEqualTo(CHUNK_SIZE + 100);
+
+		UploadSessionResponse all = write(1);
+		assertThat(all.getReceivedChunks()).containsExactly(0, 1, 2);
+		assertThat(all.getReceivedBytes()).isEqualTo(content.length);
+		assertThat(all.getCommittedOffset()).isEqualTo(content.length);
+		assertThat(Files.readAllBytes(Path.of(session.getStagingPath()))).isEqualTo(content);
+	}
+
+	@Test
+	void chunksOfTheWrongSizeAreRejected() {
+		assertThatThrownBy(() -> uploads.writeChunk(UPLOAD_ID, 2, new ByteArrayInputStream(new byte[99]), USER_ID))
+				.hasMessageContaining("Incomplete chunk");
+		assertThatThrownBy(() -> uploads.writeChunk(UPLOAD_ID, 2, new ByteArrayInputStream(new byte[101]), USER_ID))
+				.hasMessageContaining("larger than");
+		assertThatThrownBy(() -> uploads.writeChunk(UPLOAD_ID, 3, new ByteArrayInputStream(new byte[0]), USER_ID))
+				.hasMessageContaining("out of range");
+		assertThat(session.getReceivedBytes()).isZero();
+	}
+
+	@Test
+	void completingHandsTheAssembledFileOverOnce() throws IOException {
+		write(0);
+		write(2);
+		assertThatThrownBy(() -> uploads.completeSession(UPLOAD_ID, USER_ID)).hasMessageContaining("1 chunks missing");
+
+		write(1);
+		MedicalFileResponse created = new MedicalFileResponse();
+		when(medicalFileService.uploadStagedMedicalFile(UPLOAD_ID, 1L, Path.of(session.getStagingPath()),
+				"scan.pdf", null, null, USER_ID)).thenReturn(created);
+
+		assertThat(uploads.completeSession(UPLOAD_ID, USER_ID)).isSameAs(created);
+		assertThat(session.getStatus()).isEqualTo(UploadSessionStatus.COMPLETED);
+
+		// Completing again answers with the record instead of dispatching the file again
+		when(medicalFileService.findByUploadId(UPLOAD_ID, USER_ID)).thenReturn(Optional.of(created));
+		assertThat(uploads.completeSession(UPLOAD_ID, USER_ID)).isSameAs(created);
+		verify(medicalFileService).uploadStagedMedicalFile(anyString(), any(), any(), any(), any(), any(), any());
+	}
+
+	@Test
+	void aLostClaimWaitsForTheWinnerInsteadOfDispatchingAgain() throws IOException {
+		write(0);
+		write(1);
+		write(2);
+
+		// Another request claimed the session between our read and the locked re-read
+		UploadSession claimed = session(UploadSessionStatus.COMPLETED, Path.of(session.getStagingPath()));
+		claimed.setReceivedChunks(session.getReceivedChunks());
+		when(sessions.findByUploadId(UPLOAD_ID)).thenReturn(Optional.of(session), Optional.of(claimed));
+		when(sessions.findByUploadIdForUpdate(UPLOAD_ID)).thenReturn(Optional.of(claimed));
+		when(medicalFileService.findByUploadId(UPLOAD_ID, USER_ID)).thenReturn(Optional.empty());
+
+		Object response = uploads.completeSession(UPLOAD_ID, USER_ID);
+
+		assertThat(response).isInstanceOf(UploadSessionResponse.class);
+		assertThat(((UploadSessionResponse) response).getStatus()).isEqualTo("COMPLETED");
+		verify(medicalFileService, never()).uploadStagedMedicalFile(any(), any(), any(), any(), any(), any(), any());
+		// The winner's file is left alone
+		assertThat(Files.readAllBytes(Path.of(session.getStagingPath()))).isEqualTo(content);
+	}
+
+	@Test
+	void aFailedHandOverReopensTheSession() throws IOException {
+		write(0);
+		write(1);
+		write(2);
+		when(medicalFileService.uploadStagedMedicalFile(any(), any(), any(), any(), any(), any(), any()))
+				.thenThrow(new ServiceBusyException("busy", 5));
+
+		assertThatThrownBy(() -> uploads.completeSession(UPLOAD_ID, USER_ID)).isInstanceOf(ServiceBusyException.class);
+
+		assertThat(session.getStatus()).isEqualTo(UploadSessionStatus.OPEN);
+	}
+
+	@Test
+	void reopeningResumesOnlyTheSameUpload() throws IOException {
+		write(0);
+
+		UploadSessionResponse resumed = uploads.openSession(request(), USER_ID);
+		assertThat(resumed.getReceivedChunks()).containsExactly(0);
+		// The chunk size may be left to the server default
+		UploadSessionRequest withoutChunkSize = request();
+		withoutChunkSize.setChunkSize(null);
+		assertThat(uploads.openSession(withoutChunkSize, USER_ID).getReceivedChunks()).containsExactly(0);
+
+		List<Consumer<UploadSessionRequest>> changes = List.of(
+				request -> request.setPatientId(2L),
+				request -> request.setTarget("PRESCRIPTION"),
+				request -> request.setFilename("other.pdf"),
+				request -> request.setTotalSize((long) content.length + 1),
+				request -> request.setChunkSize(2 * CHUNK_SIZE));
+		for (Consumer<UploadSessionRequest> change : changes) {
+			UploadSessionRequest different = request();
+			change.accept(different);
+			assertThatThrownBy(() -> uploads.openSession(different, USER_ID)).hasMessageContaining("different upload");
+		}
+		assertThat(session.getReceivedBytes()).isEqualTo(CHUNK_SIZE);
+	}
+
+	private UploadSessionResponse write(int index) throws IOException {
+		int from = index * CHUNK_SIZE;
+		byte[] chunk = Arrays.copyOfRange(content, from, Math.min(from + CHUNK_SIZE, content.length));
+		return uploads.writeChunk(UPLOAD_ID, index, new ByteArrayInputStream(chunk), USER_ID);
+	}
+
+	private UploadSessionRequest request() {
+		UploadSessionRequest request = new UploadSessionRequest();
+		request.setUploadId(UPLOAD_ID);
+		request.setPatientId(1L);
+		request.setTarget("medical_file");
+		request.setFilename("scan.pdf");
+		request.setTotalSize((long) content.length);
+		request.setChunkSize(CHUNK_SIZE);
+		return request;
+	}
+
+	private UploadSession session(UploadSessionStatus status, Path stagingFile) {
+		User user = new User();
+		user.setId(USER_ID);
+		Patient patient = new Patient();
+		patient.setId(1L);
+		patient.setUser(user);
+
+		UploadSession session = new UploadSession();
+		session.setUploadId(UPLOAD_ID);
+		session.setPatient(patient);
+		session.setTarget(UploadTarget.MEDICAL_FILE);
+		session.setStatus(status);
+		session.setOriginalFilename("scan.pdf");
+		session.setTotalSize((long) content.length);
+		session.setChunkSize(CHUNK_SIZE);
+		session.setTotalChunks(3);
+		session.setReceivedChunks(new byte[0]);
+		session.setReceivedBytes(0L);
+		session.setStagingPath(stagingFile.toString());
+		session.setExpiresAt(LocalDateTime.now().plusHours(1));
+		return session;
+	}
+}
@@ -0,0 +1,67 @@
+package com.app.medivault.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DrugDictionaryTest {
+
+	@Test
+	void findsEveryNameIgnoringCaseAndPunctuation() {
+		DrugDictionary dictionary = dictionary("Paracetamol", "Pan-D\tPantoprazole + Domperidone", "Telma\tTelmisartan");
+
+		String text = "1. TAB PARACETAMOL 500mg\n2. Tab. Pan D 1-0-0\n3) telma, 40 mg";
+		List<DrugDictionary.Match> matches = dictionary.findAll(text);
+
+		assertThat(matches).extracting(match -> match.entry().name()).containsExactly("Paracetamol", "Pan-D", "Telma");
+		assertThat(matches).extracting(match -> text.substring(match.start(), match.end()))
+				.containsExactly("PARACETAMOL", "Pan D", "telma");
+		assertThat(matches.get(1).entry().generic()).isEqualTo("Pantoprazole + Domperidone");
+	}
+
+	@Test
+	void matchesOnlyWholeWords() {
+		DrugDictionary dictionary = dictionary("Cipro", "Ciprofloxacin", "Aten");
+
+		List<DrugDictionary.Match> matches = dictionary.findAll("Ciprofloxacin after food, eaten");
+
+		assertThat(matches).extracting(match -> match.entry().name()).containsExactly("Ciprofloxacin");
+	}
+
+	@Test
+	void prefersTheLongestOfOverlappingNames() {
+		DrugDictionary dictionary = dictionary("Amoxicillin", "Clavulanate", "Amoxicillin Clavulanate",
+				"Isosorbide Mononitrate", "Mononitrate");
+
+		List<DrugDictionary.Match> matches = dictionary.findAll("amoxicillin-clavulanate 625, isosorbide mononitrate");
+
+		assertThat(matches).extracting(match -> match.entry().name())
+				.containsExactly("Amoxicillin Clavulanate", "Isosorbide Mononitrate");
+	}
+
+	@Test
+	void shippedDictionaryLoads() throws Exception {
+		DrugDictionary dictionary;
+		try (var in = getClass().getResourceAsStream("/drugs/drug-dictionary.tsv")) {
+			dictionary = DrugDictionary.load(in);
+		}
+
+		assertThat(dictionary.size()).isGreaterThan(400);
+		assertThat(dictionary.findAll("Rx: Crocin 650, Augmentin 625 Duo"))
+				.extracting(match -> match.entry().generic())
+				.containsExactly("Paracetamol", "Amoxicillin + Clavulanic Acid");
+	}
+
+	private static DrugDictionary dictionary(String... lines) {
+		byte[] file = String.join("\n", lines).getBytes(StandardCharsets.UTF_8);
+		try {
+			return DrugDictionary.load(new ByteArrayInputStream(file));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
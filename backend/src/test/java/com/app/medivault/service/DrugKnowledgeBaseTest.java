@@ -0,0 +1,131 @@
+package com.app.medivault.service;
+
+import com.app.medivault.dtos.DrugInteractionResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DrugKnowledgeBaseTest {
+
+	private static final String DICTIONARY = """
+			Warfarin
+			Aspirin
+			Paracetamol
+			Acetaminophen\tParacetamol
+			Sildenafil
+			Isosorbide Dinitrate
+			Ecosprin\tAspirin
+			Viagra\tSildenafil
+			Sorbitrate\tIsosorbide Dinitrate
+			Combiflam\tIbuprofen + Paracetamol
+			""";
+
+	private static final String INTERACTIONS = """
+			# drug, drug, severity, note
+			Warfarin\tAspirin\tHIGH\tIncreased risk of bleeding
+			Sildenafil\tIsosorbide Dinitrate\tCRITICAL\tSevere drop in blood pressure
+			Warfarin\tIbuprofen\tHIGH\tIncreased risk of bleeding
+			Warfarin\tHeparin\tHIGH\tNot in the dictionary
+			""";
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void mappedFileAnswersLikeTheSources() throws IOException {
+		Path file = directory.resolve("drugs.kb");
+		DrugKnowledgeBase.write(compile(), file);
+
+		DrugKnowledgeBase kb = DrugKnowledgeBase.open(file);
+
+		assertThat(kb.dictionary().size()).isEqualTo(10);
+		assertThat(kb.dictionary().findAll("Tab. ECOSPRIN 75 mg, Tab Combiflam"))
+				.extracting(match -> match.entry().name()).containsExactly("Ecosprin", "Combiflam");
+		assertThat(kb.dictionary().entry(3).generic()).isEqualTo("Paracetamol");
+		assertThat(kb.fuzzyIndex().lookup("Warfarln").entry().name()).isEqualTo("Warfarin");
+		// Heparin isn't in the dictionary, so its rule is dropped
+		assertThat(kb.interactions().size()).isEqualTo(3);
+	}
+
+	@Test
+	void interactionsAreCheckedThroughBrandIngredients() throws IOException {
+		DrugKnowledgeBase kb = DrugKnowledgeBase.load(compile());
+
+		DrugInteractionResult bleeding = kb.interactions().check(ids(kb, "Warfarin", "Ecosprin", "Combiflam"), 3);
+		assertThat(bleeding.getRiskLevel()).isEqualTo("HIGH");
+		assertThat(bleeding.getWarnings()).containsExactlyInAnyOrder(
+				"Warfarin + Aspirin: Increased risk of bleeding",
+				"Warfarin + Ibuprofen: Increased risk of bleeding");
+
+		DrugInteractionResult nitrate = kb.interactions().check(ids(kb, "Viagra", "Sorbitrate", "Paracetamol"), 3);
+		assertThat(nitrate.getRiskLevel()).isEqualTo("CRITICAL");
+		assertThat(nitrate.getWarnings()).hasSize(1);
+
+		DrugInteractionResult none = kb.interactions().check(ids(kb, "Paracetamol", "Acetaminophen"), 2);
+		assertThat(none.getRiskLevel()).isEqualTo("LOW");
+		assertThat(none.getWarnings()).isEmpty();
+	}
+
+	@Test
+	void rejectsCorruptOrTruncatedFiles() throws IOException {
+		byte[] bytes = toArray(compile());
+
+		Path corrupt = directory.resolve("corrupt.kb");
+		byte[] flipped = bytes.clone();
+		flipped[flipped.length / 2] ^= 0x55;
+		Files.write(corrupt, flipped);
+		assertThatThrownBy(() -> DrugKnowledgeBase.open(corrupt)).isInstanceOf(IOException.class);
+
+		Path truncated = directory.resolve("truncated.kb");
+		Files.write(truncated, Arrays.copyOf(bytes, bytes.length / 2));
+		assertThatThrownBy(() -> DrugKnowledgeBase.open(truncated)).isInstanceOf(IOException.class);
+	}
+
+	@Test
+	void writeReplacesAnExistingFile() throws IOException {
+		Path file = directory.resolve("drugs.kb");
+		Files.writeString(file, "an older version");
+
+		DrugKnowledgeBase.write(compile(), file);
+
+		assertThat(DrugKnowledgeBase.open(file).dictionary().size()).isEqualTo(10);
+		try (var listing = Files.list(directory)) {
+			assertThat(listing).containsExactly(file);
+		}
+	}
+
+	private static ByteBuffer compile() throws IOException {
+		try (InputStream dictionary = stream(DICTIONARY); InputStream interactions = stream(INTERACTIONS)) {
+			return DrugKnowledgeBase.compile(dictionary, interactions);
+		}
+	}
+
+	private static int[] ids(DrugKnowledgeBase kb, String... names) {
+		int[] ids = new int[names.length];
+		for (int i = 0; i < names.length; i++) {
+			ids[i] = kb.dictionary().findAll(names[i]).get(0).id();
+		}
+		return ids;
+	}
+
+	private static InputStream stream(String text) {
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] toArray(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+}
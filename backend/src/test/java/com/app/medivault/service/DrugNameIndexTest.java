@@ -0,0 +1,49 @@
+package com.app.medivault.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class DrugNameIndexTest {
+
+	private final DrugNameIndex index = DrugNameIndex.build(DrugDictionary.compile(List.of(
+			new DrugDictionary.Entry("Amoxicillin", null),
+			new DrugDictionary.Entry("Paracetamol", null),
+			new DrugDictionary.Entry("Metformin", null),
+			new DrugDictionary.Entry("Crocin", "Paracetamol"),
+			new DrugDictionary.Entry("Amoxicillin Clavulanate", null))));
+
+	@Test
+	void findsNamesWithinTwoEdits() {
+		assertThat(index.lookup("Amoxicilin").entry().name()).isEqualTo("Amoxicillin");
+		assertThat(index.lookup("Metfromin").entry().name()).isEqualTo("Metformin");
+		assertThat(index.lookup("amoxicilin-clavulanat").entry().name()).isEqualTo("Amoxicillin Clavulanate");
+	}
+
+	@Test
+	void ocrConfusionsCostLessThanOtherEdits() {
+		DrugNameIndex.Candidate digit = index.lookup("Paracetam0l");
+		DrugNameIndex.Candidate typo = index.lookup("Paracetaml");
+
+		assertThat(digit.entry().name()).isEqualTo("Paracetamol");
+		assertThat(digit.confidence()).isGreaterThan(typo.confidence());
+	}
+
+	@Test
+	void confidenceFallsWithDistance() {
+		assertThat(index.lookup("PARACETAMOL").confidence()).isEqualTo(1.0);
+		assertThat(index.lookup("Amoxicilin").confidence()).isCloseTo(1 - 1.0 / 11, within(1e-9));
+		assertThat(index.lookup("Amxicilin").confidence()).isLessThan(0.85);
+	}
+
+	@Test
+	void shortOrDistantWordsHaveNoCandidate() {
+		assertThat(index.lookup("Crocn")).isNotNull();
+		assertThat(index.lookup("Croc")).isNull();
+		assertThat(index.lookup("morning")).isNull();
+		assertThat(index.lookup("Metxxxmin")).isNull();
+	}
+}
@@ -0,0 +1,146 @@
+package com.app.medivault.service;
+
+import com.app.medivault.dtos.FileDownload;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FileDownloadServiceTest {
+
+	private static final String CONTENT = "0123456789";
+	private static final String HASH = "ab".repeat(32);
+
+	@TempDir
+	Path directory;
+
+	private FileDownloadService downloads;
+	private FileDownload blob;
+
+	@BeforeEach
+	void storeBlob() throws IOException {
+		Path root = directory.resolve("blobs");
+		downloads = new FileDownloadService(new FileStorageService(null, null, root.toString()));
+		Path file = root.resolve("ab").resolve("ab").resolve(HASH);
+		Files.createDirectories(file.getParent());
+		Files.writeString(file, CONTENT);
+		blob = new FileDownload(file.toString(), "text/plain", "digits.txt");
+	}
+
+	@Test
+	void sendsTheWholeFileWithItsHashAsETag() throws IOException {
+		MockHttpServletResponse response = send(new MockHttpServletRequest("GET", "/download"));
+
+		assertThat(response.getStatus()).isEqualTo(200);
+		assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+		assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + HASH + "\"");
+		// Addressed by id, so clients have to revalidate
+		assertThat(response.getHeader(HttpHeaders.CACHE_CONTROL)).isEqualTo("private, no-cache");
+	}
+
+	@Test
+	void sendsSingleByteRanges() throws IOException {
+		MockHttpServletResponse middle = send(range("bytes=2-5"));
+		assertThat(middle.getStatus()).isEqualTo(206);
+		assertThat(middle.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+		assertThat(middle.getContentAsString()).isEqualTo("2345");
+
+		MockHttpServletResponse suffix = send(range("bytes=-3"));
+		assertThat(suffix.getStatus()).isEqualTo(206);
+		assertThat(suffix.getContentAsString()).isEqualTo("789");
+
+		MockHttpServletResponse openEnded = send(range("bytes=8-"));
+		assertThat(openEnded.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 8-9/10");
+		assertThat(openEnded.getContentAsString()).isEqualTo("89");
+
+		MockHttpServletResponse clamped = send(range("bytes=7-100"));
+		assertThat(clamped.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 7-9/10");
+	}
+
+	@Test
+	void rangesPastTheEndAreUnsatisfiable() throws IOException {
+		MockHttpServletResponse response = send(range("bytes=10-"));
+
+		assertThat(response.getStatus()).isEqualTo(416);
+		assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+		assertThat(response.getContentAsByteArray()).isEmpty();
+	}
+
+	@Test
+	void malformedOrMultipleRangesGetTheWholeFile() throws IOException {
+		for (String header : new String[]{"bytes=0-1,4-5", "bytes=5-2", "bytes=x-", "items=0-1", "bytes=5"}) {
+			MockHttpServletResponse response = send(range(header));
+			assertThat(response.getStatus()).as(header).isEqualTo(200);
+			assertThat(response.getContentAsString()).as(header).isEqualTo(CONTENT);
+		}
+	}
+
+	@Test
+	void ifRangeOnlyAppliesTheRangeWhileTheETagMatches() throws IOException {
+		MockHttpServletRequest current = range("bytes=0-1");
+		current.addHeader(HttpHeaders.IF_RANGE, "\"" + HASH + "\"");
+		assertThat(send(current).getStatus()).isEqualTo(206);
+
+		MockHttpServletRequest changed = range("bytes=0-1");
+		changed.addHeader(HttpHeaders.IF_RANGE, "\"" + "cd".repeat(32) + "\"");
+		MockHttpServletResponse response = send(changed);
+		assertThat(response.getStatus()).isEqualTo(200);
+		assertThat(response.getContentAsString()).isEqualTo(CONTENT);
+
+		// If-Range needs a strong comparison
+		MockHttpServletRequest weak = range("bytes=0-1");
+		weak.addHeader(HttpHeaders.IF_RANGE, "W/\"" + HASH + "\"");
+		assertThat(send(weak).getStatus()).isEqualTo(200);
+	}
+
+	@Test
+	void ifNoneMatchAnswersNotModified() throws IOException {
+		MockHttpServletRequest list = new MockHttpServletRequest("GET", "/download");
+		list.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\", W/\"" + HASH + "\"");
+		MockHttpServletResponse notModified = send(list);
+		assertThat(notModified.getStatus()).isEqualTo(304);
+		assertThat(notModified.getContentAsByteArray()).isEmpty();
+
+		MockHttpServletRequest any = new MockHttpServletRequest("GET", "/download");
+		any.addHeader(HttpHeaders.IF_NONE_MATCH, "*");
+		assertThat(send(any).getStatus()).isEqualTo(304);
+
+		MockHttpServletRequest stale = new MockHttpServletRequest("GET", "/download");
+		stale.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+		assertThat(send(stale).getStatus()).isEqualTo(200);
+	}
+
+	@Test
+	void filesOutsideTheStoreGetAWeakETag() throws IOException {
+		Path legacy = directory.resolve("legacy.txt");
+		Files.writeString(legacy, CONTENT, StandardCharsets.UTF_8);
+
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		downloads.send(new FileDownload(legacy.toString(), null, "legacy.txt"),
+				new MockHttpServletRequest("GET", "/download"), response);
+
+		assertThat(response.getHeader(HttpHeaders.ETAG)).startsWith("W/\"10-");
+		assertThat(response.getContentType()).isEqualTo("application/octet-stream");
+	}
+
+	private MockHttpServletResponse send(MockHttpServletRequest request) throws IOException {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		downloads.send(blob, request, response);
+		return response;
+	}
+
+	private static MockHttpServletRequest range(String header) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/download");
+		request.addHeader(HttpHeaders.RANGE, header);
+		return request;
+	}
+}
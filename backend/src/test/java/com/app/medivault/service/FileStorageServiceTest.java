@@ -0,0 +1,198 @@
+package com.app.medivault.service;
+
+import com.app.medivault.entity.StoredBlob;
+import com.app.medivault.repository.StoredBlobRepository;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionSystemException;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FileStorageServiceTest {
+
+	@TempDir
+	Path directory;
+
+	// The stored_blobs table
+	private final Map<String, StoredBlob> blobs = new HashMap<>();
+
+	private PlatformTransactionManager transactionManager;
+	private FileStorageService storage;
+	private PdfConversionService pdfConversionService;
+
+	@BeforeEach
+	void createStore() {
+		StoredBlobRepository repository = mock(StoredBlobRepository.class);
+		when(repository.findByContentHashForUpdate(anyString()))
+				.thenAnswer(invocation -> Optional.ofNullable(blobs.get(invocation.<String>getArgument(0))));
+		when(repository.existsById(anyString()))
+				.thenAnswer(invocation -> blobs.containsKey(invocation.<String>getArgument(0)));
+		when(repository.save(any(StoredBlob.class))).thenAnswer(invocation -> put(invocation.getArgument(0)));
+		when(repository.saveAndFlush(any(StoredBlob.class))).thenAnswer(invocation -> put(invocation.getArgument(0)));
+		doAnswer(invocation -> blobs.remove(invocation.<StoredBlob>getArgument(0).getContentHash()))
+				.when(repository).delete(any(StoredBlob.class));
+
+		transactionManager = mock(PlatformTransactionManager.class);
+		when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+
+		storage = new FileStorageService(repository, transactionManager, directory.resolve("blobs").toString());
+		pdfConversionService = new PdfConversionService(null, null, DataSize.ofMegabytes(16),
+				directory.resolve("scratch").toString());
+	}
+
+	@Test
+	void appendingToAnUnsharedPdfExtendsItsFileInPlace() throws IOException {
+		String base = storage.storeFile(pdf(2));
+		byte[] original = Files.readAllBytes(Path.of(base));
+
+		FileStorageService.AppendedBlob appended = storage.storeAppended(base, increment(base, 1));
+
+		assertThat(appended.extendedInPlace()).isTrue();
+		assertAppended(original, appended.location(), 3);
+		// The reference moved to the new blob, and the old name is gone
+		assertThat(Path.of(base)).doesNotExist();
+		assertThat(blobs).containsOnlyKeys(storage.hashOf(appended.location()));
+		assertThat(blobs.get(storage.hashOf(appended.location())).getReferenceCount()).isEqualTo(1);
+
+		// And again, onto the extended file
+		byte[] extended = Files.readAllBytes(Path.of(appended.location()));
+		FileStorageService.AppendedBlob again = storage.storeAppended(appended.location(),
+				increment(appended.location(), 2));
+		assertThat(again.extendedInPlace()).isTrue();
+		assertAppended(extended, again.location(), 5);
+		assertAppended(original, again.location(), 5);
+	}
+
+	@Test
+	void appendingToASharedPdfLeavesItAsItWas() throws IOException {
+		Path source = pdf(2);
+		String base = storage.storeFile(copy(source));
+		assertThat(storage.storeFile(copy(source))).isEqualTo(base);
+		byte[] original = Files.readAllBytes(Path.of(base));
+
+		FileStorageService.AppendedBlob appended = storage.storeAppended(base, increment(base, 1));
+
+		assertThat(appended.extendedInPlace()).isFalse();
+		assertAppended(original, appended.location(), 3);
+		assertThat(Files.readAllBytes(Path.of(base))).isEqualTo(original);
+		assertThat(blobs.get(storage.hashOf(base)).getReferenceCount()).isEqualTo(2);
+		assertThat(blobs.get(storage.hashOf(appended.location())).getReferenceCount()).isEqualTo(1);
+	}
+
+	@Test
+	void theSameAppendToTheSameBaseGetsTheSameBlob() throws IOException {
+		Path source = pdf(2);
+		String base = storage.storeFile(copy(source));
+		storage.storeFile(copy(source));
+
+		Path first = increment(base, 1);
+		Path second = copy(first);
+
+		String location = storage.storeAppended(base, first).location();
+		assertThat(storage.storeAppended(base, second).location()).isEqualTo(location);
+		assertThat(blobs.get(storage.hashOf(location)).getReferenceCount()).isEqualTo(2);
+	}
+
+	@Test
+	void aFailedCommitGivesTheBaseItsOldNameBack() throws IOException {
+		String base = storage.storeFile(pdf(2));
+		byte[] original = Files.readAllBytes(Path.of(base));
+		Path increment = increment(base, 1);
+		doThrow(new TransactionSystemException("commit failed")).when(transactionManager).commit(any());
+
+		assertThatThrownBy(() -> storage.storeAppended(base, increment)).isInstanceOf(TransactionSystemException.class);
+
+		assertThat(Files.readAllBytes(Path.of(base))).isEqualTo(original);
+		try (Stream<Path> files = Files.walk(directory.resolve("blobs"))) {
+			assertThat(files.filter(Files::isRegularFile)).containsExactly(Path.of(base));
+		}
+	}
+
+	@Test
+	void anUploadOfTheAppendedBytesSharesItsBlob() throws IOException {
+		String base = storage.storeFile(pdf(2));
+		String appended = storage.storeAppended(base, increment(base, 1)).location();
+
+		assertThat(storage.storeFile(copy(Path.of(appended)))).isEqualTo(appended);
+		assertThat(blobs.get(storage.hashOf(appended)).getReferenceCount()).isEqualTo(2);
+	}
+
+	/**
+	 * The stored file starts with the original bytes unchanged, is keyed by its own content
+	 * and reloads with all the pages
+	 */
+	private void assertAppended(byte[] original, String location, int pages) throws IOException {
+		byte[] stored = Files.readAllBytes(Path.of(location));
+		assertThat(stored.length).isGreaterThan(original.length);
+		assertThat(storage.hashOf(location)).isEqualTo(sha256(stored));
+		assertThat(blobs.get(storage.hashOf(location)).getSizeBytes()).isEqualTo(stored.length);
+		assertThat(Arrays.copyOf(stored, original.length)).isEqualTo(original);
+		try (PDDocument document = Loader.loadPDF(Path.of(location).toFile())) {
+			assertThat(document.getNumberOfPages()).isEqualTo(pages);
+		}
+	}
+
+	private Path increment(String base, int pages) throws IOException {
+		Path increment = storage.createTempFile(".pdf");
+		pdfConversionService.appendPdfs(Path.of(base), List.of(pdf(pages)), increment);
+		return increment;
+	}
+
+	private Path copy(Path file) throws IOException {
+		Path copy = Files.createTempFile(directory, "copy-", ".pdf");
+		Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+		return copy;
+	}
+
+	private Path pdf(int pages) throws IOException {
+		Path file = Files.createTempFile(directory, "source-", ".pdf");
+		try (PDDocument document = new PDDocument()) {
+			for (int i = 0; i < pages; i++) {
+				document.addPage(new PDPage());
+			}
+			document.save(file.toFile());
+		}
+		return file;
+	}
+
+	private static String sha256(byte[] content) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private StoredBlob put(StoredBlob blob) {
+		blobs.put(blob.getContentHash(), blob);
+		return blob;
+	}
+}
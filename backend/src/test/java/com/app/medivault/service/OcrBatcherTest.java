@@ -0,0 +1,108 @@
+package com.app.medivault.service;
+
+import com.google.cloud.vision.v1.AnnotateImageRequest;
+import com.google.cloud.vision.v1.AnnotateImageResponse;
+import com.google.cloud.vision.v1.Image;
+import com.google.cloud.vision.v1.TextAnnotation;
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OcrBatcherTest {
+
+	/**
+	 * Answers each image with its own bytes as text and records the size of every batch
+	 */
+	private static class FakeAnnotator implements OcrAnnotator {
+
+		final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public List<AnnotateImageResponse> annotate(List<AnnotateImageRequest> requests) {
+			batchSizes.add(requests.size());
+			List<AnnotateImageResponse> responses = new ArrayList<>();
+			for (AnnotateImageRequest request : requests) {
+				String text = request.getImage().getContent().toStringUtf8();
+				responses.add(AnnotateImageResponse.newBuilder()
+						.setFullTextAnnotation(TextAnnotation.newBuilder().setText(text))
+						.build());
+			}
+			return responses;
+		}
+	}
+
+	@Test
+	void concurrentRequestsShareBatchesAndGetTheirOwnResponses() throws Exception {
+		FakeAnnotator annotator = new FakeAnnotator();
+		try (OcrBatcher batcher = new OcrBatcher(annotator, 4, Long.MAX_VALUE, Duration.ofMillis(200), 2)) {
+			List<CompletableFuture<AnnotateImageResponse>> futures = new ArrayList<>();
+			for (int i = 0; i < 10; i++) {
+				futures.add(batcher.submit(request("image-" + i)));
+			}
+
+			for (int i = 0; i < 10; i++) {
+				assertThat(futures.get(i).get(5, TimeUnit.SECONDS).getFullTextAnnotation().getText())
+						.isEqualTo("image-" + i);
+			}
+			assertThat(annotator.batchSizes).containsExactlyInAnyOrder(4, 4, 2);
+		}
+	}
+
+	@Test
+	void partialBatchIsSentAfterLinger() throws Exception {
+		FakeAnnotator annotator = new FakeAnnotator();
+		try (OcrBatcher batcher = new OcrBatcher(annotator, 16, Long.MAX_VALUE, Duration.ofMillis(20), 1)) {
+			AnnotateImageResponse response = batcher.submit(request("alone")).get(5, TimeUnit.SECONDS);
+
+			assertThat(response.getFullTextAnnotation().getText()).isEqualTo("alone");
+			assertThat(annotator.batchSizes).containsExactly(1);
+		}
+	}
+
+	@Test
+	void batchIsSplitWhenPayloadWouldExceedMaxBytes() throws Exception {
+		FakeAnnotator annotator = new FakeAnnotator();
+		try (OcrBatcher batcher = new OcrBatcher(annotator, 16, 10, Duration.ofMillis(200), 1)) {
+			CompletableFuture<AnnotateImageResponse> first = batcher.submit(request("aaaaaa"));
+			CompletableFuture<AnnotateImageResponse> second = batcher.submit(request("bbbbbb"));
+
+			assertThat(first.get(5, TimeUnit.SECONDS).getFullTextAnnotation().getText()).isEqualTo("aaaaaa");
+			assertThat(second.get(5, TimeUnit.SECONDS).getFullTextAnnotation().getText()).isEqualTo("bbbbbb");
+			assertThat(annotator.batchSizes).containsExactly(1, 1);
+		}
+	}
+
+	@Test
+	void failedCallFailsEveryRequestInTheBatch() {
+		OcrAnnotator failing = requests -> {
+			throw new IllegalStateException("quota exceeded");
+		};
+		try (OcrBatcher batcher = new OcrBatcher(failing, 4, Long.MAX_VALUE, Duration.ofMillis(50), 1)) {
+			CompletableFuture<AnnotateImageResponse> first = batcher.submit(request("one"));
+			CompletableFuture<AnnotateImageResponse> second = batcher.submit(request("two"));
+
+			assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS))
+					.isInstanceOf(ExecutionException.class)
+					.hasRootCauseMessage("quota exceeded");
+			assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS))
+					.isInstanceOf(ExecutionException.class)
+					.hasRootCauseMessage("quota exceeded");
+		}
+	}
+
+	private static AnnotateImageRequest request(String content) {
+		return AnnotateImageRequest.newBuilder()
+				.setImage(Image.newBuilder().setContent(ByteString.copyFromUtf8(content)))
+				.build();
+	}
+}
@@ -0,0 +1,65 @@
+package com.app.medivault.service;
+
+import com.google.protobuf.ByteString;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OcrCallGuardTest {
+
+	private static final ByteString IMAGE = ByteString.copyFromUtf8("image");
+
+	@Test
+	void callFailsOnceTheDeadlinePasses() {
+		OcrEngine hanging = image -> new CompletableFuture<>();
+		try (OcrCallGuard guard = guard(hanging, Duration.ofMillis(100), false)) {
+			assertThatThrownBy(() -> guard.recognize(IMAGE)).hasMessageStartingWith("OCR timed out");
+		}
+	}
+
+	@Test
+	void breakerFailsFastAfterRepeatedFailures() {
+		AtomicInteger calls = new AtomicInteger();
+		OcrEngine failing = image -> {
+			calls.incrementAndGet();
+			return CompletableFuture.failedFuture(new RuntimeException("OCR failed: unavailable"));
+		};
+		try (OcrCallGuard guard = guard(failing, Duration.ofSeconds(1), false)) {
+			for (int i = 0; i < 4; i++) {
+				assertThatThrownBy(() -> guard.recognize(IMAGE)).hasMessage("OCR failed: unavailable");
+			}
+
+			assertThatThrownBy(() -> guard.recognize(IMAGE)).hasMessageContaining("circuit open");
+			assertThat(calls).hasValue(4);
+		}
+	}
+
+	@Test
+	void slowCallIsHedgedAndTheFasterAnswerWins() {
+		AtomicInteger calls = new AtomicInteger();
+		CompletableFuture<String> stuck = new CompletableFuture<>();
+		OcrEngine engine = image -> calls.incrementAndGet() == 21 ? stuck : CompletableFuture.completedFuture("text");
+		try (OcrCallGuard guard = guard(engine, Duration.ofSeconds(5), true)) {
+			// Enough fast calls to establish the latency percentile
+			for (int i = 0; i < 20; i++) {
+				guard.recognize(IMAGE);
+			}
+
+			assertThat(guard.recognize(IMAGE)).isEqualTo("text");
+			assertThat(calls).hasValue(22);
+		}
+	}
+
+	private static OcrCallGuard guard(OcrEngine engine, Duration timeout, boolean hedging) {
+		return new OcrCallGuard(engine, new SimpleMeterRegistry(), timeout,
+				4, 4, 0.5, Duration.ofMinutes(1),
+				8, 1, 64, Duration.ofSeconds(5),
+				hedging, 95, Duration.ofMillis(50));
+	}
+}
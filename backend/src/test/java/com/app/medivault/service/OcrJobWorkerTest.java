@@ -0,0 +1,239 @@
+package com.app.medivault.service;
+
+import com.app.medivault.entity.AnalysisStatus;
+import com.app.medivault.entity.OcrJob;
+import com.app.medivault.entity.OcrJobStatus;
+import com.app.medivault.entity.OcrJobTarget;
+import com.app.medivault.repository.OcrJobRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OcrJobWorkerTest {
+
+	private static final long JOB_ID = 1L;
+	private static final long PRESCRIPTION_ID = 10L;
+	private static final int MAX_ATTEMPTS = 3;
+	private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(10);
+
+	// The ocr_jobs table
+	private final Map<Long, OcrJob> jobs = new TreeMap<>();
+
+	private final PrescriptionService prescriptionService = mock(PrescriptionService.class);
+	private final MedicalFileTextService medicalFileTextService = mock(MedicalFileTextService.class);
+
+	private OcrJobWorker worker;
+
+	@BeforeEach
+	void createWorker() {
+		OcrJobRepository repository = mock(OcrJobRepository.class);
+		when(repository.findClaimable(any(), any(), any(), any())).thenAnswer(invocation -> claimable(
+				invocation.getArgument(2), invocation.<Pageable>getArgument(3).getPageSize()));
+		when(repository.saveAll(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		// The conditional updates only apply while the owner token still holds the lease
+		when(repository.renewLease(any(), any(), any(), any())).thenAnswer(invocation -> {
+			OcrJob job = leased(invocation.getArgument(0), invocation.getArgument(1));
+			if (job == null) return 0;
+			job.setLeaseExpiresAt(invocation.getArgument(3));
+			return 1;
+		});
+		when(repository.release(any(), any(), any(), any(), any(), any())).thenAnswer(invocation -> {
+			OcrJob job = leased(invocation.getArgument(0), invocation.getArgument(1));
+			if (job == null) return 0;
+			release(job, invocation.getArgument(3), invocation.getArgument(4));
+			return 1;
+		});
+		when(repository.reschedule(any(), any(), any(), any(), any(), any(), any())).thenAnswer(invocation -> {
+			OcrJob job = leased(invocation.getArgument(0), invocation.getArgument(1));
+			if (job == null) return 0;
+			release(job, invocation.getArgument(3), invocation.getArgument(4));
+			job.setNextAttemptAt(invocation.getArgument(5));
+			return 1;
+		});
+
+		// Runs each job on the polling thread
+		ThreadPoolTaskExecutor executor = mock(ThreadPoolTaskExecutor.class);
+		when(executor.getMaxPoolSize()).thenReturn(2);
+		doAnswer(invocation -> {
+			invocation.<Runnable>getArgument(0).run();
+			return null;
+		}).when(executor).execute(any(Runnable.class));
+
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+
+		worker = new OcrJobWorker(repository, prescriptionService, medicalFileTextService, executor,
+				transactionManager, new SimpleMeterRegistry(), "node-1", MAX_ATTEMPTS, Duration.ofMinutes(5),
+				INITIAL_BACKOFF, Duration.ofMinutes(30));
+	}
+
+	@Test
+	void aFailedAttemptIsRetriedWithBackoff() {
+		OcrJob job = job(OcrJobStatus.QUEUED, 0);
+		doThrow(new RuntimeException("Vision unavailable")).when(prescriptionService).processOcr(eq(PRESCRIPTION_ID), any());
+
+		LocalDateTime before = LocalDateTime.now();
+		worker.poll();
+
+		assertThat(job.getStatus()).isEqualTo(OcrJobStatus.QUEUED);
+		assertThat(job.getAttempts()).isEqualTo(1);
+		assertThat(job.getLastError()).isEqualTo("Vision unavailable");
+		assertThat(job.getLeaseOwner()).isNull();
+		// Half the delay fixed, half jitter
+		assertThat(job.getNextAttemptAt()).isAfterOrEqualTo(before.plus(INITIAL_BACKOFF.dividedBy(2)))
+				.isBefore(LocalDateTime.now().plus(INITIAL_BACKOFF).plusSeconds(1));
+		verify(prescriptionService).updateAnalysisStatus(PRESCRIPTION_ID, AnalysisStatus.QUEUED);
+
+		// Not due yet, so the next poll leaves it alone
+		worker.poll();
+		assertThat(job.getAttempts()).isEqualTo(1);
+
+		// The second failure waits twice as long
+		job.setNextAttemptAt(LocalDateTime.now().minusSeconds(1));
+		before = LocalDateTime.now();
+		worker.poll();
+
+		assertThat(job.getStatus()).isEqualTo(OcrJobStatus.QUEUED);
+		assertThat(job.getAttempts()).isEqualTo(2);
+		assertThat(job.getNextAttemptAt()).isAfterOrEqualTo(before.plus(INITIAL_BACKOFF))
+				.isBefore(LocalDateTime.now().plus(INITIAL_BACKOFF.multipliedBy(2)).plusSeconds(1));
+	}
+
+	@Test
+	void theFinalFailedAttemptLeavesTheJobAndItsTargetFailed() {
+		OcrJob job = job(OcrJobStatus.QUEUED, MAX_ATTEMPTS - 1);
+		doThrow(new RuntimeException("Vision unavailable")).when(prescriptionService).processOcr(eq(PRESCRIPTION_ID), any());
+
+		worker.poll();
+
+		assertThat(job.getStatus()).isEqualTo(OcrJobStatus.FAILED);
+		assertThat(job.getAttempts()).isEqualTo(MAX_ATTEMPTS);
+		assertThat(job.getLastError()).isEqualTo("Vision unavailable");
+		assertThat(job.getLeaseOwner()).isNull();
+		verify(prescriptionService).updateAnalysisStatus(PRESCRIPTION_ID, AnalysisStatus.FAILED);
+		verify(prescriptionService, never()).updateAnalysisStatus(PRESCRIPTION_ID, AnalysisStatus.QUEUED);
+
+		// A dead letter is never claimed again
+		worker.poll();
+		verify(prescriptionService).processOcr(eq(PRESCRIPTION_ID), any());
+	}
+
+	@Test
+	void aClaimThatLostItsLeaseCannotCompleteTheJob() {
+		OcrJob job = job(OcrJobStatus.QUEUED, 0);
+		AtomicBoolean renewed = new AtomicBoolean(true);
+		doAnswer(invocation -> {
+			// The lease ran out mid-run and another node claimed the job
+			job.setLeaseOwner("node-2:other");
+			renewed.set(invocation.<OcrJobLease>getArgument(1).renew());
+			return null;
+		}).when(prescriptionService).processOcr(eq(PRESCRIPTION_ID), any());
+
+		worker.poll();
+
+		assertThat(renewed).isFalse();
+		assertThat(job.getStatus()).isEqualTo(OcrJobStatus.PROCESSING);
+		assertThat(job.getLeaseOwner()).isEqualTo("node-2:other");
+	}
+
+	@Test
+	void aClaimThatLostItsLeaseCannotRescheduleOrFailTheJob() {
+		OcrJob job = job(OcrJobStatus.QUEUED, 0);
+		doAnswer(invocation -> {
+			job.setLeaseOwner("node-2:other");
+			throw new RuntimeException("Vision unavailable");
+		}).when(prescriptionService).processOcr(eq(PRESCRIPTION_ID), any());
+
+		worker.poll();
+
+		assertThat(job.getStatus()).isEqualTo(OcrJobStatus.PROCESSING);
+		assertThat(job.getLeaseOwner()).isEqualTo("node-2:other");
+		assertThat(job.getLastError()).isNull();
+		verify(prescriptionService, never()).updateAnalysisStatus(anyLong(), any());
+
+		// Nor once it has run out of attempts
+		job.setStatus(OcrJobStatus.QUEUED);
+		job.setAttempts(MAX_ATTEMPTS - 1);
+		job.setNextAttemptAt(LocalDateTime.now().minusSeconds(1));
+		worker.poll();
+
+		assertThat(job.getStatus()).isEqualTo(OcrJobStatus.PROCESSING);
+		verify(prescriptionService, never()).updateAnalysisStatus(anyLong(), any());
+	}
+
+	@Test
+	void anExpiredFinalAttemptIsDeadLetteredInsteadOfRunAgain() {
+		OcrJob job = job(OcrJobStatus.PROCESSING, MAX_ATTEMPTS);
+		job.setLeaseOwner("node-2:crashed");
+		job.setLeaseExpiresAt(LocalDateTime.now().minusMinutes(1));
+
+		worker.poll();
+
+		assertThat(job.getStatus()).isEqualTo(OcrJobStatus.FAILED);
+		assertThat(job.getAttempts()).isEqualTo(MAX_ATTEMPTS);
+		assertThat(job.getLeaseOwner()).isNull();
+		assertThat(job.getLastError()).contains("Lease expired");
+		verify(prescriptionService, never()).processOcr(any(), any());
+		verify(prescriptionService).updateAnalysisStatus(PRESCRIPTION_ID, AnalysisStatus.FAILED);
+	}
+
+	private OcrJob job(OcrJobStatus status, int attempts) {
+		OcrJob job = new OcrJob();
+		job.setId(JOB_ID);
+		job.setTargetType(OcrJobTarget.PRESCRIPTION);
+		job.setTargetId(PRESCRIPTION_ID);
+		job.setStatus(status);
+		job.setAttempts(attempts);
+		job.setNextAttemptAt(LocalDateTime.now().minusSeconds(1));
+		jobs.put(job.getId(), job);
+		return job;
+	}
+
+	private List<OcrJob> claimable(LocalDateTime now, int limit) {
+		List<OcrJob> due = new ArrayList<>();
+		for (OcrJob job : jobs.values()) {
+			boolean queued = job.getStatus() == OcrJobStatus.QUEUED && !job.getNextAttemptAt().isAfter(now);
+			boolean expired = job.getStatus() == OcrJobStatus.PROCESSING && job.getLeaseExpiresAt().isBefore(now);
+			if ((queued || expired) && due.size() < limit) {
+				due.add(job);
+			}
+		}
+		return due;
+	}
+
+	private OcrJob leased(Long id, String owner) {
+		OcrJob job = jobs.get(id);
+		return job != null && job.getStatus() == OcrJobStatus.PROCESSING && owner.equals(job.getLeaseOwner())
+				? job : null;
+	}
+
+	private static void release(OcrJob job, OcrJobStatus status, String error) {
+		job.setStatus(status);
+		job.setLeaseOwner(null);
+		job.setLeaseExpiresAt(null);
+		job.setLastError(error);
+	}
+}
@@ -0,0 +1,74 @@
+package com.app.medivault.service;
+
+import com.app.medivault.service.PrescriptionLexer.Token;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PrescriptionLexerTest {
+
+	@Test
+	void readsDosagesFrequenciesAndDurations() {
+		String text = "Amoxicillin 500mg 1-0-1 x 5 days\nsyrup 2.5 ml/5 ml TDS for 2 weeks";
+		PrescriptionLexer lexer = new PrescriptionLexer(text);
+		List<String> values = new ArrayList<>();
+		for (Token token = lexer.next(); token != Token.END; token = lexer.next()) {
+			switch (token) {
+				case DOSAGE -> values.add("dosage " + text.substring(lexer.start(), lexer.end()));
+				case FREQUENCY -> values.add("frequency " + lexer.frequency());
+				case DURATION -> values.add("duration " + lexer.duration());
+				default -> {
+				}
+			}
+		}
+
+		assertThat(values).containsExactly("dosage 500mg", "frequency 1-0-1", "duration 5 days",
+				"dosage 2.5 ml/5 ml", "frequency TDS", "duration 2 weeks");
+	}
+
+	@Test
+	void spelledOutFrequenciesBecomeAbbreviations() {
+		assertThat(frequencies("once daily, twice a day, 1 - 1 - 1 - 1, sos")).containsExactly("OD", "BD", "1-1-1-1", "SOS");
+	}
+
+	@Test
+	void readsDatesDayFirstUnlessOnlyMonthFirstFits() {
+		assertThat(dates("12/05/2024 05-12-24 05/25/2024 12 May 2024 May 3, 2024 31/02/2024"))
+				.containsExactly(LocalDate.of(2024, 5, 12), LocalDate.of(2024, 12, 5), LocalDate.of(2024, 5, 25),
+						LocalDate.of(2024, 5, 12), LocalDate.of(2024, 5, 3));
+	}
+
+	@Test
+	void doseCountsAreNotDates() {
+		PrescriptionLexer lexer = new PrescriptionLexer("1-0-1");
+
+		assertThat(lexer.next()).isEqualTo(Token.FREQUENCY);
+		assertThat(lexer.next()).isEqualTo(Token.END);
+	}
+
+	private static List<String> frequencies(String text) {
+		PrescriptionLexer lexer = new PrescriptionLexer(text);
+		List<String> found = new ArrayList<>();
+		for (Token token = lexer.next(); token != Token.END; token = lexer.next()) {
+			if (token == Token.FREQUENCY) {
+				found.add(lexer.frequency());
+			}
+		}
+		return found;
+	}
+
+	private static List<LocalDate> dates(String text) {
+		PrescriptionLexer lexer = new PrescriptionLexer(text);
+		List<LocalDate> found = new ArrayList<>();
+		for (Token token = lexer.next(); token != Token.END; token = lexer.next()) {
+			if (token == Token.DATE) {
+				found.add(lexer.date());
+			}
+		}
+		return found;
+	}
+}
@@ -0,0 +1,104 @@
+package com.app.medivault.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.Test;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TextPdfRendererTest {
+
+	// A4 with 50pt margins and 14.5pt leading
+	private static final int LINES_PER_PAGE = 52;
+
+	@Test
+	void longTextGetsAsManyPagesAsItNeeds() throws IOException {
+		assertThat(pageCount("")).isEqualTo(1);
+		assertThat(pageCount("line\n".repeat(LINES_PER_PAGE))).isEqualTo(1);
+		assertThat(pageCount("line\n".repeat(LINES_PER_PAGE + 1))).isEqualTo(2);
+		assertThat(pageCount("line\n".repeat(2 * LINES_PER_PAGE))).isEqualTo(2);
+		// No newline after the last line
+		assertThat(pageCount("line\n".repeat(2 * LINES_PER_PAGE) + "line")).isEqualTo(3);
+	}
+
+	@Test
+	void wordsWiderThanThePageAreBroken() throws IOException {
+		String word = "x".repeat(500);
+
+		List<String> lines = lines("Rx " + word + " done");
+
+		// Moved off the first line whole, then cut wherever a line is full
+		assertThat(lines.get(0)).isEqualTo("Rx");
+		assertThat(lines.size()).isGreaterThan(3);
+		assertThat(String.join("", lines)).isEqualTo("Rx" + word + " done");
+	}
+
+	@Test
+	void wrappedLinesBreakAtTheLastSpace() throws IOException {
+		String text = "paracetamol ".repeat(20).strip();
+
+		for (String line : lines(text)) {
+			assertThat(line).doesNotStartWith(" ").doesNotEndWith(" ");
+			assertThat(line.split(" ")).containsOnly("paracetamol");
+		}
+	}
+
+	@Test
+	void crLfCrAndLfEachEndOneLine() throws IOException {
+		for (String ending : new String[]{"\r\n", "\r", "\n"}) {
+			assertThat(pageCount("line" + ending.repeat(LINES_PER_PAGE))).as(ending.replace("\r", "CR").replace("\n", "LF"))
+					.isEqualTo(1);
+			assertThat(pageCount("line" + ending.repeat(LINES_PER_PAGE + 1))).isEqualTo(2);
+		}
+		assertThat(lines("a\r\nb\rc\nd")).containsExactly("a", "b", "c", "d");
+	}
+
+	@Test
+	void aCrLfSplitBetweenReadsIsStillOneLineEnd() throws IOException {
+		try (PDDocument document = new PDDocument()) {
+			renderer(document).render(new OneCharAtATime(new StringReader("line\r\n".repeat(LINES_PER_PAGE))));
+			assertThat(document.getNumberOfPages()).isEqualTo(1);
+		}
+	}
+
+	private static int pageCount(String text) throws IOException {
+		try (PDDocument document = new PDDocument()) {
+			renderer(document).render(new StringReader(text));
+			return document.getNumberOfPages();
+		}
+	}
+
+	private static List<String> lines(String text) throws IOException {
+		try (PDDocument document = new PDDocument()) {
+			renderer(document).render(new StringReader(text));
+			return new PDFTextStripper().getText(document).lines().filter(line -> !line.isEmpty()).toList();
+		}
+	}
+
+	private static TextPdfRenderer renderer(PDDocument document) {
+		return new TextPdfRenderer(document, new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12, 14.5f);
+	}
+
+	/**
+	 * Hands out one character per read, so every CR ends a buffer
+	 */
+	private static class OneCharAtATime extends FilterReader {
+
+		OneCharAtATime(Reader in) {
+			super(in);
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) throws IOException {
+			return super.read(buffer, offset, Math.min(length, 1));
+		}
+	}
+}
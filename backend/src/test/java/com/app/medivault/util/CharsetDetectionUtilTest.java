@@ -0,0 +1,88 @@
+package com.app.medivault.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CharsetDetectionUtilTest {
+
+	private static final String TEXT = "Paracetamol 500 mg \u2013 apr\u00e8s les repas, 5 \u00b5g";
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void detectsUtf8() throws IOException {
+		Path file = write(TEXT.getBytes(StandardCharsets.UTF_8));
+
+		assertThat(CharsetDetectionUtil.detect(file))
+				.isEqualTo(new CharsetDetectionUtil.DetectedCharset(StandardCharsets.UTF_8, 0));
+		assertThat(read(file)).isEqualTo(TEXT);
+	}
+
+	@Test
+	void skipsAUtf8ByteOrderMark() throws IOException {
+		Path file = write(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, TEXT.getBytes(StandardCharsets.UTF_8));
+
+		assertThat(CharsetDetectionUtil.detect(file))
+				.isEqualTo(new CharsetDetectionUtil.DetectedCharset(StandardCharsets.UTF_8, 3));
+		assertThat(read(file)).isEqualTo(TEXT);
+	}
+
+	@Test
+	void detectsUtf16ByItsByteOrderMark() throws IOException {
+		Path bigEndian = write(new byte[]{(byte) 0xFE, (byte) 0xFF}, TEXT.getBytes(StandardCharsets.UTF_16BE));
+		assertThat(CharsetDetectionUtil.detect(bigEndian))
+				.isEqualTo(new CharsetDetectionUtil.DetectedCharset(StandardCharsets.UTF_16BE, 2));
+		assertThat(read(bigEndian)).isEqualTo(TEXT);
+
+		Path littleEndian = write(new byte[]{(byte) 0xFF, (byte) 0xFE}, TEXT.getBytes(StandardCharsets.UTF_16LE));
+		assertThat(CharsetDetectionUtil.detect(littleEndian))
+				.isEqualTo(new CharsetDetectionUtil.DetectedCharset(StandardCharsets.UTF_16LE, 2));
+		assertThat(read(littleEndian)).isEqualTo(TEXT);
+	}
+
+	@Test
+	void fallsBackToWindows1252() throws IOException {
+		Path file = write(TEXT.getBytes(CharsetDetectionUtil.WINDOWS_1252));
+
+		assertThat(CharsetDetectionUtil.detect(file))
+				.isEqualTo(new CharsetDetectionUtil.DetectedCharset(CharsetDetectionUtil.WINDOWS_1252, 0));
+		assertThat(read(file)).isEqualTo(TEXT);
+	}
+
+	@Test
+	void aCharacterCutOffByTheSampleIsStillUtf8() throws IOException {
+		// A two-byte character whose first byte is the last one in the 64 KB sample
+		String text = "a".repeat(64 * 1024 - 1) + "\u00e9";
+		Path file = write(text.getBytes(StandardCharsets.UTF_8));
+
+		assertThat(CharsetDetectionUtil.detect(file).charset()).isEqualTo(StandardCharsets.UTF_8);
+		assertThat(read(file)).isEqualTo(text);
+	}
+
+	private Path write(byte[]... parts) throws IOException {
+		Path file = Files.createTempFile(directory, "export-", ".txt");
+		for (byte[] part : parts) {
+			Files.write(file, part, StandardOpenOption.APPEND);
+		}
+		return file;
+	}
+
+	private static String read(Path file) throws IOException {
+		StringWriter out = new StringWriter();
+		try (Reader reader = CharsetDetectionUtil.openReader(file)) {
+			reader.transferTo(out);
+		}
+		return out.toString();
+	}
+}